@@ -32,7 +32,7 @@ import java.awt.image.*;
  */
 class CloudMaskOpImage extends PointOpImage {
 
-    private final double cloudProductThreshold;
+    private final double rawThreshold;
 
     /**
      * Creates a cloud mask image.
@@ -54,15 +54,24 @@ class CloudMaskOpImage extends PointOpImage {
 
         final SampleModel sampleModel = new ComponentSampleModelJAI(DataBuffer.TYPE_BYTE, w, h, 1, w, new int[]{0});
         final ColorModel colorModel = PlanarImage.createColorModel(sampleModel);
-        final ImageLayout imageLayout = new ImageLayout(0, 0, w, h, 0, 0, w, h, sampleModel, colorModel);
-
-        return new CloudMaskOpImage(cloudProductImage, imageLayout, cloudProductThreshold);
+        // the cloud product image is pulled tile by tile, using its own tiling
+        final ImageLayout imageLayout = new ImageLayout(0, 0, w, h,
+                                                        cloudProductImage.getTileGridXOffset(),
+                                                        cloudProductImage.getTileGridYOffset(),
+                                                        cloudProductImage.getTileWidth(),
+                                                        cloudProductImage.getTileHeight(),
+                                                        sampleModel, colorModel);
+
+        // the raw samples are compared with the threshold, so they can be read in their own data type
+        final double rawThreshold = cloudProductBand.scaleInverse(cloudProductThreshold);
+
+        return new CloudMaskOpImage(cloudProductImage, imageLayout, rawThreshold);
     }
 
-    private CloudMaskOpImage(RenderedImage cloudProductImage, ImageLayout imageLayout, double cloudProductThreshold) {
+    private CloudMaskOpImage(RenderedImage cloudProductImage, ImageLayout imageLayout, double rawThreshold) {
         super(cloudProductImage, imageLayout, null, true);
 
-        this.cloudProductThreshold = cloudProductThreshold;
+        this.rawThreshold = rawThreshold;
     }
 
     @Override
@@ -77,11 +86,16 @@ class CloudMaskOpImage extends PointOpImage {
 
         final PixelAccessor sourceAccessor;
         final UnpackedImageData sourceData;
-        final double[] sourcePixels;
+        final int sourceType;
 
         sourceAccessor = new PixelAccessor(getSourceImage(0));
-        sourceData = sourceAccessor.getPixels(sources[0], rectangle, DataBuffer.TYPE_DOUBLE, false);
-        sourcePixels = sourceData.getDoubleData(0);
+        sourceType = getSourceType(getSourceImage(0).getSampleModel().getDataType());
+        sourceData = sourceAccessor.getPixels(sources[0], rectangle, sourceType, false);
+
+        final byte[] bytePixels = sourceType == DataBuffer.TYPE_BYTE ? sourceData.getByteData(0) : null;
+        final short[] shortPixels = sourceType == DataBuffer.TYPE_USHORT ? sourceData.getShortData(0) : null;
+        final float[] floatPixels = sourceType == DataBuffer.TYPE_FLOAT ? sourceData.getFloatData(0) : null;
+        final double[] doublePixels = sourceType == DataBuffer.TYPE_DOUBLE ? sourceData.getDoubleData(0) : null;
 
         int sourceLineOffset = sourceData.bandOffsets[0];
         int targetLineOffset = targetData.bandOffsets[0];
@@ -91,7 +105,21 @@ class CloudMaskOpImage extends PointOpImage {
             int targetPixelOffset = targetLineOffset;
 
             for (int x = 0; x < rectangle.width; ++x) {
-                if (sourcePixels[sourcePixelOffset] > cloudProductThreshold) {
+                final double sample;
+                switch (sourceType) {
+                case DataBuffer.TYPE_BYTE:
+                    sample = bytePixels[sourcePixelOffset] & 0xFF;
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                    sample = shortPixels[sourcePixelOffset] & 0xFFFF;
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    sample = floatPixels[sourcePixelOffset];
+                    break;
+                default:
+                    sample = doublePixels[sourcePixelOffset];
+                }
+                if (sample > rawThreshold) {
                     targetPixels[targetPixelOffset] = 1;
                 }
 
@@ -105,4 +133,15 @@ class CloudMaskOpImage extends PointOpImage {
 
         targetAccessor.setPixels(targetData);
     }
+
+    private static int getSourceType(int dataType) {
+        switch (dataType) {
+        case DataBuffer.TYPE_BYTE:
+        case DataBuffer.TYPE_USHORT:
+        case DataBuffer.TYPE_FLOAT:
+            return dataType;
+        default:
+            return DataBuffer.TYPE_DOUBLE;
+        }
+    }
 }
@@ -46,6 +46,35 @@ public class CloudMaskOpImageTest extends TestCase {
         assertEquals(1, raster.getSample(1, 1, 0));
     }
 
+    public void testImageComputationWithByteCloudProduct() {
+        final Product product = new Product("test", "test", W, H);
+        final Band band = product.addBand("cloud_product", ProductData.TYPE_UINT8);
+        band.setSynthetic(true);
+        band.setRasterData(ProductData.createInstance(new byte[]{0, 1, 0, 1}));
+
+        final Raster raster = CloudMaskOpImage.createImage(band, 0.5).getData();
+
+        assertEquals(0, raster.getSample(0, 0, 0));
+        assertEquals(1, raster.getSample(1, 0, 0));
+        assertEquals(0, raster.getSample(0, 1, 0));
+        assertEquals(1, raster.getSample(1, 1, 0));
+    }
+
+    public void testImageComputationWithScaledUShortCloudProduct() {
+        final Product product = new Product("test", "test", W, H);
+        final Band band = product.addBand("cloud_product", ProductData.TYPE_UINT16);
+        band.setSynthetic(true);
+        band.setScalingFactor(1.0 / 65535.0);
+        band.setRasterData(ProductData.createUnsignedInstance(new short[]{0, (short) 32767, (short) 32768, -1}));
+
+        final Raster raster = CloudMaskOpImage.createImage(band, 0.5).getData();
+
+        assertEquals(0, raster.getSample(0, 0, 0));
+        assertEquals(0, raster.getSample(1, 0, 0));
+        assertEquals(1, raster.getSample(0, 1, 0));
+        assertEquals(1, raster.getSample(1, 1, 0));
+    }
+
     private static RenderedImage createTestImage() {
         final Product product = new Product("test", "test", W, H);
 
@@ -81,7 +81,8 @@ public class ClassifyOp extends Operator {
             }
             targetProduct.getIndexCodingGroup().add(indexCoding);
             classBand.setSampleCoding(indexCoding);
-            classBand.setSourceImage(ClassOpImage.createImage(sourceProduct, sourceBandNames, clusters, NO_FILTERING));
+            classBand.setSourceImage(ClassOpImage.createMultiLevelImage(sourceProduct, sourceBandNames, clusters,
+                                                                        NO_FILTERING));
         } catch (Throwable e) {
             throw new OperatorException(e);
         }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.dataio.ProductIOPlugInManager;
+import org.esa.beam.framework.dataio.ProductWriterPlugIn;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.GPF;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.gpf.operators.standard.WriteOp;
+import org.esa.beam.util.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the unattended cloud screening for many products concurrently.
+ * <p/>
+ * Products are screened by the {@link ScreenCloudsOp} on a shared executor
+ * and written to a target directory. For each product a {@link Report} is
+ * returned.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class CloudScreeningBatchRunner {
+
+    private final ExecutorService executorService;
+    private final Map<String, Object> parameterMap;
+    private final String formatName;
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param executorService the executor service shared by all screening tasks.
+     * @param parameterMap    the parameters of the {@link ScreenCloudsOp}.
+     * @param formatName      the name of the target product format.
+     */
+    public CloudScreeningBatchRunner(ExecutorService executorService, Map<String, Object> parameterMap,
+                                     String formatName) {
+        this.executorService = executorService;
+        this.parameterMap = parameterMap;
+        this.formatName = formatName;
+    }
+
+    /**
+     * Submits a product for cloud screening.
+     *
+     * @param sourceFile the source product file.
+     * @param targetFile the target product file.
+     *
+     * @return the future report.
+     */
+    public Future<Report> submit(final File sourceFile, final File targetFile) {
+        return executorService.submit(new Callable<Report>() {
+            @Override
+            public Report call() throws IOException {
+                return screen(sourceFile, targetFile);
+            }
+        });
+    }
+
+    private Report screen(File sourceFile, File targetFile) throws IOException {
+        final long startTime = System.currentTimeMillis();
+
+        final Product sourceProduct = ProductIO.readProduct(sourceFile);
+        if (sourceProduct == null) {
+            throw new IOException(MessageFormat.format("Cannot read product file ''{0}''.", sourceFile));
+        }
+        try {
+            final Product targetProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(ScreenCloudsOp.class),
+                                                            parameterMap, sourceProduct);
+            try {
+                targetProduct.setName(FileUtils.getFilenameWithoutExtension(targetFile));
+                final WriteOp writeOp = new WriteOp(targetProduct, targetFile, formatName);
+                writeOp.setWriteEntireTileRows(true);
+                writeOp.writeProduct(ProgressMonitor.NULL);
+            } finally {
+                targetProduct.dispose();
+            }
+
+            final Runtime runtime = Runtime.getRuntime();
+            return new Report(sourceProduct.getName(),
+                              sourceProduct.getSceneRasterWidth() * sourceProduct.getSceneRasterHeight(),
+                              System.currentTimeMillis() - startTime,
+                              runtime.totalMemory() - runtime.freeMemory());
+        } finally {
+            sourceProduct.dispose();
+        }
+    }
+
+    /**
+     * Screens the products given as arguments and writes the results into
+     * a target directory.
+     * <p/>
+     * Usage: {@code [-threads n] [-model file] [-format name] targetDir sourceFile...}
+     *
+     * @param args the arguments.
+     *
+     * @throws Exception if an error occurred.
+     */
+    public static void main(String[] args) throws Exception {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        String formatName = "BEAM-DIMAP";
+        final Map<String, Object> parameterMap = new HashMap<String, Object>();
+
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i += 2) {
+            if (i + 1 == args.length) {
+                printUsageAndExit();
+            }
+            if ("-threads".equals(args[i])) {
+                threadCount = Integer.parseInt(args[i + 1]);
+            } else if ("-model".equals(args[i])) {
+                parameterMap.put("clusterModelFile", new File(args[i + 1]));
+            } else if ("-format".equals(args[i])) {
+                formatName = args[i + 1];
+            } else {
+                throw new IllegalArgumentException(MessageFormat.format("Unknown option ''{0}''.", args[i]));
+            }
+        }
+        if (args.length - i < 2) {
+            printUsageAndExit();
+        }
+
+        GPF.getDefaultInstance().getOperatorSpiRegistry().loadOperatorSpis();
+
+        final File targetDir = new File(args[i++]);
+        final String extension = getDefaultExtension(formatName);
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            final CloudScreeningBatchRunner runner = new CloudScreeningBatchRunner(executorService, parameterMap,
+                                                                                   formatName);
+            final List<File> sourceFileList = new ArrayList<File>();
+            final List<Future<Report>> futureList = new ArrayList<Future<Report>>();
+            for (; i < args.length; ++i) {
+                final File sourceFile = new File(args[i]);
+                final String targetName = FileUtils.getFilenameWithoutExtension(sourceFile) + "_CLOUD" + extension;
+                sourceFileList.add(sourceFile);
+                futureList.add(runner.submit(sourceFile, new File(targetDir, targetName)));
+            }
+            for (int k = 0; k < futureList.size(); ++k) {
+                try {
+                    System.out.println(futureList.get(k).get());
+                } catch (ExecutionException e) {
+                    System.err.println(MessageFormat.format("Cannot screen ''{0}'': {1}", sourceFileList.get(k),
+                                                            e.getCause().getMessage()));
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Returns the default file extension of a product format.
+     *
+     * @param formatName the name of the product format.
+     *
+     * @return the default file extension of the first writer plug-in found
+     *         for the format, or an empty string if there is none.
+     */
+    static String getDefaultExtension(String formatName) {
+        final Iterator<ProductWriterPlugIn> iterator =
+                ProductIOPlugInManager.getInstance().getWriterPlugIns(formatName);
+        if (iterator.hasNext()) {
+            final String[] extensions = iterator.next().getDefaultFileExtensions();
+            if (extensions != null && extensions.length > 0) {
+                return extensions[0];
+            }
+        }
+
+        return "";
+    }
+
+    private static void printUsageAndExit() {
+        System.err.println("Usage: [-threads n] [-model file] [-format name] targetDir sourceFile...");
+        System.exit(1);
+    }
+
+    /**
+     * Throughput figures for a screened product and the heap in use by the VM
+     * when it was completed.
+     */
+    public static class Report {
+
+        private final String productName;
+        private final int pixelCount;
+        private final long elapsedTime;
+        private final long vmHeapInUse;
+
+        Report(String productName, int pixelCount, long elapsedTime, long vmHeapInUse) {
+            this.productName = productName;
+            this.pixelCount = pixelCount;
+            this.elapsedTime = elapsedTime;
+            this.vmHeapInUse = vmHeapInUse;
+        }
+
+        public String getProductName() {
+            return productName;
+        }
+
+        public int getPixelCount() {
+            return pixelCount;
+        }
+
+        /**
+         * Returns the elapsed time for screening and writing the product.
+         *
+         * @return the elapsed time (ms).
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
+        /**
+         * Returns the throughput.
+         *
+         * @return the throughput (pixels per second).
+         */
+        public double getThroughput() {
+            return elapsedTime > 0 ? pixelCount * 1000.0 / elapsedTime : 0.0;
+        }
+
+        /**
+         * Returns the heap memory in use by the whole virtual machine when the
+         * product was completed. Since products are screened concurrently, this
+         * figure is not the memory used for screening this product.
+         *
+         * @return the heap memory in use by the virtual machine (bytes).
+         */
+        public long getVmHeapInUse() {
+            return vmHeapInUse;
+        }
+
+        @Override
+        public String toString() {
+            return MessageFormat.format("{0}: {1} pixels in {2} ms ({3,number,#.#} pixels/s), VM heap in use {4} MB",
+                                        productName, pixelCount, elapsedTime, getThroughput(),
+                                        vmHeapInUse / (1024 * 1024));
+        }
+    }
+}
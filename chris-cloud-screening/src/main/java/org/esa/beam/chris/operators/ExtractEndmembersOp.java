@@ -21,11 +21,12 @@ import org.esa.beam.chris.operators.internal.Clusterer;
 import org.esa.beam.chris.operators.internal.ExclusiveIndexFilter;
 import org.esa.beam.chris.operators.internal.InclusiveIndexFilter;
 import org.esa.beam.chris.operators.internal.PixelAccessor;
+import org.esa.beam.chris.operators.internal.PosteriorCalculator;
+import org.esa.beam.chris.operators.internal.PosteriorCube;
 import org.esa.beam.chris.util.BandFilter;
 import org.esa.beam.chris.util.OpUtils;
 import org.esa.beam.cluster.EMCluster;
 import org.esa.beam.cluster.IndexFilter;
-import org.esa.beam.cluster.ProbabilityCalculator;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.datamodel.SampleCoding;
@@ -41,6 +42,14 @@ import org.esa.beam.unmixing.Endmember;
 
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Extracts endmembers for calculating cloud abundances.
@@ -68,6 +77,8 @@ public class ExtractEndmembersOp extends Operator {
             {885.0, 985.0},
             {985.0, 1010.0}});
 
+    private static final int CHUNK_SIZE = 65536;
+
     @SourceProduct(alias = "reflectances")
     private Product reflectanceProduct;
     @SourceProduct(alias = "features")
@@ -129,6 +140,34 @@ public class ExtractEndmembersOp extends Operator {
                                                 EMCluster[] clusters,
                                                 final boolean[] cloudFlags,
                                                 final boolean[] invalidFlags, ProgressMonitor pm) {
+        return extractEndmembers(reflectanceProduct, featureProduct, classificationProduct, featureBandNames,
+                                 clusters, null, cloudFlags, invalidFlags, pm);
+    }
+
+    /**
+     * Extracts endmembers, using the posterior cluster probabilities stored
+     * in a posterior cube instead of evaluating the cluster densities again.
+     *
+     * @param reflectanceProduct    the reflectance product.
+     * @param featureProduct        the feature product.
+     * @param classificationProduct the classification product.
+     * @param featureBandNames      the names of the feature bands.
+     * @param clusters              the clusters.
+     * @param cube                  the posterior cube, may be {@code null}.
+     * @param cloudFlags            the cloud flags.
+     * @param invalidFlags          the invalid flags.
+     * @param pm                    the progress monitor.
+     *
+     * @return the endmembers.
+     */
+    public static Endmember[] extractEndmembers(Product reflectanceProduct,
+                                                Product featureProduct,
+                                                Product classificationProduct,
+                                                String[] featureBandNames,
+                                                EMCluster[] clusters,
+                                                PosteriorCube cube,
+                                                final boolean[] cloudFlags,
+                                                final boolean[] invalidFlags, ProgressMonitor pm) {
         try {
             pm.beginTask("Extracting endmembers...", 100);
 
@@ -149,19 +188,21 @@ public class ExtractEndmembersOp extends Operator {
             final IndexFilter cloudFilter = new InclusiveIndexFilter(cloudFlags);
             final IndexFilter earthFilter = new ExclusiveIndexFilter(cloudFlags, invalidFlags);
 
-            final double[] cloudReflectances = extractCloudReflectances(op, featAccessor,
-                                                                        reflAccessor,
-                                                                        clusters,
-                                                                        cloudFilter,
-                                                                        validFilter,
-                                                                        SubProgressMonitor.create(pm, 40));
-
-            final double[][] surfaceReflectances = extractSurfaceReflectances(op, featAccessor,
-                                                                              reflAccessor,
-                                                                              clusters,
-                                                                              earthFilter,
-                                                                              validFilter,
-                                                                              SubProgressMonitor.create(pm, 60));
+            final PosteriorSource posteriorSource = createPosteriorSource(clusters, cube);
+            final EndmemberAccumulator accumulator = accumulate(op, featAccessor,
+                                                                reflAccessor,
+                                                                posteriorSource,
+                                                                clusters.length,
+                                                                cloudFilter,
+                                                                earthFilter,
+                                                                validFilter,
+                                                                SubProgressMonitor.create(pm, 100));
+            if (accumulator.maxIndex == -1) {
+                throw new OperatorException("Cannot extract cloud endmember, no pixel has been labeled as cloud.");
+            }
+            final double[] cloudReflectances = reflAccessor.getSamples(accumulator.maxIndex,
+                                                                       new double[reflAccessor.getSampleCount()]);
+            final double[][] surfaceReflectances = accumulator.getMeanReflectances();
 
             final ArrayList<Endmember> endmemberList = new ArrayList<Endmember>();
             endmemberList.add(new Endmember("cloud", wavelengths, cloudReflectances));
@@ -179,99 +220,111 @@ public class ExtractEndmembersOp extends Operator {
         }
     }
 
-    private static double[] extractCloudReflectances(ExtractEndmembersOp op,
-                                                     PixelAccessor featAccessor,
-                                                     PixelAccessor reflAccessor,
-                                                     EMCluster[] clusters,
-                                                     IndexFilter cloudFilter,
-                                                     IndexFilter validFilter,
-                                                     ProgressMonitor pm) {
-        try {
-            pm.beginTask("Extracting cloud endmember", featAccessor.getPixelCount() / 500);
-
-            final ProbabilityCalculator calculator = Clusterer.createProbabilityCalculator(clusters);
-
-            int maxIndex = -1;
-            double maxRatio = 0.0;
-
-            for (int i = 0; i < featAccessor.getPixelCount(); ++i) {
-                final double[] features = new double[featAccessor.getSampleCount()];
-                featAccessor.getSamples(i, features);
-
-                if (features[1] > 0.0) {
-                    final double[] posteriors = new double[clusters.length];
-                    calculator.calculate(features, posteriors, validFilter);
-
-                    for (int k = 0; k < clusters.length; ++k) {
-                        if (posteriors[k] > 0.5) {
-                            if (cloudFilter.accept(k)) {
-                                final double ratio = features[0] / features[1];
+    /**
+     * Finds the cloud pixel with maximum brightness-to-whiteness ratio and
+     * accumulates the reflectances of surface pixels for each cluster in a
+     * single pass. The pixels are processed in parallel chunks of fixed size,
+     * which are merged in order, so the result does not depend on the number
+     * of processors.
+     */
+    private static EndmemberAccumulator accumulate(final ExtractEndmembersOp op,
+                                                   final PixelAccessor featAccessor,
+                                                   final PixelAccessor reflAccessor,
+                                                   final PosteriorSource posteriorSource,
+                                                   final int clusterCount,
+                                                   final IndexFilter cloudFilter,
+                                                   final IndexFilter earthFilter,
+                                                   final IndexFilter validFilter,
+                                                   ProgressMonitor pm) {
+        final int pixelCount = featAccessor.getPixelCount();
+        // the chunks do not depend on the number of processors, so the sums are the same on any machine
+        final int chunkCount = (pixelCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final ExecutorService executorService = ExecutorHolder.EXECUTOR_SERVICE;
+        final List<Future<EndmemberAccumulator>> futureList =
+                new ArrayList<Future<EndmemberAccumulator>>(chunkCount);
 
-                                if (maxIndex == -1 || ratio > maxRatio) {
-                                    maxIndex = i;
-                                    maxRatio = ratio;
+        try {
+            pm.beginTask("Extracting endmembers", chunkCount);
+
+            for (int c = 0; c < chunkCount; ++c) {
+                final int begin = c * CHUNK_SIZE;
+                final int end = Math.min(begin + CHUNK_SIZE, pixelCount);
+
+                futureList.add(executorService.submit(new Callable<EndmemberAccumulator>() {
+                    @Override
+                    public EndmemberAccumulator call() {
+                        final EndmemberAccumulator accumulator =
+                                new EndmemberAccumulator(clusterCount, reflAccessor.getSampleCount());
+                        final double[] features = new double[featAccessor.getSampleCount()];
+                        final double[] posteriors = new double[clusterCount];
+
+                        for (int i = begin; i < end; ++i) {
+                            featAccessor.getSamples(i, features);
+                            posteriorSource.getPosteriors(i, features, posteriors, validFilter);
+
+                            for (int k = 0; k < clusterCount; ++k) {
+                                // at most a single cluster has a posterior probability greater than 0.5
+                                if (posteriors[k] > 0.5) {
+                                    if (cloudFilter.accept(k) && features[1] > 0.0) {
+                                        accumulator.acceptCloudPixel(i, features[0] / features[1]);
+                                    }
+                                    if (earthFilter.accept(k)) {
+                                        reflAccessor.addSamples(i, accumulator.sums[k]);
+                                        ++accumulator.counts[k];
+                                    }
+                                    break;
                                 }
                             }
+                            if (i % 500 == 0) {
+                                op.checkForCancellation();
+                            }
                         }
+                        return accumulator;
                     }
-                }
-                if (i % 500 == 0) {
-                    op.checkForCancellation();
-                    pm.worked(1);
-                }
+                }));
+            }
+
+            // the chunks are merged in the order of pixels
+            final EndmemberAccumulator accumulator =
+                    new EndmemberAccumulator(clusterCount, reflAccessor.getSampleCount());
+            for (final Future<EndmemberAccumulator> future : futureList) {
+                accumulator.merge(future.get());
+                pm.worked(1);
             }
-            return reflAccessor.getSamples(maxIndex, new double[reflAccessor.getSampleCount()]);
+            return accumulator;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperatorException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof OperatorException) {
+                throw (OperatorException) cause;
+            }
+            throw new OperatorException(cause);
         } finally {
+            for (final Future<EndmemberAccumulator> future : futureList) {
+                future.cancel(true);
+            }
             pm.done();
         }
     }
 
-    private static double[][] extractSurfaceReflectances(ExtractEndmembersOp op,
-                                                         PixelAccessor featAccessor,
-                                                         PixelAccessor reflAccessor,
-                                                         EMCluster[] clusters,
-                                                         IndexFilter earthFilter,
-                                                         IndexFilter validFilter,
-                                                         ProgressMonitor pm) {
-        try {
-            pm.beginTask("Extracting surface endmembers", featAccessor.getPixelCount() / 500);
-
-            final ProbabilityCalculator calculator = Clusterer.createProbabilityCalculator(clusters);
-
-            final double[][] reflectances = new double[clusters.length][reflAccessor.getSampleCount()];
-            final int[] count = new int[clusters.length];
-
-            for (int i = 0; i < featAccessor.getPixelCount(); ++i) {
-                final double[] features = new double[featAccessor.getSampleCount()];
-                featAccessor.getSamples(i, features);
-                final double[] posteriors = new double[clusters.length];
-                calculator.calculate(features, posteriors, validFilter);
-
-                for (int k = 0; k < clusters.length; ++k) {
-                    if (posteriors[k] > 0.5) {
-                        if (earthFilter.accept(k)) {
-                            reflAccessor.addSamples(i, reflectances[k]);
-                            ++count[k];
-                            break;
-                        }
-                    }
+    private static PosteriorSource createPosteriorSource(EMCluster[] clusters, final PosteriorCube cube) {
+        if (cube != null) {
+            return new PosteriorSource() {
+                @Override
+                public void getPosteriors(int i, double[] features, double[] posteriors, IndexFilter validFilter) {
+                    cube.getPosteriors(i, posteriors, validFilter);
                 }
-                if (i % 500 == 0) {
-                    op.checkForCancellation();
-                    pm.worked(1);
-                }
-            }
-            for (int k = 0; k < clusters.length; ++k) {
-                if (count[k] > 0) {
-                    for (int i = 0; i < reflAccessor.getSampleCount(); ++i) {
-                        reflectances[k][i] /= count[k];
-                    }
-                }
-            }
-            return reflectances;
-        } finally {
-            pm.done();
+            };
         }
+        final PosteriorCalculator calculator = Clusterer.createProbabilityCalculator(clusters);
+        return new PosteriorSource() {
+            @Override
+            public void getPosteriors(int i, double[] features, double[] posteriors, IndexFilter validFilter) {
+                calculator.calculate(features, posteriors, validFilter);
+            }
+        };
     }
 
     private static PixelAccessor createPixelAccessor(Operator op, Band[] bands) {
@@ -300,6 +353,83 @@ public class ExtractEndmembersOp extends Operator {
         return new TilePixelAccessor(tiles);
     }
 
+    /**
+     * Mergeable accumulator for cloud and surface endmember extraction.
+     */
+    private static class EndmemberAccumulator {
+        // reflectance sums for each cluster
+        private final double[][] sums;
+        // pixel counts for each cluster
+        private final int[] counts;
+
+        // index of the cloud pixel with maximum brightness-to-whiteness ratio
+        private int maxIndex = -1;
+        private double maxRatio = 0.0;
+
+        EndmemberAccumulator(int clusterCount, int bandCount) {
+            sums = new double[clusterCount][bandCount];
+            counts = new int[clusterCount];
+        }
+
+        void acceptCloudPixel(int i, double ratio) {
+            if (maxIndex == -1 || ratio > maxRatio || ratio == maxRatio && i < maxIndex) {
+                maxIndex = i;
+                maxRatio = ratio;
+            }
+        }
+
+        void merge(EndmemberAccumulator other) {
+            if (other.maxIndex != -1) {
+                acceptCloudPixel(other.maxIndex, other.maxRatio);
+            }
+            for (int k = 0; k < sums.length; ++k) {
+                for (int i = 0; i < sums[k].length; ++i) {
+                    sums[k][i] += other.sums[k][i];
+                }
+                counts[k] += other.counts[k];
+            }
+        }
+
+        double[][] getMeanReflectances() {
+            final double[][] reflectances = new double[sums.length][];
+            for (int k = 0; k < sums.length; ++k) {
+                reflectances[k] = sums[k].clone();
+                if (counts[k] > 0) {
+                    for (int i = 0; i < reflectances[k].length; ++i) {
+                        reflectances[k][i] /= counts[k];
+                    }
+                }
+            }
+            return reflectances;
+        }
+    }
+
+    /**
+     * Source of posterior cluster probabilities.
+     */
+    private interface PosteriorSource {
+
+        void getPosteriors(int i, double[] features, double[] posteriors, IndexFilter validFilter);
+    }
+
+    /**
+     * Holds the executor shared by all endmember extractions, which is
+     * created on first use.
+     */
+    private static class ExecutorHolder {
+
+        private static final ExecutorService EXECUTOR_SERVICE = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    private final AtomicInteger threadCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "ExtractEndmembers-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
 
     public static class Spi extends OperatorSpi {
 
@@ -17,7 +17,6 @@
 package org.esa.beam.chris.operators;
 
 import com.bc.ceres.core.ProgressMonitor;
-import com.bc.ceres.core.SubProgressMonitor;
 import org.esa.beam.chris.util.BandFilter;
 import org.esa.beam.chris.util.OpUtils;
 import org.esa.beam.dataio.chris.ChrisConstants;
@@ -29,6 +28,7 @@ import org.esa.beam.framework.gpf.OperatorException;
 import org.esa.beam.framework.gpf.OperatorSpi;
 import org.esa.beam.framework.gpf.Tile;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
 import org.esa.beam.util.ProductUtils;
@@ -64,6 +64,12 @@ public class ExtractFeaturesOp extends Operator {
     @TargetProduct
     private Product targetProduct;
 
+    @Parameter(label = "Tile size",
+               defaultValue = "32",
+               interval = "[8,2048]",
+               description = "The preferred width and height of target tiles.")
+    private int tileSize;
+
     private transient Band br;
     private transient Band wh;
     private transient Band visBr;
@@ -77,6 +83,15 @@ public class ExtractFeaturesOp extends Operator {
     private transient Band[] visBands;
     private transient Band[] nirBands;
 
+    // all source bands read for computing a tile, in order of their sample index
+    private transient Band[] kernelBands;
+    private transient int[] surfaceIndexes;
+    private transient int[] visIndexes;
+    private transient int[] nirIndexes;
+    private transient double[] surfaceWavelengths;
+    private transient double[] visWavelengths;
+    private transient double[] nirWavelengths;
+
     private transient boolean canComputeAtmosphericFeatures;
     private transient double trO2;
     private transient double trWv;
@@ -111,6 +126,7 @@ public class ExtractFeaturesOp extends Operator {
                                                      0.0);
             mu = 1.0 / (1.0 / cos(toRadians(sza)) + 1.0 / cos(toRadians(vza)));
         }
+        indexKernelBands();
 
         final String type = sourceProduct.getProductType() + "_FEAT";
         targetProduct = new Product("CHRIS_FEATURES", type,
@@ -163,30 +179,66 @@ public class ExtractFeaturesOp extends Operator {
         }
 
         ProductUtils.copyMetadata(sourceProduct.getMetadataRoot(), targetProduct.getMetadataRoot());
-        // DO NOT CHANGE TILE SIZE - IT IS NEEDED FOR PROGRESS MONITORING!
-        targetProduct.setPreferredTileSize(32, 32);
+        // the default tile size of 32 is needed for fine-grained progress monitoring
+        targetProduct.setPreferredTileSize(tileSize, tileSize);
     }
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTileMap, Rectangle targetRectangle, ProgressMonitor pm)
             throws OperatorException {
-        if (canComputeAtmosphericFeatures) {
-            pm.beginTask("computing bands...", 8);
-        } else {
-            pm.beginTask("computing bands...", 6);
-        }
+        final int bandCount = kernelBands.length;
+        final int minX = targetRectangle.x;
+        final int minY = targetRectangle.y;
+        final int maxX = targetRectangle.x + targetRectangle.width;
+        final int maxY = targetRectangle.y + targetRectangle.height;
+
+        pm.beginTask("computing bands...", bandCount + targetRectangle.height);
         try {
-            computeSurfaceFeatures(br, wh, targetTileMap, targetRectangle, surfaceBands,
-                                   SubProgressMonitor.create(pm, 2));
-            computeSurfaceFeatures(visBr, visWh, targetTileMap, targetRectangle, visBands,
-                                   SubProgressMonitor.create(pm, 2));
-            computeSurfaceFeatures(nirBr, nirWh, targetTileMap, targetRectangle, nirBands,
-                                   SubProgressMonitor.create(pm, 2));
-            if (canComputeAtmosphericFeatures) {
-                computeAtmosphericFeature(o2, targetTileMap, targetRectangle, interpolatorO2, trO2,
-                                          SubProgressMonitor.create(pm, 1));
-                computeAtmosphericFeature(wv, targetTileMap, targetRectangle, interpolatorWv, trWv,
-                                          SubProgressMonitor.create(pm, 1));
+            // band-interleaved reflectances, each source band is read exactly once
+            final double[] samples = new double[targetRectangle.width * targetRectangle.height * bandCount];
+            for (int i = 0; i < bandCount; ++i) {
+                checkForCancellation();
+                readSamples(kernelBands[i], getSourceTile(kernelBands[i], targetRectangle), targetRectangle,
+                            samples, i, bandCount);
+                pm.worked(1);
+            }
+
+            final Tile brTile = targetTileMap.get(br);
+            final Tile whTile = targetTileMap.get(wh);
+            final Tile visBrTile = targetTileMap.get(visBr);
+            final Tile visWhTile = targetTileMap.get(visWh);
+            final Tile nirBrTile = targetTileMap.get(nirBr);
+            final Tile nirWhTile = targetTileMap.get(nirWh);
+            final Tile o2Tile = canComputeAtmosphericFeatures ? targetTileMap.get(o2) : null;
+            final Tile wvTile = canComputeAtmosphericFeatures ? targetTileMap.get(wv) : null;
+
+            final double cO2 = canComputeAtmosphericFeatures ? mu / log(trO2) : 0.0;
+            final double cWv = canComputeAtmosphericFeatures ? mu / log(trWv) : 0.0;
+
+            int offset = 0;
+            for (int y = minY; y < maxY; ++y) {
+                checkForCancellation();
+
+                for (int x = minX; x < maxX; ++x, offset += bandCount) {
+                    final double b = brightness(surfaceWavelengths, samples, offset, surfaceIndexes);
+                    brTile.setSample(x, y, b);
+                    whTile.setSample(x, y, whiteness(surfaceWavelengths, samples, offset, surfaceIndexes, b));
+
+                    final double visB = brightness(visWavelengths, samples, offset, visIndexes);
+                    visBrTile.setSample(x, y, visB);
+                    visWhTile.setSample(x, y, whiteness(visWavelengths, samples, offset, visIndexes, visB));
+
+                    final double nirB = brightness(nirWavelengths, samples, offset, nirIndexes);
+                    nirBrTile.setSample(x, y, nirB);
+                    nirWhTile.setSample(x, y, whiteness(nirWavelengths, samples, offset, nirIndexes, nirB));
+
+                    if (canComputeAtmosphericFeatures) {
+                        o2Tile.setSample(x, y, interpolatorO2.getAbsorption(samples, offset, cO2));
+                        wvTile.setSample(x, y, interpolatorWv.getAbsorption(samples, offset, cWv));
+                    }
+                }
+
+                pm.worked(1);
             }
         } finally {
             pm.done();
@@ -207,6 +259,7 @@ public class ExtractFeaturesOp extends Operator {
         surfaceBands = null;
         visBands = null;
         nirBands = null;
+        kernelBands = null;
 
         interpolatorO2 = null;
         interpolatorWv = null;
@@ -258,42 +311,38 @@ public class ExtractFeaturesOp extends Operator {
         nirBands = nirBandList.toArray(new Band[nirBandList.size()]);
     }
 
-    void computeSurfaceFeatures(Band bBand, Band wBand, Map<Band, Tile> targetTileMap, Rectangle targetRectangle,
-                                Band[] sourceBands, ProgressMonitor pm) {
-        pm.beginTask("computing surface features...", targetRectangle.height);
-        try {
-            final double[] wavelengths = getSpectralWavelengths(sourceBands);
-            final Tile[] sourceTiles = getSourceTiles(sourceBands, targetRectangle);
-
-            final Tile bTile = targetTileMap.get(bBand);
-            final Tile wTile = targetTileMap.get(wBand);
-
-            for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; ++y) {
-                for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; ++x) {
-                    checkForCancellation();
+    /**
+     * Assigns a sample index to each source band needed for computing the
+     * features, so that every band is read only once per tile.
+     */
+    private void indexKernelBands() {
+        final List<Band> bandList = new ArrayList<Band>();
 
-                    final double[] reflectances = getSamples(x, y, sourceTiles);
-                    final double b = brightness(wavelengths, reflectances);
-                    final double w = whiteness(wavelengths, reflectances, b);
+        surfaceIndexes = indexBands(surfaceBands, bandList);
+        visIndexes = indexBands(visBands, bandList);
+        nirIndexes = indexBands(nirBands, bandList);
+        surfaceWavelengths = getSpectralWavelengths(surfaceBands);
+        visWavelengths = getSpectralWavelengths(visBands);
+        nirWavelengths = getSpectralWavelengths(nirBands);
 
-                    bTile.setSample(x, y, b);
-                    wTile.setSample(x, y, w);
-                }
-
-                pm.worked(1);
-            }
-        } finally {
-            pm.done();
+        if (canComputeAtmosphericFeatures) {
+            interpolatorO2.indexBands(bandList);
+            interpolatorWv.indexBands(bandList);
         }
+        kernelBands = bandList.toArray(new Band[bandList.size()]);
     }
 
-    private Tile[] getSourceTiles(Band[] bands, Rectangle targetRectangle) {
-        final Tile[] sourceTiles = new Tile[bands.length];
+    private static int[] indexBands(Band[] bands, List<Band> bandList) {
+        final int[] indexes = new int[bands.length];
 
         for (int i = 0; i < bands.length; ++i) {
-            sourceTiles[i] = getSourceTile(bands[i], targetRectangle);
+            indexes[i] = bandList.indexOf(bands[i]);
+            if (indexes[i] == -1) {
+                indexes[i] = bandList.size();
+                bandList.add(bands[i]);
+            }
         }
-        return sourceTiles;
+        return indexes;
     }
 
     private static double[] getSpectralWavelengths(Band[] bands) {
@@ -305,59 +354,48 @@ public class ExtractFeaturesOp extends Operator {
         return wavelengths;
     }
 
-    private void computeAtmosphericFeature(Band targetBand, Map<Band, Tile> targetTileMap, Rectangle targetRectangle,
-                                           BandInterpolator bandInterpolator, double transmittance,
-                                           ProgressMonitor pm) {
-        pm.beginTask("computing optical path...", targetRectangle.height);
-        try {
-            final Band sourceBand = bandInterpolator.getInnerBand();
-            final Band[] infBands = bandInterpolator.getInfBands();
-            final Band[] supBands = bandInterpolator.getSupBands();
-
-            final Tile sourceTile = getSourceTile(sourceBand, targetRectangle);
-            final Tile targetTile = targetTileMap.get(targetBand);
-
-            final Tile[] infTiles = getSourceTiles(infBands, targetRectangle);
-            final Tile[] supTiles = getSourceTiles(supBands, targetRectangle);
-
-            final double c = mu / log(transmittance);
-
-            for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; ++y) {
-                for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; ++x) {
-                    checkForCancellation();
+    /**
+     * Reads the geophysical samples of a source tile into a band-interleaved
+     * buffer. Short integer data are read directly from the data buffer.
+     */
+    private static void readSamples(Band band, Tile tile, Rectangle rectangle, double[] samples, int bandIndex,
+                                    int bandCount) {
+        final int dataType = band.getDataType();
+        final short[] data;
+        if (dataType == ProductData.TYPE_INT16 || dataType == ProductData.TYPE_UINT16) {
+            data = tile.getDataBufferShort();
+        } else {
+            data = null;
+        }
 
-                    final double a = getMean(x, y, infTiles);
-                    final double b = getMean(x, y, supTiles);
-                    final double f = c * log(sourceTile.getSampleDouble(x, y) / bandInterpolator.getValue(a, b));
+        int k = bandIndex;
+        if (data != null) {
+            final boolean unsigned = dataType == ProductData.TYPE_UINT16;
+            final int stride = tile.getScanlineStride();
 
-                    targetTile.setSample(x, y, f);
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; ++y) {
+                int index = tile.getScanlineOffset() + (y - tile.getMinY()) * stride + (rectangle.x - tile.getMinX());
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; ++x, ++index, k += bandCount) {
+                    samples[k] = band.scale(unsigned ? data[index] & 0xFFFF : data[index]);
+                }
+            }
+        } else {
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; ++y) {
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; ++x, k += bandCount) {
+                    samples[k] = tile.getSampleDouble(x, y);
                 }
-
-                pm.worked(1);
             }
-        } finally {
-            pm.done();
-        }
-    }
-
-    private static double[] getSamples(int x, int y, Tile[] tiles) {
-        final double[] samples = new double[tiles.length];
-
-        for (int i = 0; i < samples.length; i++) {
-            samples[i] = tiles[i].getSampleDouble(x, y);
         }
-
-        return samples;
     }
 
-    private static double getMean(int x, int y, Tile[] tiles) {
+    private static double getMean(double[] samples, int offset, int[] indexes) {
         double sum = 0.0;
 
-        for (final Tile tile : tiles) {
-            sum += tile.getSampleDouble(x, y);
+        for (final int index : indexes) {
+            sum += samples[offset + index];
         }
 
-        return sum / tiles.length;
+        return sum / indexes.length;
     }
 
     private static double getAverageValue(double[][] table, double wavelength, double width) {
@@ -382,22 +420,26 @@ public class ExtractFeaturesOp extends Operator {
         return ys / ws;
     }
 
-    private static double brightness(double[] wavelengths, double[] reflectances) {
+    private static double brightness(double[] wavelengths, double[] samples, int offset, int[] indexes) {
         double sum = 0.0;
 
-        for (int i = 1; i < reflectances.length; ++i) {
-            sum += 0.5 * (reflectances[i] + reflectances[i - 1]) * (wavelengths[i] - wavelengths[i - 1]);
+        for (int i = 1; i < indexes.length; ++i) {
+            final double r1 = samples[offset + indexes[i - 1]];
+            final double r2 = samples[offset + indexes[i]];
+
+            sum += 0.5 * (r2 + r1) * (wavelengths[i] - wavelengths[i - 1]);
         }
 
         return sum / (wavelengths[wavelengths.length - 1] - wavelengths[0]);
     }
 
-    private static double whiteness(double[] wavelengths, double[] reflectances, double brightness) {
+    private static double whiteness(double[] wavelengths, double[] samples, int offset, int[] indexes,
+                                    double brightness) {
         double sum = 0.0;
 
-        for (int i = 1; i < reflectances.length; i++) {
-            final double y1 = reflectances[i - 1] - brightness;
-            final double y2 = reflectances[i] - brightness;
+        for (int i = 1; i < indexes.length; i++) {
+            final double y1 = samples[offset + indexes[i - 1]] - brightness;
+            final double y2 = samples[offset + indexes[i]] - brightness;
 
             // trapezoidal integration
             final double x1 = wavelengths[i - 1];
@@ -458,6 +500,10 @@ public class ExtractFeaturesOp extends Operator {
 
         private final double interpolationWeight;
 
+        private int innerIndex;
+        private int[] infIndexes;
+        private int[] supIndexes;
+
         public BandInterpolator(Band[] bands, double[] wavelengths) {
             innerBand = findProximateBand(bands, wavelengths[0], new StrictlyInclusiveBandFilter(wavelengths[1],
                                                                                                  wavelengths[2]));
@@ -479,6 +525,33 @@ public class ExtractFeaturesOp extends Operator {
             interpolationWeight = (innerBand.getSpectralWavelength() - a) / (b - a);
         }
 
+        /**
+         * Assigns sample indexes to the inner and interpolation bands.
+         *
+         * @param bandList the list of bands read for computing a tile.
+         */
+        void indexBands(List<Band> bandList) {
+            innerIndex = ExtractFeaturesOp.indexBands(new Band[]{innerBand}, bandList)[0];
+            infIndexes = ExtractFeaturesOp.indexBands(infBands, bandList);
+            supIndexes = ExtractFeaturesOp.indexBands(supBands, bandList);
+        }
+
+        /**
+         * Returns the absorption feature for a band-interleaved pixel.
+         *
+         * @param samples the band-interleaved samples.
+         * @param offset  the offset of the pixel.
+         * @param c       the ratio of air mass factor to logarithmic transmittance.
+         *
+         * @return the absorption feature.
+         */
+        double getAbsorption(double[] samples, int offset, double c) {
+            final double a = getMean(samples, offset, infIndexes);
+            final double b = getMean(samples, offset, supIndexes);
+
+            return c * log(samples[offset + innerIndex] / getValue(a, b));
+        }
+
         public final Band getInnerBand() {
             return innerBand;
         }
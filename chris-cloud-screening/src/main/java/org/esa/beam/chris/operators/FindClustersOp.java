@@ -16,6 +16,7 @@
 package org.esa.beam.chris.operators;
 
 import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.chris.operators.internal.ClusterModel;
 import org.esa.beam.chris.operators.internal.Clusterer;
 import org.esa.beam.cluster.EMCluster;
 import org.esa.beam.framework.datamodel.Band;
@@ -30,6 +31,10 @@ import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProperty;
 
 import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Comparator;
 
 /**
@@ -56,31 +61,66 @@ public class FindClustersOp extends Operator {
     private String[] sourceBandNames;
     @Parameter(label = "Number of clusters", defaultValue = "14", interval = "[2,99]")
     private int clusterCount;
-    @Parameter(label = "Number of iterations", defaultValue = "30", interval = "[1,999]")
+    @Parameter(label = "Number of iterations", defaultValue = "30", interval = "[1,999]",
+               description = "The maximum number of EM iterations.")
     private int iterationCount;
+    @Parameter(label = "Convergence tolerance",
+               defaultValue = "1.0E-4",
+               interval = "[0.0, 1.0]",
+               description = "The EM iterations are stopped when the change of the cluster parameters falls " +
+                             "below this value. If zero, the maximum number of iterations is made.")
+    private double convergenceTolerance;
     @Parameter(label = "Random seed",
                defaultValue = "31415",
                description = "The seed used for initializing the EM clustering algorithm.")
     private int seed;
+    @Parameter(label = "Seeding",
+               defaultValue = "RANDOM",
+               valueSet = {"RANDOM", "KMEANS_PLUS_PLUS", "FARTHEST_POINT"},
+               description = "The strategy used for choosing the initial cluster means.")
+    private String seeding;
+    @Parameter(label = "Full covariances",
+               defaultValue = "false",
+               description = "If true, the full covariance matrices of the clusters are estimated.")
+    private boolean fullCovariances;
+    @Parameter(label = "Cluster model file",
+               description = "A saved cluster model. If set, its clusters are used as initial clusters.")
+    private File clusterModelFile;
 
     public FindClustersOp() {
     }
 
-    private FindClustersOp(Product sourceProduct, int clusterCount, int iterationCount, int seed,
-                           String[] sourceBandNames) {
+    private FindClustersOp(Product sourceProduct, String[] sourceBandNames) {
         this.sourceProduct = sourceProduct;
-        this.clusterCount = clusterCount;
-        this.iterationCount = iterationCount;
-        this.seed = seed;
         this.sourceBandNames = sourceBandNames;
     }
 
     @Override
     public void initialize() throws OperatorException {
-        final Comparator<EMCluster> comparator = new Clusterer.PriorProbabilityClusterComparator();
-        clusters = new EMCluster[clusterCount];
-        findClusters(sourceProduct, sourceBandNames, clusters, iterationCount, seed, comparator,
-                     ProgressMonitor.NULL);
+        if (clusterModelFile != null) {
+            final ClusterModel model;
+            try {
+                model = ClusterModel.read(clusterModelFile);
+            } catch (IOException e) {
+                throw new OperatorException(
+                        MessageFormat.format("Cannot read cluster model file ''{0}''.", clusterModelFile), e);
+            }
+            if (sourceBandNames == null || sourceBandNames.length == 0) {
+                sourceBandNames = model.getFeatureBandNames();
+            } else if (!Arrays.equals(sourceBandNames, model.getFeatureBandNames())) {
+                throw new OperatorException(
+                        "Source bands do not match the feature bands of the cluster model.");
+            }
+            clusters = new EMCluster[model.getClusters().length];
+            findClusters(sourceProduct, sourceBandNames, model.getClusters(), clusters, iterationCount,
+                         convergenceTolerance, fullCovariances, null, ProgressMonitor.NULL);
+        } else {
+            final Comparator<EMCluster> comparator = new Clusterer.PriorProbabilityClusterComparator();
+            clusters = new EMCluster[clusterCount];
+            findClusters(sourceProduct, sourceBandNames, null, clusters, iterationCount, convergenceTolerance,
+                         seed, Clusterer.Seeding.valueOf(seeding), fullCovariances, comparator,
+                         ProgressMonitor.NULL);
+        }
         setTargetProduct(new Product("NULL", "NULL", 0, 0));
     }
 
@@ -91,8 +131,87 @@ public class FindClustersOp extends Operator {
                                     int seed,
                                     Comparator<EMCluster> clusterComparator,
                                     ProgressMonitor pm) {
-        final FindClustersOp op = new FindClustersOp(sourceProduct, clusters.length, iterationCount, seed,
-                                                     sourceBandNames);
+        findClusters(sourceProduct, sourceBandNames, clusters, iterationCount, seed, Clusterer.Seeding.RANDOM,
+                     false, clusterComparator, pm);
+    }
+
+    /**
+     * Finds clusters, using a given strategy for choosing the initial
+     * cluster means.
+     *
+     * @param sourceProduct     the source product.
+     * @param sourceBandNames   the names of the source bands.
+     * @param clusters          a preallocated array of clusters, on return
+     *                          holding the clusters found.
+     * @param iterationCount    the number of EM iterations to be made.
+     * @param seed              the seed used to initialize the cluster algorithm.
+     * @param seeding           the strategy used for choosing the initial
+     *                          cluster means.
+     * @param fullCovariances   if {@code true}, the full covariance matrices
+     *                          are estimated.
+     * @param clusterComparator the comparator used for sorting the clusters found.
+     * @param pm                the progress monitor.
+     */
+    public static void findClusters(Product sourceProduct,
+                                    String[] sourceBandNames,
+                                    EMCluster[] clusters,
+                                    int iterationCount,
+                                    int seed,
+                                    Clusterer.Seeding seeding,
+                                    boolean fullCovariances,
+                                    Comparator<EMCluster> clusterComparator,
+                                    ProgressMonitor pm) {
+        findClusters(sourceProduct, sourceBandNames, null, clusters, iterationCount, 0.0, seed, seeding,
+                     fullCovariances, clusterComparator, pm);
+    }
+
+    /**
+     * Finds clusters, starting with the clusters supplied as arguments
+     * instead of randomly chosen initial clusters.
+     *
+     * @param sourceProduct     the source product.
+     * @param sourceBandNames   the names of the source bands.
+     * @param initialClusters   the initial clusters.
+     * @param clusters          a preallocated array of clusters, on return
+     *                          holding the clusters found.
+     * @param iterationCount    the maximum number of EM iterations to be made.
+     * @param tolerance         the convergence tolerance. The iterations are
+     *                          stopped when the change of the cluster parameters
+     *                          falls below this value, which usually happens
+     *                          after a few iterations when the initial clusters
+     *                          stem from a similar scene.
+     * @param fullCovariances   if {@code true}, the full covariance matrices
+     *                          are estimated.
+     * @param clusterComparator the comparator used for sorting the clusters
+     *                          found. If {@code null}, the clusters found
+     *                          are in the order of the initial clusters.
+     * @param pm                the progress monitor.
+     */
+    public static void findClusters(Product sourceProduct,
+                                    String[] sourceBandNames,
+                                    EMCluster[] initialClusters,
+                                    EMCluster[] clusters,
+                                    int iterationCount,
+                                    double tolerance,
+                                    boolean fullCovariances,
+                                    Comparator<EMCluster> clusterComparator,
+                                    ProgressMonitor pm) {
+        findClusters(sourceProduct, sourceBandNames, initialClusters, clusters, iterationCount, tolerance, 0, null,
+                     fullCovariances, clusterComparator, pm);
+    }
+
+    private static void findClusters(Product sourceProduct,
+                                     String[] sourceBandNames,
+                                     EMCluster[] initialClusters,
+                                     EMCluster[] clusters,
+                                     int iterationCount,
+                                     double tolerance,
+                                     int seed,
+                                     Clusterer.Seeding seeding,
+                                     boolean fullCovariances,
+                                     Comparator<EMCluster> clusterComparator,
+                                     ProgressMonitor pm) {
+        final FindClustersOp op = new FindClustersOp(sourceProduct, sourceBandNames);
 
         final Tile[] tiles = new Tile[sourceBandNames.length];
         final int w = sourceProduct.getSceneRasterWidth();
@@ -107,11 +226,20 @@ public class FindClustersOp extends Operator {
                                             sourceRectangle);
             }
 
-            final Clusterer clusterer = new Clusterer(new TilePixelAccessor(tiles), clusters.length, seed);
+            final TilePixelAccessor pixelAccessor = new TilePixelAccessor(tiles);
+            final Clusterer clusterer;
+            if (initialClusters != null) {
+                clusterer = new Clusterer(pixelAccessor, initialClusters, fullCovariances);
+            } else {
+                clusterer = new Clusterer(pixelAccessor, clusters.length, seed, seeding, fullCovariances);
+            }
             for (int i = 0; i < iterationCount; ++i) {
                 op.checkForCancellation();
                 clusterer.iterate();
                 pm.worked(1);
+                if (clusterer.getParameterChange() < tolerance) {
+                    break;
+                }
             }
             clusterer.getClusters(clusterComparator, clusters);
         } catch (OperatorException e) {
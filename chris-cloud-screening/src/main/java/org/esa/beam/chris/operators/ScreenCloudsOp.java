@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import com.bc.ceres.glevel.MultiLevelImage;
+import org.esa.beam.chris.operators.internal.ClassOpImage;
+import org.esa.beam.chris.operators.internal.CloudProbabilityOpImage;
+import org.esa.beam.chris.operators.internal.Clusterer;
+import org.esa.beam.chris.operators.internal.ClusterModel;
+import org.esa.beam.chris.operators.internal.ExclusiveIndexFilter;
+import org.esa.beam.chris.operators.internal.InclusiveIndexFilter;
+import org.esa.beam.chris.operators.internal.PosteriorTileProducer;
+import org.esa.beam.chris.util.BandFilter;
+import org.esa.beam.chris.util.OpUtils;
+import org.esa.beam.cluster.EMCluster;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.IndexCoding;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.gpf.GPF;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
+import org.esa.beam.framework.gpf.annotations.SourceProduct;
+import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.jai.ImageManager;
+
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Operator for performing an unattended cloud screening.
+ * <p/>
+ * The operator computes TOA reflectances and features, finds clusters
+ * and labels the clusters either by means of a saved cluster model or
+ * by means of brightness and whiteness thresholds. The target product
+ * is a copy of the source product with a cloud product band added. The
+ * cloud product is discrete when its data type is uint8 and the cloud
+ * probability otherwise. All intermediate products are kept in memory.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+@OperatorMetadata(alias = "chris.ScreenClouds",
+                  version = "1.0",
+                  authors = "Ralf Quast",
+                  copyright = "(c) 2010 by Brockmann Consult",
+                  description = "Performs an unattended cloud screening of a CHRIS/Proba radiance product.")
+public class ScreenCloudsOp extends Operator {
+
+    private static final String BR_VIS_NAME = "brightness_vis";
+    private static final String WH_VIS_NAME = "whiteness_vis";
+
+    @SourceProduct(alias = "source")
+    private Product sourceProduct;
+    @TargetProduct
+    private Product targetProduct;
+
+    @Parameter(label = "Feature bands",
+               defaultValue = "brightness_vis,whiteness_vis,brightness_nir,whiteness_nir",
+               description = "The names of the feature bands used for clustering.")
+    private String[] featureBandNames;
+    @Parameter(label = "Number of clusters", defaultValue = "14", interval = "[2,99]")
+    private int clusterCount;
+    @Parameter(label = "Number of iterations", defaultValue = "30", interval = "[1,999]")
+    private int iterationCount;
+    @Parameter(label = "Random seed",
+               defaultValue = "31415",
+               description = "The seed used for initializing the EM clustering algorithm.")
+    private int seed;
+    @Parameter(label = "Seeding",
+               defaultValue = "RANDOM",
+               valueSet = {"RANDOM", "KMEANS_PLUS_PLUS", "FARTHEST_POINT"},
+               description = "The strategy used for choosing the initial cluster means.")
+    private String seeding;
+    @Parameter(label = "Full covariances",
+               defaultValue = "false",
+               description = "If true, the full covariance matrices of the clusters are estimated.")
+    private boolean fullCovariances;
+    @Parameter(label = "Cluster model file",
+               description = "A saved cluster model. If set, its clusters are used as initial clusters and " +
+                             "its labels are used instead of labeling the clusters by thresholds.")
+    private File clusterModelFile;
+    @Parameter(label = "Number of warm-start iterations",
+               defaultValue = "30",
+               interval = "[0,999]",
+               description = "The maximum number of EM iterations made when starting with the clusters of a " +
+                             "cluster model.")
+    private int warmStartIterationCount;
+    @Parameter(label = "Convergence tolerance",
+               defaultValue = "1.0E-4",
+               interval = "[0.0, 1.0]",
+               description = "The warm-start iterations are stopped when the change of the cluster parameters " +
+                             "falls below this value.")
+    private double convergenceTolerance;
+    @Parameter(label = "Minimum cloud brightness",
+               defaultValue = "0.3",
+               description = "The minimum VIS brightness of the mean of a cloud cluster.")
+    private double minCloudBrightness;
+    @Parameter(label = "Maximum cloud whiteness",
+               defaultValue = "0.1",
+               description = "The maximum VIS whiteness of the mean of a cloud cluster.")
+    private double maxCloudWhiteness;
+    @Parameter(label = "Cloud product data type",
+               defaultValue = ProductData.TYPESTRING_UINT8,
+               valueSet = {ProductData.TYPESTRING_UINT8, ProductData.TYPESTRING_UINT16,
+                       ProductData.TYPESTRING_FLOAT32, ProductData.TYPESTRING_FLOAT64},
+               description = "The data type of the cloud product band. Values of type uint8 are discrete cloud " +
+                             "flags, values of other types are cloud probabilities. Values of type uint16 are " +
+                             "scaled.")
+    private String cloudProductDataType;
+    @Parameter(label = "Include class band",
+               defaultValue = "false",
+               description = "If true, a band with the class indices is added to the target product.")
+    private boolean includeClassBand;
+
+    @Override
+    public void initialize() throws OperatorException {
+        final Map<String, Object> emptyMap = Collections.emptyMap();
+        final Product reflectanceProduct = GPF.createProduct(
+                OperatorSpi.getOperatorAlias(ComputeToaReflectancesOp.class), emptyMap, sourceProduct);
+        final Product featureProduct = GPF.createProduct(
+                OperatorSpi.getOperatorAlias(ExtractFeaturesOp.class), emptyMap, reflectanceProduct);
+
+        final EMCluster[] clusters;
+        final boolean[] cloudFlags;
+        final boolean[] invalidFlags;
+
+        if (clusterModelFile != null) {
+            final ClusterModel model = readClusterModel(clusterModelFile);
+            featureBandNames = model.getFeatureBandNames();
+            validateFeatureBands(featureProduct);
+            if (warmStartIterationCount > 0) {
+                // the clusters are not sorted, so the labels of the model remain valid
+                clusters = new EMCluster[model.getClusters().length];
+                FindClustersOp.findClusters(featureProduct, featureBandNames, model.getClusters(), clusters,
+                                            warmStartIterationCount, convergenceTolerance, fullCovariances, null,
+                                            ProgressMonitor.NULL);
+            } else {
+                clusters = model.getClusters();
+            }
+            cloudFlags = model.getCloudFlags();
+            invalidFlags = model.getInvalidFlags();
+        } else {
+            validateFeatureBands(featureProduct);
+            clusters = new EMCluster[clusterCount];
+            FindClustersOp.findClusters(featureProduct, featureBandNames, clusters, iterationCount, seed,
+                                        Clusterer.Seeding.valueOf(seeding), fullCovariances,
+                                        new Clusterer.PriorProbabilityClusterComparator(), ProgressMonitor.NULL);
+            cloudFlags = labelCloudClusters(clusters);
+            invalidFlags = new boolean[clusters.length];
+        }
+
+        final int productDataType = ProductData.getType(cloudProductDataType);
+        final int dataType = ImageManager.getDataBufferType(productDataType);
+        // the class and cloud images are views on the same posterior tiles
+        final PosteriorTileProducer producer = PosteriorTileProducer.create(featureProduct, featureBandNames,
+                                                                            clusters,
+                                                                            new ExclusiveIndexFilter(invalidFlags));
+        // only cloud products of byte type are discretized
+        final boolean discrete = dataType == DataBuffer.TYPE_BYTE;
+        final MultiLevelImage cloudImage = CloudProbabilityOpImage.createMultiLevelImage(
+                producer, new InclusiveIndexFilter(cloudFlags), discrete, dataType);
+
+        targetProduct = OpUtils.createCopy(sourceProduct, sourceProduct.getName(), sourceProduct.getProductType(),
+                                           new BandFilter() {
+                                               @Override
+                                               public boolean accept(Band band) {
+                                                   return !"cloud_product".equals(band.getName())
+                                                          && !(includeClassBand
+                                                               && "class_indices".equals(band.getName()));
+                                               }
+                                           });
+        final Band cloudBand = targetProduct.addBand("cloud_product", productDataType);
+        cloudBand.setDescription("Cloud product");
+        cloudBand.setScalingFactor(CloudProbabilityOpImage.getScalingFactor(dataType));
+        cloudBand.setSourceImage(cloudImage);
+
+        if (includeClassBand) {
+            final Band classBand = targetProduct.addBand("class_indices", ProductData.TYPE_UINT8);
+            classBand.setDescription("Class indices");
+
+            final IndexCoding indexCoding = new IndexCoding("Class indices");
+            for (int i = 0; i < clusters.length; i++) {
+                indexCoding.addIndex("class_" + (i + 1), i, "Class label");
+            }
+            targetProduct.getIndexCodingGroup().add(indexCoding);
+            classBand.setSampleCoding(indexCoding);
+            classBand.setSourceImage(ClassOpImage.createMultiLevelImage(producer));
+        }
+    }
+
+    private void validateFeatureBands(Product featureProduct) {
+        for (final String name : featureBandNames) {
+            if (!featureProduct.containsBand(name)) {
+                throw new OperatorException(MessageFormat.format("Cannot find feature band ''{0}''.", name));
+            }
+        }
+    }
+
+    private boolean[] labelCloudClusters(EMCluster[] clusters) {
+        final int brIndex = Arrays.asList(featureBandNames).indexOf(BR_VIS_NAME);
+        final int whIndex = Arrays.asList(featureBandNames).indexOf(WH_VIS_NAME);
+        if (brIndex == -1 || whIndex == -1) {
+            throw new OperatorException(MessageFormat.format(
+                    "Labeling clusters requires the feature bands ''{0}'' and ''{1}''.", BR_VIS_NAME, WH_VIS_NAME));
+        }
+
+        final boolean[] cloudFlags = new boolean[clusters.length];
+        for (int k = 0; k < clusters.length; ++k) {
+            final double br = clusters[k].getMean(brIndex);
+            final double wh = clusters[k].getMean(whIndex);
+            cloudFlags[k] = br >= minCloudBrightness && wh <= maxCloudWhiteness;
+        }
+
+        return cloudFlags;
+    }
+
+    private static ClusterModel readClusterModel(File file) {
+        try {
+            return ClusterModel.read(file);
+        } catch (IOException e) {
+            throw new OperatorException(MessageFormat.format("Cannot read cluster model file ''{0}''.", file), e);
+        }
+    }
+
+    public static class Spi extends OperatorSpi {
+
+        public Spi() {
+            super(ScreenCloudsOp.class);
+        }
+    }
+}
@@ -15,99 +15,152 @@
  */
 package org.esa.beam.chris.operators.internal;
 
+import com.bc.ceres.glevel.MultiLevelImage;
+import com.bc.ceres.glevel.support.AbstractMultiLevelSource;
+import com.bc.ceres.glevel.support.DefaultMultiLevelImage;
 import org.esa.beam.cluster.EMCluster;
 import org.esa.beam.cluster.IndexFilter;
 import org.esa.beam.cluster.ProbabilityCalculator;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.Product;
-import org.esa.beam.jai.BandOpImage;
 
 import javax.media.jai.ComponentSampleModelJAI;
 import javax.media.jai.ImageLayout;
 import javax.media.jai.JAI;
-import javax.media.jai.OpImage;
 import javax.media.jai.PixelAccessor;
 import javax.media.jai.PlanarImage;
-import javax.media.jai.PointOpImage;
+import javax.media.jai.SourcelessOpImage;
 import javax.media.jai.UnpackedImageData;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
-import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
-import java.util.Vector;
 
 /**
- * Class image.
+ * Class image. The class indexes are derived from the posterior cluster
+ * probabilities produced by a {@link PosteriorTileProducer}.
  *
  * @author Ralf Quast
  * @version $Revision$ $Date$
  */
-public class ClassOpImage extends PointOpImage {
+public class ClassOpImage extends SourcelessOpImage {
 
-    private static final int TILE_W = 32;
-    private static final int TILE_H = 32;
+    private final PosteriorTileProducer producer;
+    private final ClassStatistics statistics;
 
-    private final Band[] sourceBands;
-    private final ProbabilityCalculator calculator;
-    private final IndexFilter validClusterFilter;
-    private final int clusterCount;
+    public static ClassOpImage createImage(Product sourceProduct, String[] sourceBandNames, EMCluster[] clusters,
+                                           IndexFilter validClusterFilter) {
+        return createImage(PosteriorTileProducer.create(sourceProduct, sourceBandNames, clusters,
+                                                        validClusterFilter));
+    }
 
-    public static OpImage createImage(Product sourceProduct, String[] sourceBandNames, EMCluster[] clusters,
-                                      IndexFilter validClusterFilter) {
-        final ProbabilityCalculator calculator = Clusterer.createProbabilityCalculator(clusters);
+    /*
+     * For unit-level testing, which is easier with a generic calculator
+     * instead of a clusters array.
+     */
+    static ClassOpImage createImage(Band[] featureBands, final ProbabilityCalculator calculator,
+                                    IndexFilter clusterFilter, final int clusterCount) {
+        return createImage(featureBands, new PosteriorCalculator() {
+            @Override
+            public int getClusterCount() {
+                return clusterCount;
+            }
 
-        final Band[] sourceBands = new Band[sourceBandNames.length];
-        for (int i = 0; i < sourceBandNames.length; i++) {
-            sourceBands[i] = sourceProduct.getBand(sourceBandNames[i]);
-        }
+            @Override
+            public void calculate(double[] features, double[] posteriors, IndexFilter filter) {
+                calculator.calculate(features, posteriors, filter);
+            }
+        }, clusterFilter, clusterCount);
+    }
+
+    static ClassOpImage createImage(Band[] featureBands, PosteriorCalculator calculator, IndexFilter clusterFilter,
+                                    int clusterCount) {
+        return createImage(PosteriorTileProducer.create(featureBands, calculator, clusterFilter, clusterCount));
+    }
+
+    /**
+     * Creates a class image which is a view on the tiles produced by a
+     * posterior tile producer.
+     *
+     * @param producer the posterior tile producer.
+     *
+     * @return the class image.
+     */
+    public static ClassOpImage createImage(PosteriorTileProducer producer) {
+        final int w = producer.getWidth();
+        final int h = producer.getHeight();
+
+        final SampleModel sampleModel = new ComponentSampleModelJAI(DataBuffer.TYPE_BYTE, w, h, 1, w, new int[]{0});
+        final ColorModel colorModel = PlanarImage.createColorModel(sampleModel);
+        final ImageLayout imageLayout = new ImageLayout(0, 0, w, h, 0, 0,
+                                                        PosteriorTileProducer.TILE_W,
+                                                        PosteriorTileProducer.TILE_H,
+                                                        sampleModel, colorModel);
 
-        return createImage(sourceBands, calculator, validClusterFilter, clusters.length);
+        return new ClassOpImage(imageLayout, sampleModel, producer);
     }
 
-    static OpImage createImage(Band[] featureBands, ProbabilityCalculator calculator, IndexFilter clusterFilter,
-                               int clusterCount) {
-        final Vector<RenderedImage> sourceImageVector = new Vector<RenderedImage>();
+    /**
+     * Creates a multi-level class image. The images of lower resolution
+     * levels are computed from the corresponding levels of the feature
+     * images when they are requested for the first time.
+     *
+     * @param sourceProduct      the source product.
+     * @param sourceBandNames    the names of the feature bands.
+     * @param clusters           the clusters.
+     * @param validClusterFilter the valid cluster filter.
+     *
+     * @return the multi-level class image.
+     */
+    public static MultiLevelImage createMultiLevelImage(Product sourceProduct, String[] sourceBandNames,
+                                                        EMCluster[] clusters, IndexFilter validClusterFilter) {
+        return createMultiLevelImage(PosteriorTileProducer.create(sourceProduct, sourceBandNames, clusters,
+                                                                  validClusterFilter));
+    }
 
-        for (final Band band : featureBands) {
-            RenderedImage sourceImage = band.getSourceImage();
-            if (sourceImage == null) {
-                sourceImage = new BandOpImage(band);
-                band.setSourceImage(sourceImage);
+    /**
+     * Creates a multi-level class image which is a view on the tiles
+     * produced by a posterior tile producer and its lower resolution
+     * levels.
+     *
+     * @param producer the posterior tile producer.
+     *
+     * @return the multi-level class image.
+     */
+    public static MultiLevelImage createMultiLevelImage(final PosteriorTileProducer producer) {
+        return new DefaultMultiLevelImage(new AbstractMultiLevelSource(producer.getModel()) {
+            @Override
+            protected RenderedImage createImage(int level) {
+                return ClassOpImage.createImage(producer.getLevel(level));
             }
-            sourceImageVector.add(sourceImage);
-        }
+        });
+    }
 
-        final int w = sourceImageVector.get(0).getWidth();
-        final int h = sourceImageVector.get(0).getHeight();
+    private ClassOpImage(ImageLayout imageLayout, SampleModel sampleModel, PosteriorTileProducer producer) {
+        super(imageLayout, new RenderingHints(JAI.KEY_TILE_CACHE, null), sampleModel, 0, 0,
+              producer.getWidth(), producer.getHeight());
 
-        final SampleModel sampleModel = new ComponentSampleModelJAI(DataBuffer.TYPE_BYTE, w, h, 1, w, new int[]{0});
-        final ColorModel colorModel = PlanarImage.createColorModel(sampleModel);
-        final ImageLayout imageLayout = new ImageLayout(0, 0, w, h, 0, 0, TILE_W, TILE_H, sampleModel, colorModel);
+        this.producer = producer;
 
-        return new ClassOpImage(imageLayout, sourceImageVector, featureBands, calculator, clusterFilter,
-                                clusterCount);
+        statistics = new ClassStatistics(producer.getClusterCount(), producer.getFeatureCount(),
+                                         getNumXTiles() * getNumYTiles());
     }
 
-    private ClassOpImage(ImageLayout imageLayout,
-                         Vector<RenderedImage> sourceImageVector,
-                         Band[] sourceBands,
-                         ProbabilityCalculator calculator,
-                         IndexFilter validClusterFilter,
-                         int clusterCount) {
-        super(sourceImageVector, imageLayout, new RenderingHints(JAI.KEY_TILE_CACHE, null), true);
-
-        this.sourceBands = sourceBands;
-        this.calculator = calculator;
-        this.validClusterFilter = validClusterFilter;
-        this.clusterCount = clusterCount;
+    /**
+     * Returns the per-class pixel counts and feature sums accumulated so far.
+     * The statistics are exact when complete.
+     *
+     * @return the class statistics.
+     */
+    public ClassStatistics getStatistics() {
+        return statistics;
     }
 
     @Override
-    protected void computeRect(Raster[] sources, WritableRaster target, Rectangle rectangle) {
+    protected void computeRect(PlanarImage[] sources, WritableRaster target, Rectangle rectangle) {
         final PixelAccessor targetAccessor;
         final UnpackedImageData targetData;
         final byte[] targetPixels;
@@ -116,54 +169,58 @@ public class ClassOpImage extends PointOpImage {
         targetData = targetAccessor.getPixels(target, rectangle, DataBuffer.TYPE_BYTE, true);
         targetPixels = targetData.getByteData(0);
 
-        final PixelAccessor[] sourceAccessors = new PixelAccessor[sources.length];
-        final UnpackedImageData[] sourceData = new UnpackedImageData[sources.length];
-        final short[][] sourcePixels = new short[sources.length][];
-
-        for (int i = 0; i < sources.length; ++i) {
-            sourceAccessors[i] = new PixelAccessor(getSourceImage(i));
-            sourceData[i] = sourceAccessors[i].getPixels(sources[i], rectangle, DataBuffer.TYPE_SHORT, false);
-            sourcePixels[i] = sourceData[i].getShortData(0);
-        }
+        final int clusterCount = producer.getClusterCount();
+        final int featureCount = producer.getFeatureCount();
+        final double[] posteriors = new double[clusterCount];
 
-        final int sourceBandOffset = sourceData[0].bandOffsets[0];
-        final int targetBandOffset = targetData.bandOffsets[0];
+        // the statistics of a tile are counted when it is computed for the first time
+        final int tileIndex = YToTileY(rectangle.y) * getNumXTiles() + XToTileX(rectangle.x);
+        final boolean counting = statistics.claimTile(tileIndex);
+        final int[] counts = counting ? new int[clusterCount] : null;
+        final double[] sums = counting ? new double[clusterCount * featureCount] : null;
 
-        final int sourcePixelStride = sourceData[0].pixelStride;
-        final int targetPixelStride = targetData.pixelStride;
+        boolean completed = false;
+        try {
+            final PosteriorTileProducer.PosteriorTile tile = producer.getTile(rectangle);
 
-        final int sourceLineStride = sourceData[0].lineStride;
-        final int targetLineStride = targetData.lineStride;
+            int targetLineOffset = targetData.bandOffsets[0];
 
-        int sourceLineOffset = sourceBandOffset;
-        int targetLineOffset = targetBandOffset;
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                int targetPixelOffset = targetLineOffset;
 
-        final double[] sourceSamples = new double[sources.length];
-        final double[] posteriors = new double[clusterCount];
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    final int index = tile.getIndex(x, y);
+                    tile.getPosteriors(index, posteriors);
+                    final byte classIndex = findClassIndex(posteriors);
+                    targetPixels[targetPixelOffset] = classIndex;
 
-        for (int y = 0; y < rectangle.getHeight(); y++) {
-            int sourcePixelOffset = sourceLineOffset;
-            int targetPixelOffset = targetLineOffset;
+                    if (counting) {
+                        counts[classIndex]++;
+                        for (int i = 0; i < featureCount; i++) {
+                            sums[classIndex * featureCount + i] += tile.getFeature(index, i);
+                        }
+                    }
 
-            for (int x = 0; x < rectangle.getWidth(); x++) {
-                for (int i = 0; i < sources.length; i++) {
-                    sourceSamples[i] = sourceBands[i].scale(sourcePixels[i][sourcePixelOffset]);
+                    targetPixelOffset += targetData.pixelStride;
                 }
-                calculator.calculate(sourceSamples, posteriors, validClusterFilter);
-                targetPixels[targetPixelOffset] = findClassIndex(posteriors);
 
-                sourcePixelOffset += sourcePixelStride;
-                targetPixelOffset += targetPixelStride;
+                targetLineOffset += targetData.lineStride;
+            }
+            completed = true;
+        } finally {
+            if (counting) {
+                if (completed) {
+                    statistics.addTile(counts, sums);
+                } else {
+                    statistics.releaseTile(tileIndex);
+                }
             }
-
-            sourceLineOffset += sourceLineStride;
-            targetLineOffset += targetLineStride;
         }
 
         targetAccessor.setPixels(targetData);
     }
 
-    private static byte findClassIndex(double[] posteriors) {
+    static byte findClassIndex(double[] posteriors) {
         // for most cases the class index is found in this loop
         for (byte i = 0; i < posteriors.length; ++i) {
             if (posteriors[i] > 0.5) {
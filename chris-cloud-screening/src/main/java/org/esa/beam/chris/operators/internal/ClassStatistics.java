@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import java.awt.image.RenderedImage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Exact per-class statistics of a class image, accumulated while the
+ * tiles of the image are computed.
+ * <p/>
+ * Each tile is counted only once, even if it is computed many times.
+ * The statistics of a tile are added to one of several stripes, chosen
+ * by the computing thread, so concurrent tile computations rarely
+ * contend for the same lock.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class ClassStatistics {
+
+    private static final int STRIPE_COUNT = 8;
+
+    private final int classCount;
+    private final int featureCount;
+
+    private final AtomicIntegerArray claimedTiles;
+    private final AtomicInteger countedTileCount;
+    private final Stripe[] stripes;
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param classCount   the number of classes.
+     * @param featureCount the number of features summed per class. May be zero.
+     * @param tileCount    the number of tiles of the class image.
+     */
+    ClassStatistics(int classCount, int featureCount, int tileCount) {
+        this.classCount = classCount;
+        this.featureCount = featureCount;
+
+        claimedTiles = new AtomicIntegerArray(tileCount);
+        countedTileCount = new AtomicInteger();
+        stripes = new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; ++i) {
+            stripes[i] = new Stripe(classCount, featureCount);
+        }
+    }
+
+    /**
+     * Returns the number of classes.
+     *
+     * @return the number of classes.
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * Returns the number of features summed per class.
+     *
+     * @return the number of features.
+     */
+    public int getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+     * Returns {@code true} if the statistics of all tiles have been added.
+     *
+     * @return {@code true} if the statistics are complete, {@code false} otherwise.
+     */
+    public boolean isComplete() {
+        return countedTileCount.get() == claimedTiles.length();
+    }
+
+    /**
+     * Computes all tiles of the class image, which have not been counted
+     * so far.
+     *
+     * @param classImage the class image.
+     */
+    public void complete(RenderedImage classImage) {
+        final int minTileX = classImage.getMinTileX();
+        final int minTileY = classImage.getMinTileY();
+        final int numXTiles = classImage.getNumXTiles();
+        final int numYTiles = classImage.getNumYTiles();
+
+        for (int tileY = 0; tileY < numYTiles; ++tileY) {
+            for (int tileX = 0; tileX < numXTiles; ++tileX) {
+                if (claimedTiles.get(tileY * numXTiles + tileX) == 0) {
+                    classImage.getTile(minTileX + tileX, minTileY + tileY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pixels per class.
+     *
+     * @return the number of pixels per class.
+     */
+    public long[] getCounts() {
+        final long[] counts = new long[classCount];
+
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int k = 0; k < classCount; ++k) {
+                    counts[k] += stripe.counts[k];
+                }
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns the mean features of a class.
+     *
+     * @param classIndex the class index.
+     *
+     * @return the mean features. All elements are {@code NaN} if no pixel
+     *         belongs to the class.
+     */
+    public double[] getFeatureMeans(int classIndex) {
+        final double[] means = new double[featureCount];
+        long count = 0;
+
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.counts[classIndex];
+                for (int l = 0; l < featureCount; ++l) {
+                    means[l] += stripe.sums[classIndex * featureCount + l];
+                }
+            }
+        }
+        for (int l = 0; l < featureCount; ++l) {
+            means[l] /= count;
+        }
+
+        return means;
+    }
+
+    /**
+     * Claims a tile for counting.
+     *
+     * @param tileIndex the tile index.
+     *
+     * @return {@code true} if the tile has not been claimed before.
+     */
+    boolean claimTile(int tileIndex) {
+        return claimedTiles.compareAndSet(tileIndex, 0, 1);
+    }
+
+    /**
+     * Releases a claimed tile, whose computation failed.
+     *
+     * @param tileIndex the tile index.
+     */
+    void releaseTile(int tileIndex) {
+        claimedTiles.set(tileIndex, 0);
+    }
+
+    /**
+     * Adds the statistics of a claimed tile.
+     *
+     * @param counts the number of pixels per class.
+     * @param sums   the feature sums per class, class-major. May be {@code null}
+     *               if no features are summed.
+     */
+    void addTile(int[] counts, double[] sums) {
+        final Stripe stripe = stripes[(int) (Thread.currentThread().getId() % STRIPE_COUNT)];
+
+        synchronized (stripe) {
+            for (int k = 0; k < classCount; ++k) {
+                stripe.counts[k] += counts[k];
+            }
+            if (sums != null) {
+                for (int i = 0; i < stripe.sums.length; ++i) {
+                    stripe.sums[i] += sums[i];
+                }
+            }
+        }
+        countedTileCount.incrementAndGet();
+    }
+
+    private static class Stripe {
+
+        final long[] counts;
+        final double[] sums;
+
+        Stripe(int classCount, int featureCount) {
+            counts = new long[classCount];
+            sums = new double[classCount * featureCount];
+        }
+    }
+}
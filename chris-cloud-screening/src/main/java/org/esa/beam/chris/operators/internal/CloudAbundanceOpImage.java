@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import Jama.Matrix;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.jai.BandOpImage;
+import org.esa.beam.unmixing.Endmember;
+
+import javax.media.jai.ComponentSampleModelJAI;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PixelAccessor;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.PointOpImage;
+import javax.media.jai.UnpackedImageData;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cloud abundance image. The target samples are the cloud probabilities
+ * multiplied with the cloud abundances obtained from a fully constrained
+ * linear spectral unmixing.
+ * <p/>
+ * The cloud endmember is the first endmember. The fully constrained
+ * abundances are found by repeatedly solving the sum-to-one constrained
+ * problem and removing endmembers with negative abundance. The closed-form
+ * solution operator of the sum-to-one constrained problem is computed
+ * only once for each set of endmembers, by means of a QR decomposition of
+ * the endmember matrix. At most {@link #MAX_SOLVER_COUNT} solution operators
+ * are cached.
+ * <p/>
+ * D. C. Heinz, C.-I Chang (2001, IEEE TGRS, 39, 529)
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class CloudAbundanceOpImage extends PointOpImage {
+
+    /**
+     * The maximum number of cached solution operators.
+     */
+    static final int MAX_SOLVER_COUNT = 256;
+
+    private final Band[] reflectanceBands;
+    private final double[][] endmemberReflectances;
+    private final Map<BitSet, Solver> solverMap;
+    private final Solver solver;
+
+    /**
+     * Creates a new cloud abundance image.
+     *
+     * @param probabilityImage the cloud probability image.
+     * @param reflectanceBands the reflectance bands used for unmixing.
+     * @param endmembers       the endmembers, the first one being the cloud endmember.
+     *
+     * @return the cloud abundance image.
+     */
+    public static CloudAbundanceOpImage createImage(RenderedImage probabilityImage, Band[] reflectanceBands,
+                                                    Endmember[] endmembers) {
+        final Vector<RenderedImage> sourceImageVector = new Vector<RenderedImage>();
+        sourceImageVector.add(probabilityImage);
+
+        for (final Band band : reflectanceBands) {
+            RenderedImage sourceImage = band.getSourceImage();
+            if (sourceImage == null) {
+                sourceImage = new BandOpImage(band);
+                band.setSourceImage(sourceImage);
+            }
+            sourceImageVector.add(sourceImage);
+        }
+
+        final int w = probabilityImage.getWidth();
+        final int h = probabilityImage.getHeight();
+
+        final SampleModel sampleModel = new ComponentSampleModelJAI(DataBuffer.TYPE_FLOAT, w, h, 1, w, new int[]{0});
+        final ColorModel colorModel = PlanarImage.createColorModel(sampleModel);
+        final ImageLayout imageLayout = new ImageLayout(0, 0, w, h, 0, 0,
+                                                        probabilityImage.getTileWidth(),
+                                                        probabilityImage.getTileHeight(),
+                                                        sampleModel, colorModel);
+
+        final double[][] endmemberReflectances = new double[endmembers.length][];
+        for (int k = 0; k < endmembers.length; ++k) {
+            endmemberReflectances[k] = endmembers[k].getRadiations();
+            if (endmemberReflectances[k].length != reflectanceBands.length) {
+                throw new IllegalArgumentException("endmember.getRadiations().length != reflectanceBands.length");
+            }
+        }
+
+        return new CloudAbundanceOpImage(imageLayout, sourceImageVector, reflectanceBands, endmemberReflectances);
+    }
+
+    private CloudAbundanceOpImage(ImageLayout imageLayout,
+                                  Vector<RenderedImage> sourceImageVector,
+                                  Band[] reflectanceBands,
+                                  double[][] endmemberReflectances) {
+        // computed tiles are kept in the default tile cache, so consumers can pull them repeatedly
+        super(sourceImageVector, imageLayout, null, true);
+
+        this.reflectanceBands = reflectanceBands;
+        this.endmemberReflectances = endmemberReflectances;
+
+        final BitSet all = new BitSet(endmemberReflectances.length);
+        all.set(0, endmemberReflectances.length);
+        solverMap = new ConcurrentHashMap<BitSet, Solver>();
+        solver = getSolver(all);
+    }
+
+    @Override
+    protected void computeRect(Raster[] sources, WritableRaster target, Rectangle rectangle) {
+        final PixelAccessor targetAccessor = new PixelAccessor(getSampleModel(), getColorModel());
+        final UnpackedImageData targetData = targetAccessor.getPixels(target, rectangle, DataBuffer.TYPE_FLOAT,
+                                                                      true);
+        final float[] targetPixels = targetData.getFloatData(0);
+
+        final PixelAccessor probabilityAccessor = new PixelAccessor(getSourceImage(0));
+        final UnpackedImageData probabilityData = probabilityAccessor.getPixels(sources[0], rectangle,
+                                                                                DataBuffer.TYPE_DOUBLE, false);
+        final double[] probabilityPixels = probabilityData.getDoubleData(0);
+        final double probabilityScalingFactor =
+                CloudProbabilityOpImage.getScalingFactor(getSourceImage(0).getSampleModel().getDataType());
+
+        final int bandCount = reflectanceBands.length;
+        final UnpackedImageData[] reflectanceData = new UnpackedImageData[bandCount];
+        final short[][] reflectancePixels = new short[bandCount][];
+        for (int i = 0; i < bandCount; ++i) {
+            final PixelAccessor accessor = new PixelAccessor(getSourceImage(i + 1));
+            reflectanceData[i] = accessor.getPixels(sources[i + 1], rectangle, DataBuffer.TYPE_SHORT, false);
+            reflectancePixels[i] = reflectanceData[i].getShortData(0);
+        }
+
+        final double[] reflectances = new double[bandCount];
+        final double[] abundances = new double[endmemberReflectances.length];
+
+        for (int y = 0; y < rectangle.height; y++) {
+            int targetPixelOffset = targetData.bandOffsets[0] + y * targetData.lineStride;
+            int probabilityPixelOffset = probabilityData.bandOffsets[0] + y * probabilityData.lineStride;
+
+            for (int x = 0; x < rectangle.width; x++) {
+                final double probability = probabilityPixels[probabilityPixelOffset] * probabilityScalingFactor;
+
+                if (probability > 0.0) {
+                    for (int i = 0; i < bandCount; ++i) {
+                        final UnpackedImageData data = reflectanceData[i];
+                        final int offset = data.bandOffsets[0] + y * data.lineStride + x * data.pixelStride;
+                        reflectances[i] = reflectanceBands[i].scale(reflectancePixels[i][offset]);
+                    }
+                    targetPixels[targetPixelOffset] = (float) (probability * computeCloudAbundance(reflectances,
+                                                                                                   abundances));
+                } else {
+                    // unmixing is not needed
+                    targetPixels[targetPixelOffset] = 0.0f;
+                }
+
+                targetPixelOffset += targetData.pixelStride;
+                probabilityPixelOffset += probabilityData.pixelStride;
+            }
+        }
+
+        targetAccessor.setPixels(targetData);
+    }
+
+    /**
+     * Computes the fully constrained abundance of the cloud endmember.
+     *
+     * @param reflectances the reflectances of the pixel being unmixed.
+     * @param abundances   the abundances, used as workspace.
+     *
+     * @return the fully constrained cloud abundance.
+     */
+    double computeCloudAbundance(double[] reflectances, double[] abundances) {
+        Solver s = solver;
+
+        while (true) {
+            s.solve(reflectances, abundances);
+
+            final int[] indexes = s.indexes;
+            BitSet active = null;
+            for (int j = 0; j < indexes.length; ++j) {
+                if (abundances[j] < 0.0) {
+                    if (indexes[j] == 0) {
+                        // the cloud endmember is removed
+                        return 0.0;
+                    }
+                    if (active == null) {
+                        active = (BitSet) s.active.clone();
+                    }
+                    active.clear(indexes[j]);
+                }
+            }
+            if (active == null) {
+                // the cloud endmember is always the first active endmember
+                return abundances[0];
+            }
+            s = getSolver(active);
+        }
+    }
+
+    private Solver getSolver(BitSet active) {
+        Solver s = solverMap.get(active);
+        if (s == null) {
+            s = new Solver(active, endmemberReflectances);
+            // when the cache is full, the solution operator is used once
+            if (solverMap.size() < MAX_SOLVER_COUNT) {
+                solverMap.put(active, s);
+            }
+        }
+
+        return s;
+    }
+
+    /**
+     * Closed-form solution operator of the sum-to-one constrained linear
+     * unmixing problem for a set of endmembers.
+     */
+    private static class Solver {
+
+        private final BitSet active;
+        private final int[] indexes;
+        // the pseudo-inverse of the endmember matrix
+        private final double[][] inverse;
+        // the correction due to the sum-to-one constraint
+        private final double[] correction;
+
+        Solver(BitSet active, double[][] endmemberReflectances) {
+            final int endmemberCount = active.cardinality();
+            final int bandCount = endmemberReflectances[0].length;
+
+            this.active = active;
+            indexes = new int[endmemberCount];
+            for (int k = active.nextSetBit(0), j = 0; k >= 0; k = active.nextSetBit(k + 1), ++j) {
+                indexes[j] = k;
+            }
+
+            final Matrix e = new Matrix(bandCount, endmemberCount);
+            for (int j = 0; j < endmemberCount; ++j) {
+                for (int i = 0; i < bandCount; ++i) {
+                    e.set(i, j, endmemberReflectances[indexes[j]][i]);
+                }
+            }
+            // the least squares solution of E X = I is the pseudo-inverse of E, solving
+            // by means of QR decomposition avoids squaring the condition number of E
+            inverse = e.qr().solve(Matrix.identity(bandCount, bandCount)).getArray();
+
+            // the row sums of (E^T E)^-1 = P P^T, where P is the pseudo-inverse
+            final double[] columnSums = new double[bandCount];
+            for (int j = 0; j < endmemberCount; ++j) {
+                for (int i = 0; i < bandCount; ++i) {
+                    columnSums[i] += inverse[j][i];
+                }
+            }
+            final double[] rowSums = new double[endmemberCount];
+            double sum = 0.0;
+            for (int j = 0; j < endmemberCount; ++j) {
+                for (int i = 0; i < bandCount; ++i) {
+                    rowSums[j] += inverse[j][i] * columnSums[i];
+                }
+                sum += rowSums[j];
+            }
+            correction = new double[endmemberCount];
+            for (int j = 0; j < endmemberCount; ++j) {
+                correction[j] = rowSums[j] / sum;
+            }
+        }
+
+        /**
+         * Solves the sum-to-one constrained problem.
+         *
+         * @param reflectances the reflectances.
+         * @param abundances   the abundances of the active endmembers, in the
+         *                     order of the endmembers.
+         */
+        void solve(double[] reflectances, double[] abundances) {
+            final int endmemberCount = indexes.length;
+
+            double sum = 0.0;
+            for (int j = 0; j < endmemberCount; ++j) {
+                final double[] row = inverse[j];
+                double a = 0.0;
+                for (int i = 0; i < row.length; ++i) {
+                    a += row[i] * reflectances[i];
+                }
+                abundances[j] = a;
+                sum += a;
+            }
+            final double excess = 1.0 - sum;
+            for (int j = 0; j < endmemberCount; ++j) {
+                abundances[j] += correction[j] * excess;
+            }
+        }
+    }
+}
@@ -15,177 +15,245 @@
  */
 package org.esa.beam.chris.operators.internal;
 
+import com.bc.ceres.glevel.MultiLevelImage;
+import com.bc.ceres.glevel.support.AbstractMultiLevelSource;
+import com.bc.ceres.glevel.support.DefaultMultiLevelImage;
 import org.esa.beam.cluster.EMCluster;
 import org.esa.beam.cluster.IndexFilter;
-import org.esa.beam.cluster.ProbabilityCalculator;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.Product;
-import org.esa.beam.jai.BandOpImage;
 
 import javax.media.jai.ComponentSampleModelJAI;
 import javax.media.jai.ImageLayout;
-import javax.media.jai.JAI;
 import javax.media.jai.OpImage;
 import javax.media.jai.PixelAccessor;
 import javax.media.jai.PlanarImage;
-import javax.media.jai.PointOpImage;
+import javax.media.jai.SourcelessOpImage;
 import javax.media.jai.UnpackedImageData;
 import java.awt.Rectangle;
-import java.awt.RenderingHints;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
-import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
-import java.util.Vector;
 
 /**
- * Cloud probability image.
+ * Cloud probability image. The cloud probabilities are derived from the
+ * posterior cluster probabilities produced by a {@link PosteriorTileProducer}.
  *
  * @author Ralf Quast
  * @version $Revision$ $Date$
  */
-public class CloudProbabilityOpImage extends PointOpImage {
+public class CloudProbabilityOpImage extends SourcelessOpImage {
 
-    public static final int TILE_W = 32;
-    public static final int TILE_H = 32;
+    public static final int TILE_W = PosteriorTileProducer.TILE_W;
+    public static final int TILE_H = PosteriorTileProducer.TILE_H;
 
-    private final Band[] sourceBands;
-    private final ProbabilityCalculator calculator;
-    private final IndexFilter validClusterFilter;
+    /**
+     * The scaling factor of cloud probabilities stored as unsigned short
+     * integral values.
+     */
+    public static final double USHORT_SCALING_FACTOR = 1.0 / 65535.0;
+
+    private final PosteriorTileProducer producer;
     private final IndexFilter cloudClusterFilter;
-    private final int clusterCount;
     private final boolean discrete;
+    private final int dataType;
 
     public static OpImage createProbabilityImage(Product sourceProduct, String[] sourceBandNames,
                                                  EMCluster[] clusters,
                                                  IndexFilter validClusterFilter,
                                                  IndexFilter cloudClusterFilter) {
-        final Band[] sourceBands = new Band[sourceBandNames.length];
-        for (int i = 0; i < sourceBandNames.length; i++) {
-            sourceBands[i] = sourceProduct.getBand(sourceBandNames[i]);
-        }
-
-        return createImage(sourceBands, Clusterer.createProbabilityCalculator(clusters), validClusterFilter,
-                           cloudClusterFilter, clusters.length, false);
+        return createImage(PosteriorTileProducer.create(sourceProduct, sourceBandNames, clusters,
+                                                        validClusterFilter),
+                           cloudClusterFilter, false, DataBuffer.TYPE_FLOAT);
     }
 
     public static OpImage createDiscretizedImage(Product sourceProduct, String[] sourceBandNames,
                                                  EMCluster[] clusters,
                                                  IndexFilter validClusterFilter,
                                                  IndexFilter cloudClusterFilter) {
-        final Band[] sourceBands = new Band[sourceBandNames.length];
-        for (int i = 0; i < sourceBandNames.length; i++) {
-            sourceBands[i] = sourceProduct.getBand(sourceBandNames[i]);
-        }
-
-        return createImage(sourceBands, Clusterer.createProbabilityCalculator(clusters), validClusterFilter,
-                           cloudClusterFilter, clusters.length, true);
+        return createImage(PosteriorTileProducer.create(sourceProduct, sourceBandNames, clusters,
+                                                        validClusterFilter),
+                           cloudClusterFilter, true, DataBuffer.TYPE_BYTE);
     }
 
     /*
      * For unit-level testing, which is easier with a calculator 
      * instead of a clusters array.
      */
-    static OpImage createImage(Band[] sourceBands, ProbabilityCalculator calculator, IndexFilter clusterFilter,
+    static OpImage createImage(Band[] sourceBands, PosteriorCalculator calculator, IndexFilter clusterFilter,
                                IndexFilter cloudClusterFilter, int clusterCount, boolean discrete) {
-        final Vector<RenderedImage> sourceImageVector = new Vector<RenderedImage>();
+        return createImage(PosteriorTileProducer.create(sourceBands, calculator, clusterFilter, clusterCount),
+                           cloudClusterFilter, discrete, DataBuffer.TYPE_DOUBLE);
+    }
+
+    /**
+     * Returns the scaling factor of the samples of a cloud probability image
+     * of a certain data type.
+     *
+     * @param dataType the data type, see {@link DataBuffer}.
+     *
+     * @return the scaling factor.
+     */
+    public static double getScalingFactor(int dataType) {
+        return dataType == DataBuffer.TYPE_USHORT ? USHORT_SCALING_FACTOR : 1.0;
+    }
+
+    /**
+     * Creates a multi-level cloud probability image. The images of lower
+     * resolution levels are computed from the corresponding levels of the
+     * feature images when they are requested for the first time.
+     *
+     * @param sourceProduct      the source product.
+     * @param sourceBandNames    the names of the feature bands.
+     * @param clusters           the clusters.
+     * @param validClusterFilter the valid cluster filter.
+     * @param cloudClusterFilter the cloud cluster filter.
+     * @param discrete           if {@code true}, the cloud probabilities are
+     *                           discretized.
+     * @param dataType           the data type of the image samples. Discrete
+     *                           images may be of type {@link DataBuffer#TYPE_BYTE}.
+     *                           Samples of type {@link DataBuffer#TYPE_USHORT}
+     *                           are scaled by {@link #USHORT_SCALING_FACTOR}.
+     *
+     * @return the multi-level cloud probability image.
+     */
+    public static MultiLevelImage createMultiLevelImage(Product sourceProduct, String[] sourceBandNames,
+                                                        EMCluster[] clusters,
+                                                        IndexFilter validClusterFilter,
+                                                        IndexFilter cloudClusterFilter,
+                                                        boolean discrete,
+                                                        int dataType) {
+        return createMultiLevelImage(PosteriorTileProducer.create(sourceProduct, sourceBandNames, clusters,
+                                                                  validClusterFilter),
+                                     cloudClusterFilter, discrete, dataType);
+    }
 
-        for (final Band band : sourceBands) {
-            RenderedImage sourceImage = band.getSourceImage();
-            if (sourceImage == null) {
-                sourceImage = new BandOpImage(band);
-                band.setSourceImage(sourceImage);
+    /**
+     * Creates a multi-level cloud probability image which is a view on the
+     * tiles produced by a posterior tile producer and its lower resolution
+     * levels.
+     *
+     * @param producer           the posterior tile producer.
+     * @param cloudClusterFilter the cloud cluster filter.
+     * @param discrete           if {@code true}, the cloud probabilities are
+     *                           discretized.
+     * @param dataType           the data type of the image samples.
+     *
+     * @return the multi-level cloud probability image.
+     */
+    public static MultiLevelImage createMultiLevelImage(final PosteriorTileProducer producer,
+                                                        final IndexFilter cloudClusterFilter,
+                                                        final boolean discrete,
+                                                        final int dataType) {
+        return new DefaultMultiLevelImage(new AbstractMultiLevelSource(producer.getModel()) {
+            @Override
+            protected RenderedImage createImage(int level) {
+                return CloudProbabilityOpImage.createImage(producer.getLevel(level), cloudClusterFilter, discrete,
+                                                           dataType);
+            }
+        });
+    }
+
+    /**
+     * Creates a cloud probability image which is a view on the tiles
+     * produced by a posterior tile producer.
+     *
+     * @param producer           the posterior tile producer.
+     * @param cloudClusterFilter the cloud cluster filter.
+     * @param discrete           if {@code true}, the cloud probabilities are
+     *                           discretized.
+     * @param dataType           the data type of the image samples.
+     *
+     * @return the cloud probability image.
+     */
+    public static OpImage createImage(PosteriorTileProducer producer, IndexFilter cloudClusterFilter,
+                                      boolean discrete, int dataType) {
+        switch (dataType) {
+        case DataBuffer.TYPE_BYTE:
+            if (!discrete) {
+                throw new IllegalArgumentException("dataType == DataBuffer.TYPE_BYTE && !discrete");
             }
-            sourceImageVector.add(sourceImage);
+            break;
+        case DataBuffer.TYPE_USHORT:
+        case DataBuffer.TYPE_FLOAT:
+        case DataBuffer.TYPE_DOUBLE:
+            break;
+        default:
+            throw new IllegalArgumentException("unsupported data type " + dataType);
         }
 
-        final int w = sourceImageVector.get(0).getWidth();
-        final int h = sourceImageVector.get(0).getHeight();
+        final int w = producer.getWidth();
+        final int h = producer.getHeight();
 
-        final SampleModel sampleModel = new ComponentSampleModelJAI(DataBuffer.TYPE_DOUBLE, w, h, 1, w, new int[]{0});
+        final SampleModel sampleModel = new ComponentSampleModelJAI(dataType, w, h, 1, w, new int[]{0});
         final ColorModel colorModel = PlanarImage.createColorModel(sampleModel);
         final ImageLayout imageLayout = new ImageLayout(0, 0, w, h, 0, 0, TILE_W, TILE_H, sampleModel, colorModel);
 
-        return new CloudProbabilityOpImage(imageLayout, sourceImageVector, sourceBands, calculator, clusterFilter,
-                                           cloudClusterFilter, clusterCount, discrete);
+        return new CloudProbabilityOpImage(imageLayout, sampleModel, producer, cloudClusterFilter, discrete,
+                                           dataType);
     }
 
-    private CloudProbabilityOpImage(ImageLayout imageLayout, Vector<RenderedImage> sourceImageVector,
-                                    Band[] sourceBands, ProbabilityCalculator calculator,
-                                    IndexFilter validClusterFilter, IndexFilter cloudClusterFilter,
-                                    int clusterCount, boolean discrete) {
-        super(sourceImageVector, imageLayout, new RenderingHints(JAI.KEY_TILE_CACHE, null), true);
+    private CloudProbabilityOpImage(ImageLayout imageLayout, SampleModel sampleModel,
+                                    PosteriorTileProducer producer, IndexFilter cloudClusterFilter,
+                                    boolean discrete, int dataType) {
+        // computed tiles are kept in the default tile cache, so consumers can pull them repeatedly
+        super(imageLayout, null, sampleModel, 0, 0, producer.getWidth(), producer.getHeight());
 
-        this.sourceBands = sourceBands;
-        this.calculator = calculator;
-        this.validClusterFilter = validClusterFilter;
+        this.producer = producer;
         this.cloudClusterFilter = cloudClusterFilter;
-        this.clusterCount = clusterCount;
         this.discrete = discrete;
+        this.dataType = dataType;
     }
 
     @Override
-    protected void computeRect(Raster[] sources, WritableRaster target, Rectangle rectangle) {
+    protected void computeRect(PlanarImage[] sources, WritableRaster target, Rectangle rectangle) {
         final PixelAccessor targetAccessor;
         final UnpackedImageData targetData;
-        final double[] targetPixels;
 
         targetAccessor = new PixelAccessor(getSampleModel(), getColorModel());
-        targetData = targetAccessor.getPixels(target, rectangle, DataBuffer.TYPE_DOUBLE, true);
-        targetPixels = targetData.getDoubleData(0);
-
-        final PixelAccessor[] sourceAccessors = new PixelAccessor[sources.length];
-        final UnpackedImageData[] sourceData = new UnpackedImageData[sources.length];
-        final short[][] sourcePixels = new short[sources.length][];
+        targetData = targetAccessor.getPixels(target, rectangle, dataType, true);
 
-        for (int i = 0; i < sources.length; ++i) {
-            sourceAccessors[i] = new PixelAccessor(getSourceImage(i));
-            sourceData[i] = sourceAccessors[i].getPixels(sources[i], rectangle, DataBuffer.TYPE_SHORT, false);
-            sourcePixels[i] = sourceData[i].getShortData(0);
-        }
-
-        final int sourceBandOffset = sourceData[0].bandOffsets[0];
-        final int targetBandOffset = targetData.bandOffsets[0];
-
-        final int sourcePixelStride = sourceData[0].pixelStride;
-        final int targetPixelStride = targetData.pixelStride;
+        final byte[] bytePixels = dataType == DataBuffer.TYPE_BYTE ? targetData.getByteData(0) : null;
+        final short[] shortPixels = dataType == DataBuffer.TYPE_USHORT ? targetData.getShortData(0) : null;
+        final float[] floatPixels = dataType == DataBuffer.TYPE_FLOAT ? targetData.getFloatData(0) : null;
+        final double[] doublePixels = dataType == DataBuffer.TYPE_DOUBLE ? targetData.getDoubleData(0) : null;
 
-        final int sourceLineStride = sourceData[0].lineStride;
-        final int targetLineStride = targetData.lineStride;
+        final PosteriorTileProducer.PosteriorTile tile = producer.getTile(rectangle);
+        final double[] posteriors = new double[producer.getClusterCount()];
 
-        int sourceLineOffset = sourceBandOffset;
-        int targetLineOffset = targetBandOffset;
+        int targetLineOffset = targetData.bandOffsets[0];
 
-        final double[] sourceSamples = new double[sources.length];
-        final double[] posteriors = new double[clusterCount];
-
-        for (int y = 0; y < rectangle.getHeight(); y++) {
-            int sourcePixelOffset = sourceLineOffset;
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
             int targetPixelOffset = targetLineOffset;
 
-            for (int x = 0; x < rectangle.getWidth(); x++) {
-                for (int i = 0; i < sources.length; i++) {
-                    sourceSamples[i] = sourceBands[i].scale(sourcePixels[i][sourcePixelOffset]);
-                }
-                calculator.calculate(sourceSamples, posteriors, validClusterFilter);
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                tile.getPosteriors(tile.getIndex(x, y), posteriors);
 
-                final double cloudProbability = accumulateCloudProbabilities(posteriors);
+                double cloudProbability = accumulateCloudProbabilities(posteriors);
                 if (discrete) {
-                    if (cloudProbability > 0.5) {
-                        targetPixels[targetPixelOffset] = 1.0;
-                    }
-                } else {
-                    targetPixels[targetPixelOffset] = cloudProbability;
+                    cloudProbability = cloudProbability > 0.5 ? 1.0 : 0.0;
+                }
+                switch (dataType) {
+                case DataBuffer.TYPE_BYTE:
+                    bytePixels[targetPixelOffset] = (byte) cloudProbability;
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                    shortPixels[targetPixelOffset] =
+                            (short) Math.round(Math.min(cloudProbability, 1.0) / USHORT_SCALING_FACTOR);
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    floatPixels[targetPixelOffset] = (float) cloudProbability;
+                    break;
+                default:
+                    doublePixels[targetPixelOffset] = cloudProbability;
                 }
 
-                sourcePixelOffset += sourcePixelStride;
-                targetPixelOffset += targetPixelStride;
+                targetPixelOffset += targetData.pixelStride;
             }
 
-            sourceLineOffset += sourceLineStride;
-            targetLineOffset += targetLineStride;
+            targetLineOffset += targetData.lineStride;
         }
 
         targetAccessor.setPixels(targetData);
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import org.esa.beam.cluster.EMCluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+
+/**
+ * Cluster model comprising the clusters found by the EM algorithm, the
+ * names of the feature bands used for clustering, and the cluster labels
+ * assigned by the user.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class ClusterModel {
+
+    private static final String MAGIC = "CHRIS_CLUSTER_MODEL";
+    private static final int VERSION = 1;
+
+    private final String[] featureBandNames;
+    private final EMCluster[] clusters;
+    private final String[] labels;
+    private final boolean[] cloudFlags;
+    private final boolean[] invalidFlags;
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param featureBandNames the names of the feature bands.
+     * @param clusters         the clusters.
+     * @param labels           the cluster labels.
+     * @param cloudFlags       the cloud flags.
+     * @param invalidFlags     the invalid flags.
+     */
+    public ClusterModel(String[] featureBandNames, EMCluster[] clusters, String[] labels, boolean[] cloudFlags,
+                        boolean[] invalidFlags) {
+        if (labels.length != clusters.length) {
+            throw new IllegalArgumentException("labels.length != clusters.length");
+        }
+        if (cloudFlags.length != clusters.length) {
+            throw new IllegalArgumentException("cloudFlags.length != clusters.length");
+        }
+        if (invalidFlags.length != clusters.length) {
+            throw new IllegalArgumentException("invalidFlags.length != clusters.length");
+        }
+        this.featureBandNames = featureBandNames;
+        this.clusters = clusters;
+        this.labels = labels;
+        this.cloudFlags = cloudFlags;
+        this.invalidFlags = invalidFlags;
+    }
+
+    public String[] getFeatureBandNames() {
+        return featureBandNames.clone();
+    }
+
+    public EMCluster[] getClusters() {
+        return clusters.clone();
+    }
+
+    public String[] getLabels() {
+        return labels.clone();
+    }
+
+    public boolean[] getCloudFlags() {
+        return cloudFlags.clone();
+    }
+
+    public boolean[] getInvalidFlags() {
+        return invalidFlags.clone();
+    }
+
+    /**
+     * Reads a cluster model from a file.
+     *
+     * @param file the file.
+     *
+     * @return the cluster model read.
+     *
+     * @throws IOException if the file could not be read or is not a cluster model file.
+     */
+    public static ClusterModel read(File file) throws IOException {
+        final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            if (!MAGIC.equals(dis.readUTF())) {
+                throw new IOException(MessageFormat.format("File ''{0}'' is not a cluster model file.", file));
+            }
+            final int version = dis.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException(MessageFormat.format(
+                        "Cluster model file ''{0}'' has unsupported version {1}.", file, version));
+            }
+            final int featureCount = dis.readInt();
+            final String[] featureBandNames = new String[featureCount];
+            for (int i = 0; i < featureCount; ++i) {
+                featureBandNames[i] = dis.readUTF();
+            }
+            final int clusterCount = dis.readInt();
+            final EMCluster[] clusters = new EMCluster[clusterCount];
+            final String[] labels = new String[clusterCount];
+            final boolean[] cloudFlags = new boolean[clusterCount];
+            final boolean[] invalidFlags = new boolean[clusterCount];
+
+            for (int k = 0; k < clusterCount; ++k) {
+                labels[k] = dis.readUTF();
+                cloudFlags[k] = dis.readBoolean();
+                invalidFlags[k] = dis.readBoolean();
+
+                final double prior = dis.readDouble();
+                final double[] mean = new double[featureCount];
+                final double[][] covariances = new double[featureCount][featureCount];
+                for (int i = 0; i < featureCount; ++i) {
+                    mean[i] = dis.readDouble();
+                }
+                for (int i = 0; i < featureCount; ++i) {
+                    for (int j = 0; j < featureCount; ++j) {
+                        covariances[i][j] = dis.readDouble();
+                    }
+                }
+                clusters[k] = new EMCluster(mean, covariances, prior);
+            }
+
+            return new ClusterModel(featureBandNames, clusters, labels, cloudFlags, invalidFlags);
+        } finally {
+            try {
+                dis.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Writes this cluster model to a file.
+     *
+     * @param file the file.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    public void write(File file) throws IOException {
+        final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+        try {
+            dos.writeUTF(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(featureBandNames.length);
+            for (final String name : featureBandNames) {
+                dos.writeUTF(name);
+            }
+            dos.writeInt(clusters.length);
+            for (int k = 0; k < clusters.length; ++k) {
+                dos.writeUTF(labels[k]);
+                dos.writeBoolean(cloudFlags[k]);
+                dos.writeBoolean(invalidFlags[k]);
+
+                final double[] mean = clusters[k].getMean();
+                final double[][] covariances = clusters[k].getCovariances();
+                dos.writeDouble(clusters[k].getPriorProbability());
+                for (final double value : mean) {
+                    dos.writeDouble(value);
+                }
+                for (final double[] row : covariances) {
+                    for (final double value : row) {
+                        dos.writeDouble(value);
+                    }
+                }
+            }
+        } finally {
+            dos.close();
+        }
+    }
+}
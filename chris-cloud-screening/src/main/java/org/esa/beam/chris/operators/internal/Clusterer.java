@@ -15,9 +15,7 @@
  */
 package org.esa.beam.chris.operators.internal;
 
-import org.esa.beam.cluster.Distribution;
 import org.esa.beam.cluster.EMCluster;
-import org.esa.beam.cluster.ProbabilityCalculator;
 
 import java.util.Arrays;
 import java.util.Comparator;
@@ -40,11 +38,17 @@ public class Clusterer {
     private final double[][] means;
     // cluster covariances
     private final double[][][] covariances;
-    // cluster distributions
-    private final Distribution[] distributions;
 
+    // if true, the full covariance matrices are estimated
+    private final boolean fullCovariances;
     // strategy for calculating posterior cluster probabilities
-    private final ProbabilityCalculator calculator;
+    private final GaussianCalculator calculator;
+
+    // the prior probabilities and means before the last iteration
+    private final double[] lastPriors;
+    private final double[][] lastMeans;
+    // the parameter change made by the last iteration
+    private double parameterChange = Double.POSITIVE_INFINITY;
 
     /**
      * Finds a collection of clusters for a given set of data points.
@@ -61,23 +65,15 @@ public class Clusterer {
     }
 
     /**
-     * Creates a {@link ProbabilityCalculator} for calculating posterior cluster
+     * Creates a {@link PosteriorCalculator} for calculating posterior cluster
      * probabilities for the clusters provided as arguments.
      *
      * @param clusters the clusters.
      *
      * @return the probability calculator.
      */
-    public static ProbabilityCalculator createProbabilityCalculator(EMCluster[] clusters) {
-        final Distribution[] distributions = new Distribution[clusters.length];
-        final double[] priors = new double[clusters.length];
-
-        for (int i = 0; i < clusters.length; i++) {
-            distributions[i] = new MultinormalDistribution(clusters[i].getMean(), clusters[i].getCovariances());
-            priors[i] = clusters[i].getPriorProbability();
-        }
-
-        return new ProbabilityCalculator(distributions, priors);
+    public static PosteriorCalculator createProbabilityCalculator(EMCluster[] clusters) {
+        return GaussianCalculator.create(clusters);
     }
 
     /**
@@ -88,19 +84,95 @@ public class Clusterer {
      * @param seed          the seed used to initialize the cluster algorithm.
      */
     public Clusterer(PixelAccessor pixelAccessor, int clusterCount, long seed) {
+        this(pixelAccessor, clusterCount, seed, Seeding.RANDOM);
+    }
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param pixelAccessor the pixel accessor.
+     * @param clusterCount  the number of clusters.
+     * @param seed          the seed used to initialize the cluster algorithm.
+     * @param seeding       the strategy used for choosing the initial cluster means.
+     */
+    public Clusterer(PixelAccessor pixelAccessor, int clusterCount, long seed, Seeding seeding) {
+        this(pixelAccessor, clusterCount, seed, seeding, false);
+    }
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param pixelAccessor   the pixel accessor.
+     * @param clusterCount    the number of clusters.
+     * @param seed            the seed used to initialize the cluster algorithm.
+     * @param seeding         the strategy used for choosing the initial cluster means.
+     * @param fullCovariances if {@code true}, the full covariance matrices are
+     *                        estimated, otherwise only the variances are estimated.
+     */
+    public Clusterer(PixelAccessor pixelAccessor, int clusterCount, long seed, Seeding seeding,
+                     boolean fullCovariances) {
         final int sampleCount = pixelAccessor.getSampleCount();
 
         this.pixelAccessor = pixelAccessor;
         this.clusterCount = clusterCount;
+        this.fullCovariances = fullCovariances;
+
+        priors = new double[clusterCount];
+
+        means = new double[clusterCount][sampleCount];
+        covariances = new double[clusterCount][sampleCount][sampleCount];
+        calculator = createCalculator(clusterCount, sampleCount, fullCovariances);
+
+        lastPriors = new double[clusterCount];
+        lastMeans = new double[clusterCount][sampleCount];
+
+        initialize(new Random(seed), seeding);
+    }
+
+    /**
+     * Constructs a new instance of this class, which starts with the
+     * clusters supplied as arguments. Starting with the clusters found
+     * for a preceding, similar scene usually requires only a few
+     * iterations for convergence.
+     *
+     * @param pixelAccessor   the pixel accessor.
+     * @param initialClusters the initial clusters.
+     */
+    public Clusterer(PixelAccessor pixelAccessor, EMCluster[] initialClusters) {
+        this(pixelAccessor, initialClusters, false);
+    }
+
+    /**
+     * Constructs a new instance of this class, which starts with the
+     * clusters supplied as arguments.
+     *
+     * @param pixelAccessor   the pixel accessor.
+     * @param initialClusters the initial clusters.
+     * @param fullCovariances if {@code true}, the full covariance matrices are
+     *                        estimated, otherwise only the variances are estimated.
+     */
+    public Clusterer(PixelAccessor pixelAccessor, EMCluster[] initialClusters, boolean fullCovariances) {
+        final int sampleCount = pixelAccessor.getSampleCount();
+        for (final EMCluster cluster : initialClusters) {
+            if (cluster.getMean().length != sampleCount) {
+                throw new IllegalArgumentException("cluster.getMean().length != pixelAccessor.getSampleCount()");
+            }
+        }
+
+        this.pixelAccessor = pixelAccessor;
+        this.clusterCount = initialClusters.length;
+        this.fullCovariances = fullCovariances;
 
         priors = new double[clusterCount];
 
         means = new double[clusterCount][sampleCount];
         covariances = new double[clusterCount][sampleCount][sampleCount];
-        distributions = new Distribution[clusterCount];
-        calculator = new ProbabilityCalculator(distributions, priors);
+        calculator = createCalculator(clusterCount, sampleCount, fullCovariances);
 
-        initialize(new Random(seed));
+        lastPriors = new double[clusterCount];
+        lastMeans = new double[clusterCount][sampleCount];
+
+        initialize(initialClusters);
     }
 
     /**
@@ -143,7 +215,8 @@ public class Clusterer {
     /**
      * Returns the clusters found, sorted according to a comparator.
      *
-     * @param comparator a comparator.
+     * @param comparator a comparator. If {@code null}, the clusters are not
+     *                   sorted, so the order of initial clusters is preserved.
      * @param clusters   a preallocated array of clusters, on return holding the
      *                   clusters found.
      *
@@ -153,7 +226,9 @@ public class Clusterer {
         for (int k = 0; k < clusterCount; ++k) {
             clusters[k] = new EMCluster(means[k], covariances[k], priors[k]);
         }
-        Arrays.sort(clusters, comparator);
+        if (comparator != null) {
+            Arrays.sort(clusters, comparator);
+        }
 
         return clusters;
     }
@@ -164,14 +239,30 @@ public class Clusterer {
      * @param random the random number generator used for initialization.
      */
     void initialize(Random random) {
+        initialize(random, Seeding.RANDOM);
+    }
+
+    /**
+     * Initializes the clusters.
+     *
+     * @param random  the random number generator used for initialization.
+     * @param seeding the strategy used for choosing the initial cluster means.
+     */
+    void initialize(Random random, Seeding seeding) {
         final int pixelCount = pixelAccessor.getPixelCount();
         final int sampleCount = pixelAccessor.getSampleCount();
 
-        final double[] samples = new double[sampleCount];
-
-        for (int k = 0; k < clusterCount; ++k) {
-            pixelAccessor.getSamples(random.nextInt(pixelCount), samples);
-            System.arraycopy(samples, 0, means[k], 0, sampleCount);
+        switch (seeding) {
+            case KMEANS_PLUS_PLUS:
+                new SeedFinder(pixelAccessor, random).findDistanceWeightedSeeds(means);
+                break;
+            case FARTHEST_POINT:
+                new SeedFinder(pixelAccessor, random).findFarthestPointSeeds(means);
+                break;
+            default:
+                for (int k = 0; k < clusterCount; ++k) {
+                    pixelAccessor.getSamples(random.nextInt(pixelCount), means[k]);
+                }
         }
 
         for (int k = 0; k < clusterCount; ++k) {
@@ -183,7 +274,33 @@ public class Clusterer {
                 covariances[k][l][l] = 1.0;
             }
 
-            distributions[k] = new MultinormalDistribution(means[k], covariances[k]);
+            calculator.setCluster(k, means[k], covariances[k], priors[k]);
+        }
+    }
+
+    /**
+     * Initializes the clusters with the clusters supplied as arguments.
+     *
+     * @param initialClusters the initial clusters.
+     */
+    void initialize(EMCluster[] initialClusters) {
+        final int sampleCount = pixelAccessor.getSampleCount();
+
+        for (int k = 0; k < clusterCount; ++k) {
+            final double[] mean = initialClusters[k].getMean();
+            final double[][] covariances = initialClusters[k].getCovariances();
+
+            priors[k] = initialClusters[k].getPriorProbability();
+            System.arraycopy(mean, 0, means[k], 0, sampleCount);
+            for (int l = 0; l < sampleCount; ++l) {
+                if (fullCovariances) {
+                    System.arraycopy(covariances[l], 0, this.covariances[k][l], 0, sampleCount);
+                } else {
+                    this.covariances[k][l][l] = covariances[l][l];
+                }
+            }
+
+            calculator.setCluster(k, means[k], this.covariances[k], priors[k]);
         }
     }
 
@@ -191,13 +308,32 @@ public class Clusterer {
      * Carries out a single EM iteration.
      */
     public final void iterate() {
-        iterate(false);
+        iterate(fullCovariances);
+    }
+
+    /**
+     * Returns the change of the cluster parameters made by the last EM
+     * iteration. The change is the maximum of the absolute changes of the
+     * prior probabilities and the absolute changes of the means in units
+     * of the cluster standard deviations. Iterating can be stopped when
+     * the change falls below a small tolerance.
+     *
+     * @return the parameter change, or {@link Double#POSITIVE_INFINITY} if
+     *         no iteration has been made.
+     */
+    public final double getParameterChange() {
+        return parameterChange;
     }
 
     private void iterate(boolean updateCovariances) {
         final int pixelCount = pixelAccessor.getPixelCount();
         final int sampleCount = pixelAccessor.getSampleCount();
 
+        for (int k = 0; k < clusterCount; ++k) {
+            lastPriors[k] = priors[k];
+            System.arraycopy(means[k], 0, lastMeans[k], 0, sampleCount);
+        }
+
         final double[] sums = new double[clusterCount];
         final double[] posteriors = new double[clusterCount];
         final double[] samples = new double[sampleCount];
@@ -256,10 +392,47 @@ public class Clusterer {
             }
 
             priors[k] = sums[k] / pixelCount;
-            distributions[k] = new MultinormalDistribution(means[k], covariances[k]);
+            calculator.setCluster(k, means[k], covariances[k], priors[k]);
+        }
+
+        parameterChange = 0.0;
+        for (int k = 0; k < clusterCount; ++k) {
+            parameterChange = Math.max(parameterChange, Math.abs(priors[k] - lastPriors[k]));
+            for (int l = 0; l < sampleCount; ++l) {
+                final double change = Math.abs(means[k][l] - lastMeans[k][l]);
+                final double deviation = Math.sqrt(covariances[k][l][l]);
+                parameterChange = Math.max(parameterChange, deviation > 0.0 ? change / deviation : change);
+            }
         }
     }
 
+    private static GaussianCalculator createCalculator(int clusterCount, int sampleCount, boolean fullCovariances) {
+        if (fullCovariances) {
+            return new FullGaussianCalculator(clusterCount, sampleCount);
+        } else {
+            return new DiagonalGaussianCalculator(clusterCount, sampleCount);
+        }
+    }
+
+    /**
+     * Strategies for choosing the initial cluster means.
+     */
+    public enum Seeding {
+        /**
+         * Randomly chosen pixels.
+         */
+        RANDOM,
+        /**
+         * Pixels chosen by k-means++ sampling, i.e. with a probability proportional
+         * to the squared distance to the nearest mean already chosen.
+         */
+        KMEANS_PLUS_PLUS,
+        /**
+         * Pixels chosen by a farthest-point traversal of a random subsample.
+         */
+        FARTHEST_POINT
+    }
+
     /**
      * Cluster comparator.
      * <p/>
@@ -271,52 +444,4 @@ public class Clusterer {
             return Double.compare(c2.getPriorProbability(), c1.getPriorProbability());
         }
     }
-
-    /**
-     * Multinormal distribution with vanishing covariances.
-     */
-    private static class MultinormalDistribution implements Distribution {
-        private final double[] means;
-        private final double[] variances;
-        private final double logNormFactor;
-
-        private MultinormalDistribution(double[] means, double[][] covariances) {
-            this.means = means.clone();
-            this.variances = new double[means.length];
-
-            double det = variances[0] = covariances[0][0];
-            for (int i = 1; i < variances.length; ++i) {
-                variances[i] = covariances[i][i];
-                det *= variances[i];
-            }
-            if (det == 0) {
-                throw new ArithmeticException("covariance matrix is singular.");
-            }
-            logNormFactor = -0.5 * (means.length * Math.log(2.0 * Math.PI) + Math.log(det));
-        }
-
-        @Override
-        public double probabilityDensity(double[] y) {
-            return Math.exp(logProbabilityDensity(y));
-        }
-
-        @Override
-        public double logProbabilityDensity(double[] y) {
-            if (y.length != means.length) {
-                throw new IllegalArgumentException("y.length != mean.length");
-            }
-            return logNormFactor - 0.5 * mahalanobisSquaredDistance(y);
-        }
-
-        private double mahalanobisSquaredDistance(double[] y) {
-            double sum = 0.0;
-
-            for (int i = 0; i < means.length; ++i) {
-                final double dist = y[i] - means[i];
-                sum += (dist * dist) / variances[i];
-            }
-
-            return sum;
-        }
-    }
 }
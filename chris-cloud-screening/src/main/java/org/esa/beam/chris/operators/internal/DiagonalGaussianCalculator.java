@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import org.esa.beam.cluster.EMCluster;
+
+/**
+ * Calculates posterior cluster probabilities for multinormal cluster
+ * distributions with vanishing covariances.
+ * <p/>
+ * Cluster means and inverse variances are stored in flat arrays in
+ * cluster-major order.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public final class DiagonalGaussianCalculator extends GaussianCalculator {
+
+    // cluster means, the means of cluster k start at index k * featureCount
+    private final double[] means;
+    // inverse cluster variances, same layout as cluster means
+    private final double[] inverseVariances;
+
+    /**
+     * Creates a new calculator for the clusters supplied as arguments. Only
+     * the diagonal elements of the covariance matrices are used.
+     *
+     * @param clusters the clusters.
+     *
+     * @return the calculator.
+     */
+    public static DiagonalGaussianCalculator create(EMCluster[] clusters) {
+        final DiagonalGaussianCalculator calculator =
+                new DiagonalGaussianCalculator(clusters.length, clusters[0].getMean().length);
+        for (int k = 0; k < clusters.length; ++k) {
+            calculator.setCluster(k, clusters[k].getMean(), clusters[k].getCovariances(),
+                                  clusters[k].getPriorProbability());
+        }
+
+        return calculator;
+    }
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param clusterCount the number of clusters.
+     * @param featureCount the number of features.
+     */
+    public DiagonalGaussianCalculator(int clusterCount, int featureCount) {
+        super(clusterCount, featureCount);
+
+        means = new double[clusterCount * featureCount];
+        inverseVariances = new double[clusterCount * featureCount];
+    }
+
+    /**
+     * Sets the parameters of a cluster. Only the diagonal elements of the
+     * covariance matrix are used. Vanishing variances are regularized.
+     *
+     * @param k           the cluster index.
+     * @param mean        the cluster mean.
+     * @param covariances the cluster covariances.
+     * @param prior       the prior cluster probability.
+     */
+    @Override
+    public void setCluster(int k, double[] mean, double[][] covariances, double prior) {
+        final int featureCount = getFeatureCount();
+        final int offset = k * featureCount;
+
+        double logDet = 0.0;
+        for (int l = 0; l < featureCount; ++l) {
+            double variance = covariances[l][l];
+            if (!(variance > 0.0)) {
+                variance = getRegularization(covariances, 0);
+            }
+            means[offset + l] = mean[l];
+            inverseVariances[offset + l] = 1.0 / variance;
+            logDet += Math.log(variance);
+        }
+        setLogWeight(k, prior, logDet);
+    }
+
+    @Override
+    double[] getWorkspace() {
+        return null;
+    }
+
+    @Override
+    double mahalanobisSquaredDistance(double[] features, int k, double[] workspace) {
+        final int featureCount = getFeatureCount();
+        final int offset = k * featureCount;
+
+        double sum = 0.0;
+        for (int l = 0; l < featureCount; ++l) {
+            final double dist = features[l] - means[offset + l];
+            sum += dist * dist * inverseVariances[offset + l];
+        }
+
+        return sum;
+    }
+}
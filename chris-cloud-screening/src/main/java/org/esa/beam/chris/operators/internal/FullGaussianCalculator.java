@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+/**
+ * Calculates posterior cluster probabilities for multinormal cluster
+ * distributions with full covariance matrices.
+ * <p/>
+ * The Cholesky factor of each covariance matrix is computed once, when
+ * the cluster is set. Mahalanobis distances are calculated by forward
+ * substitution into a workspace, which is allocated once per thread.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public final class FullGaussianCalculator extends GaussianCalculator {
+
+    private static final int MAX_REGULARIZATION_ATTEMPTS = 12;
+
+    // size of the packed lower triangular Cholesky factor of a cluster
+    private final int factorSize;
+    // cluster means, the means of cluster k start at index k * featureCount
+    private final double[] means;
+    // packed lower triangular Cholesky factors, row-major, off-diagonal elements only
+    private final double[] factors;
+    // inverse diagonal elements of the Cholesky factors, same layout as cluster means
+    private final double[] inverseDiagonals;
+    // scratch matrix used for factorization
+    private final double[][] matrix;
+
+    private final ThreadLocal<double[]> workspace;
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param clusterCount the number of clusters.
+     * @param featureCount the number of features.
+     */
+    public FullGaussianCalculator(int clusterCount, final int featureCount) {
+        super(clusterCount, featureCount);
+
+        factorSize = featureCount * (featureCount - 1) / 2;
+        means = new double[clusterCount * featureCount];
+        factors = new double[clusterCount * factorSize];
+        inverseDiagonals = new double[clusterCount * featureCount];
+        matrix = new double[featureCount][featureCount];
+
+        workspace = new ThreadLocal<double[]>() {
+            @Override
+            protected double[] initialValue() {
+                return new double[featureCount];
+            }
+        };
+    }
+
+    /**
+     * Sets the parameters of a cluster. Singular covariance matrices are
+     * regularized.
+     *
+     * @param k           the cluster index.
+     * @param mean        the cluster mean.
+     * @param covariances the cluster covariances.
+     * @param prior       the prior cluster probability.
+     *
+     * @throws ArithmeticException if the covariance matrix cannot be regularized.
+     */
+    @Override
+    public void setCluster(int k, double[] mean, double[][] covariances, double prior) {
+        final int featureCount = getFeatureCount();
+
+        double regularization = 0.0;
+        for (int attempt = 0; !factorize(covariances, regularization); ++attempt) {
+            if (attempt == MAX_REGULARIZATION_ATTEMPTS) {
+                throw new ArithmeticException("covariance matrix cannot be regularized.");
+            }
+            regularization = getRegularization(covariances, attempt);
+        }
+
+        final int meanOffset = k * featureCount;
+        final int factorOffset = k * factorSize;
+
+        double logDet = 0.0;
+        for (int l = 0, i = factorOffset; l < featureCount; ++l) {
+            means[meanOffset + l] = mean[l];
+            for (int m = 0; m < l; ++m, ++i) {
+                factors[i] = matrix[l][m];
+            }
+            inverseDiagonals[meanOffset + l] = 1.0 / matrix[l][l];
+            logDet += 2.0 * Math.log(matrix[l][l]);
+        }
+        setLogWeight(k, prior, logDet);
+    }
+
+    @Override
+    double[] getWorkspace() {
+        return workspace.get();
+    }
+
+    @Override
+    double mahalanobisSquaredDistance(double[] features, int k, double[] z) {
+        final int featureCount = getFeatureCount();
+        final int meanOffset = k * featureCount;
+
+        // forward substitution L z = x - mean
+        double sum = 0.0;
+        for (int l = 0, i = k * factorSize; l < featureCount; ++l) {
+            double d = features[l] - means[meanOffset + l];
+            for (int m = 0; m < l; ++m, ++i) {
+                d -= factors[i] * z[m];
+            }
+            z[l] = d * inverseDiagonals[meanOffset + l];
+            sum += z[l] * z[l];
+        }
+
+        return sum;
+    }
+
+    /**
+     * Computes the Cholesky factor of a (regularized) covariance matrix
+     * into the lower triangle of the scratch matrix.
+     *
+     * @param covariances    the covariance matrix.
+     * @param regularization the amount added to the diagonal elements.
+     *
+     * @return {@code true} if the regularized covariance matrix is positive
+     *         definite, {@code false} otherwise.
+     */
+    private boolean factorize(double[][] covariances, double regularization) {
+        final int featureCount = getFeatureCount();
+
+        for (int l = 0; l < featureCount; ++l) {
+            for (int m = 0; m <= l; ++m) {
+                double sum = covariances[l][m];
+                if (Double.isNaN(sum) || Double.isInfinite(sum)) {
+                    // covariances of an empty cluster
+                    sum = 0.0;
+                }
+                if (l == m) {
+                    sum += regularization;
+                }
+                for (int n = 0; n < m; ++n) {
+                    sum -= matrix[l][n] * matrix[m][n];
+                }
+                if (l == m) {
+                    if (!(sum > 0.0)) {
+                        return false;
+                    }
+                    matrix[l][l] = Math.sqrt(sum);
+                } else {
+                    matrix[l][m] = sum / matrix[m][m];
+                }
+            }
+        }
+
+        return true;
+    }
+}
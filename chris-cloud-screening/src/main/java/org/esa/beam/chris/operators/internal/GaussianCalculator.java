@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import org.esa.beam.cluster.EMCluster;
+import org.esa.beam.cluster.IndexFilter;
+
+/**
+ * Calculates posterior cluster probabilities for multinormal cluster
+ * distributions.
+ * <p/>
+ * The posterior probabilities are normalized by means of the log-sum-exp
+ * method, which avoids the underflow that occurs for pixels far from all
+ * cluster means. Singular covariance matrices are regularized by adding a
+ * small multiple of the mean variance to the diagonal.
+ * <p/>
+ * Instances of this class are not thread-safe while clusters are being
+ * set, but concurrent calls to {@link #calculate} are safe.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public abstract class GaussianCalculator implements PosteriorCalculator {
+
+    private static final double LOG_2PI = Math.log(2.0 * Math.PI);
+
+    // relative regularization of singular covariance matrices
+    private static final double REGULARIZATION = 1.0E-6;
+    // regularization of covariance matrices with vanishing trace
+    private static final double MIN_VARIANCE = 1.0E-12;
+
+    private final int clusterCount;
+    private final int featureCount;
+
+    // sum of logarithmic prior probability and logarithmic norm factor
+    private final double[] logWeights;
+
+    /**
+     * Creates a new calculator for the clusters supplied as arguments. If
+     * the covariance matrix of any cluster has non-vanishing off-diagonal
+     * elements, the full covariance matrices are used.
+     *
+     * @param clusters the clusters.
+     *
+     * @return the calculator.
+     */
+    public static GaussianCalculator create(EMCluster[] clusters) {
+        final GaussianCalculator calculator;
+        if (hasCovariances(clusters)) {
+            calculator = new FullGaussianCalculator(clusters.length, clusters[0].getMean().length);
+        } else {
+            calculator = new DiagonalGaussianCalculator(clusters.length, clusters[0].getMean().length);
+        }
+        for (int k = 0; k < clusters.length; ++k) {
+            calculator.setCluster(k, clusters[k].getMean(), clusters[k].getCovariances(),
+                                  clusters[k].getPriorProbability());
+        }
+
+        return calculator;
+    }
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param clusterCount the number of clusters.
+     * @param featureCount the number of features.
+     */
+    GaussianCalculator(int clusterCount, int featureCount) {
+        this.clusterCount = clusterCount;
+        this.featureCount = featureCount;
+
+        logWeights = new double[clusterCount];
+    }
+
+    /**
+     * Sets the parameters of a cluster.
+     *
+     * @param k           the cluster index.
+     * @param mean        the cluster mean.
+     * @param covariances the cluster covariances.
+     * @param prior       the prior cluster probability.
+     */
+    public abstract void setCluster(int k, double[] mean, double[][] covariances, double prior);
+
+    @Override
+    public final int getClusterCount() {
+        return clusterCount;
+    }
+
+    /**
+     * Returns the number of features.
+     *
+     * @return the number of features.
+     */
+    public final int getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+     * Calculates the posterior cluster probabilities for a given feature
+     * vector.
+     *
+     * @param features   the feature vector.
+     * @param posteriors the posterior cluster probabilities. On return
+     *                   holds the posterior cluster probabilities.
+     */
+    public final void calculate(double[] features, double[] posteriors) {
+        final double[] workspace = getWorkspace();
+        double max = Double.NEGATIVE_INFINITY;
+
+        for (int k = 0; k < clusterCount; ++k) {
+            final double logDensity = logWeights[k] - 0.5 * mahalanobisSquaredDistance(features, k, workspace);
+            if (logDensity > max) {
+                max = logDensity;
+            }
+            posteriors[k] = logDensity;
+        }
+        normalize(posteriors, max);
+    }
+
+    @Override
+    public final void calculate(double[] features, double[] posteriors, IndexFilter clusterFilter) {
+        final double[] workspace = getWorkspace();
+        double max = Double.NEGATIVE_INFINITY;
+
+        for (int k = 0; k < clusterCount; ++k) {
+            if (clusterFilter.accept(k)) {
+                final double logDensity = logWeights[k] - 0.5 * mahalanobisSquaredDistance(features, k, workspace);
+                if (logDensity > max) {
+                    max = logDensity;
+                }
+                posteriors[k] = logDensity;
+            } else {
+                posteriors[k] = Double.NEGATIVE_INFINITY;
+            }
+        }
+        normalize(posteriors, max);
+    }
+
+    /**
+     * Calculates the logarithmic cluster probability densities, weighted
+     * with the prior cluster probabilities, for a given feature vector.
+     *
+     * @param features     the feature vector.
+     * @param logDensities the logarithmic probability densities. On return
+     *                     holds the logarithmic probability densities.
+     */
+    public final void calculateLogDensities(double[] features, double[] logDensities) {
+        final double[] workspace = getWorkspace();
+
+        for (int k = 0; k < clusterCount; ++k) {
+            logDensities[k] = logWeights[k] - 0.5 * mahalanobisSquaredDistance(features, k, workspace);
+        }
+    }
+
+    /**
+     * Returns the workspace used for calculating Mahalanobis distances by
+     * the current thread.
+     *
+     * @return the workspace, may be {@code null} if no workspace is needed.
+     */
+    abstract double[] getWorkspace();
+
+    /**
+     * Calculates the squared Mahalanobis distance of a feature vector to
+     * the mean of a cluster.
+     *
+     * @param features  the feature vector.
+     * @param k         the cluster index.
+     * @param workspace the workspace.
+     *
+     * @return the squared Mahalanobis distance.
+     */
+    abstract double mahalanobisSquaredDistance(double[] features, int k, double[] workspace);
+
+    /**
+     * Sets the weight of a cluster.
+     *
+     * @param k      the cluster index.
+     * @param prior  the prior cluster probability.
+     * @param logDet the logarithm of the determinant of the covariance matrix.
+     */
+    final void setLogWeight(int k, double prior, double logDet) {
+        logWeights[k] = Math.log(prior) - 0.5 * (featureCount * LOG_2PI + logDet);
+    }
+
+    /**
+     * Returns the amount added to the diagonal elements of a singular
+     * covariance matrix.
+     *
+     * @param covariances the covariance matrix.
+     * @param attempt     the number of preceding attempts made to regularize
+     *                    the covariance matrix.
+     *
+     * @return the amount added to the diagonal elements.
+     */
+    final double getRegularization(double[][] covariances, int attempt) {
+        double trace = 0.0;
+        for (int l = 0; l < featureCount; ++l) {
+            if (covariances[l][l] > 0.0) {
+                trace += covariances[l][l];
+            }
+        }
+        final double regularization = Math.max(REGULARIZATION * trace / featureCount, MIN_VARIANCE);
+
+        return regularization * Math.pow(10.0, attempt);
+    }
+
+    /**
+     * Converts logarithmic probability densities into normalized posterior
+     * probabilities by means of the log-sum-exp method.
+     *
+     * @param posteriors the logarithmic probability densities. On return
+     *                   holds the posterior probabilities.
+     * @param max        the maximum logarithmic probability density.
+     */
+    private void normalize(double[] posteriors, double max) {
+        if (max == Double.NEGATIVE_INFINITY) {
+            // no cluster accepted or all clusters have vanishing prior probability
+            for (int k = 0; k < clusterCount; ++k) {
+                posteriors[k] = 0.0;
+            }
+            return;
+        }
+
+        double sum = 0.0;
+        for (int k = 0; k < clusterCount; ++k) {
+            if (posteriors[k] != Double.NEGATIVE_INFINITY) {
+                posteriors[k] = Math.exp(posteriors[k] - max);
+                sum += posteriors[k];
+            } else {
+                posteriors[k] = 0.0;
+            }
+        }
+        final double norm = 1.0 / sum;
+        for (int k = 0; k < clusterCount; ++k) {
+            posteriors[k] *= norm;
+        }
+    }
+
+    private static boolean hasCovariances(EMCluster[] clusters) {
+        for (final EMCluster cluster : clusters) {
+            final double[][] covariances = cluster.getCovariances();
+            for (int l = 0; l < covariances.length; ++l) {
+                for (int m = 0; m < covariances[l].length; ++m) {
+                    if (l != m && covariances[l][m] != 0.0) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+}
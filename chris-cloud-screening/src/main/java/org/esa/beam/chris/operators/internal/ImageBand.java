@@ -23,7 +23,6 @@ import org.esa.beam.framework.datamodel.ProductData;
 import java.awt.Rectangle;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
-import java.io.IOException;
 
 class ImageBand extends Band {
 
@@ -33,26 +32,19 @@ class ImageBand extends Band {
 
 
     /**
-     * Sets the rendered image for this {@code Band} and sets the raster
-     * data accordingly.
-     *
-     * @param image the rendered image.
-     * @param pm    the progress monitor.
-     */
-    public void setSourceImage(RenderedImage image, ProgressMonitor pm) {
-        super.setSourceImage(image);
-        resetRasterData(pm);
-    }
-
-    /**
-     * Sets the rendered image for this {@code Band} and sets the raster
-     * data accordingly.
+     * Sets the rendered image for this {@code Band}. The raster data are not
+     * read from the image, but any previously loaded raster data are released,
+     * because they are no longer valid. Use {@link #readRasterData} to read
+     * the raster data of a region tile by tile.
      *
      * @param image the rendered image.
      */
     @Override
     public void setSourceImage(RenderedImage image) {
-        setSourceImage(image, ProgressMonitor.NULL);
+        super.setSourceImage(image);
+        if (hasRasterData()) {
+            setRasterData(null);
+        }
     }
 
     @Override
@@ -93,7 +85,7 @@ class ImageBand extends Band {
 
                         for (int i = 0; i < h; ++i) {
                             //noinspection SuspiciousSystemArraycopy
-                            System.arraycopy(source, i * w, target, (y + i) * width + x, w);
+                            System.arraycopy(source, i * w, target, (y - offsetY + i) * width + (x - offsetX), w);
                         }
                     }
                     pm.worked(1);
@@ -103,16 +95,4 @@ class ImageBand extends Band {
             pm.done();
         }
     }
-
-    private void resetRasterData(ProgressMonitor pm) {
-        if (getSourceImage() != null) {
-            try {
-                readRasterDataFully(pm);
-            } catch (IOException e) {
-                throw new IllegalStateException(e);
-            }
-        } else {
-            setRasterData(null);
-        }
-    }
 }
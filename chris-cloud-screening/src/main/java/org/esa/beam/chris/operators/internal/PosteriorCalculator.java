@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import org.esa.beam.cluster.IndexFilter;
+
+/**
+ * Strategy for calculating posterior cluster probabilities.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public interface PosteriorCalculator {
+
+    /**
+     * Returns the number of clusters.
+     *
+     * @return the number of clusters.
+     */
+    int getClusterCount();
+
+    /**
+     * Calculates the posterior cluster probabilities for a given feature
+     * vector. The posterior probabilities of clusters which are not accepted
+     * by the cluster filter are set to zero.
+     *
+     * @param features      the feature vector.
+     * @param posteriors    the posterior cluster probabilities. On return
+     *                      holds the posterior cluster probabilities.
+     * @param clusterFilter the cluster filter.
+     */
+    void calculate(double[] features, double[] posteriors, IndexFilter clusterFilter);
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.cluster.IndexFilter;
+import org.esa.beam.framework.datamodel.Band;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Cube of per-pixel logarithmic cluster probability densities.
+ * <p/>
+ * The logarithmic densities are computed once and stored relative to the
+ * maximum density of each pixel, quantized to unsigned 16-bit integers with
+ * a resolution of 1/256. Posterior cluster probabilities for any set of
+ * valid clusters are obtained by a table lookup and renormalization, so
+ * that changing the set of valid clusters does not require evaluating the
+ * cluster densities again. Relative densities smaller than {@code exp(-256)}
+ * are saturated.
+ * <p/>
+ * The cube serves the extraction of endmembers only. Class and cloud images
+ * are computed from the posterior tiles of a {@link PosteriorTileProducer}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public final class PosteriorCube {
+
+    /**
+     * Storage strategies.
+     */
+    public enum Storage {
+        /**
+         * The cube is stored on the Java heap.
+         */
+        HEAP,
+        /**
+         * The cube is stored in native memory outside the Java heap.
+         */
+        DIRECT,
+        /**
+         * The cube is stored in a memory-mapped temporary file.
+         */
+        MAPPED
+    }
+
+    private static final double SCALE = 256.0;
+    private static final int MAX_LEVEL = 0xFFFF;
+
+    // exp(-i) for the high byte and exp(-i / 256) for the low byte of a level
+    private static final double[] HI_WEIGHTS = new double[256];
+    private static final double[] LO_WEIGHTS = new double[256];
+
+    static {
+        for (int i = 0; i < 256; ++i) {
+            HI_WEIGHTS[i] = Math.exp(-i);
+            LO_WEIGHTS[i] = Math.exp(-i / SCALE);
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int clusterCount;
+    private final ShortBuffer levels;
+
+    private final File file;
+    private final RandomAccessFile raf;
+
+    /**
+     * Creates a new posterior cube by evaluating the cluster densities for
+     * all pixels of the feature bands supplied as arguments.
+     *
+     * @param featureBands the feature bands.
+     * @param calculator   the calculator used for evaluating the cluster densities.
+     * @param storage      the storage strategy.
+     * @param pm           the progress monitor.
+     *
+     * @return the posterior cube.
+     *
+     * @throws IOException if the storage could not be allocated.
+     */
+    public static PosteriorCube create(Band[] featureBands, GaussianCalculator calculator,
+                                       Storage storage, ProgressMonitor pm) throws IOException {
+        final int w = featureBands[0].getSceneRasterWidth();
+        final int h = featureBands[0].getSceneRasterHeight();
+
+        final PosteriorCube cube = new PosteriorCube(w, h, calculator.getClusterCount(), storage);
+        try {
+            cube.compute(featureBands, calculator, pm);
+        } catch (RuntimeException e) {
+            cube.dispose();
+            throw e;
+        }
+
+        return cube;
+    }
+
+    private PosteriorCube(int width, int height, int clusterCount, Storage storage) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.clusterCount = clusterCount;
+
+        final int byteCount = width * height * clusterCount * 2;
+        final ByteBuffer byteBuffer;
+
+        switch (storage) {
+        case DIRECT:
+            file = null;
+            raf = null;
+            byteBuffer = ByteBuffer.allocateDirect(byteCount);
+            break;
+        case MAPPED:
+            file = File.createTempFile("chris-posteriors", ".cube");
+            file.deleteOnExit();
+            raf = new RandomAccessFile(file, "rw");
+            byteBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, byteCount);
+            break;
+        default:
+            file = null;
+            raf = null;
+            byteBuffer = ByteBuffer.allocate(byteCount);
+        }
+        levels = byteBuffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+    }
+
+    /**
+     * Returns the width of the cube.
+     *
+     * @return the width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the cube.
+     *
+     * @return the height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of clusters.
+     *
+     * @return the number of clusters.
+     */
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    /**
+     * Returns the posterior cluster probabilities of a given pixel.
+     *
+     * @param x             the x-coordinate of the pixel.
+     * @param y             the y-coordinate of the pixel.
+     * @param posteriors    the posterior cluster probabilities. On return
+     *                      holds the posterior cluster probabilities.
+     * @param clusterFilter the filter for valid clusters.
+     *
+     * @return the posterior cluster probabilities.
+     */
+    public double[] getPosteriors(int x, int y, double[] posteriors, IndexFilter clusterFilter) {
+        return getPosteriors(y * width + x, posteriors, clusterFilter);
+    }
+
+    /**
+     * Returns the posterior cluster probabilities of a given pixel. If
+     * the relative densities of all valid clusters are saturated, the
+     * valid clusters are assigned the same posterior probability.
+     *
+     * @param i             the pixel index.
+     * @param posteriors    the posterior cluster probabilities. On return
+     *                      holds the posterior cluster probabilities.
+     * @param clusterFilter the filter for valid clusters.
+     *
+     * @return the posterior cluster probabilities.
+     */
+    public double[] getPosteriors(int i, double[] posteriors, IndexFilter clusterFilter) {
+        final int offset = i * clusterCount;
+
+        int validCount = 0;
+        double sum = 0.0;
+        for (int k = 0; k < clusterCount; ++k) {
+            if (clusterFilter.accept(k)) {
+                final int level = levels.get(offset + k) & MAX_LEVEL;
+                if (level != MAX_LEVEL) {
+                    posteriors[k] = HI_WEIGHTS[level >> 8] * LO_WEIGHTS[level & 0xFF];
+                    sum += posteriors[k];
+                } else {
+                    posteriors[k] = 0.0;
+                }
+                ++validCount;
+            } else {
+                posteriors[k] = -1.0;
+            }
+        }
+        if (sum > 0.0) {
+            final double norm = 1.0 / sum;
+            for (int k = 0; k < clusterCount; ++k) {
+                posteriors[k] = posteriors[k] < 0.0 ? 0.0 : posteriors[k] * norm;
+            }
+        } else {
+            final double p = validCount > 0 ? 1.0 / validCount : 0.0;
+            for (int k = 0; k < clusterCount; ++k) {
+                posteriors[k] = posteriors[k] < 0.0 ? 0.0 : p;
+            }
+        }
+
+        return posteriors;
+    }
+
+    /**
+     * Releases the storage of this cube. The cube must not be used
+     * after this method has been called.
+     */
+    public void dispose() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            // on some platforms the file cannot be deleted until the
+            // mapping has been garbage collected, then deleteOnExit()
+            // takes care
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private void compute(Band[] featureBands, GaussianCalculator calculator, ProgressMonitor pm) {
+        final RenderedImage[] images = new RenderedImage[featureBands.length];
+        for (int i = 0; i < featureBands.length; ++i) {
+            images[i] = featureBands[i].getSourceImage();
+        }
+        final RenderedImage image = images[0];
+        final int minTileX = image.getMinTileX();
+        final int minTileY = image.getMinTileY();
+        final int numXTiles = image.getNumXTiles();
+        final int numYTiles = image.getNumYTiles();
+
+        final double[] features = new double[featureBands.length];
+        final double[] logDensities = new double[clusterCount];
+        final double[][] samples = new double[featureBands.length][];
+
+        try {
+            pm.beginTask("Computing posterior cluster probabilities...", numXTiles * numYTiles);
+
+            for (int tileY = minTileY; tileY < minTileY + numYTiles; ++tileY) {
+                for (int tileX = minTileX; tileX < minTileX + numXTiles; ++tileX) {
+                    final Rectangle tileRectangle = new Rectangle(
+                            image.getTileGridXOffset() + tileX * image.getTileWidth(),
+                            image.getTileGridYOffset() + tileY * image.getTileHeight(),
+                            image.getTileWidth(), image.getTileHeight());
+                    final Rectangle rectangle = tileRectangle.intersection(new Rectangle(0, 0, width, height));
+                    if (rectangle.isEmpty()) {
+                        pm.worked(1);
+                        continue;
+                    }
+                    final int x0 = rectangle.x;
+                    final int y0 = rectangle.y;
+                    final int w = rectangle.width;
+                    final int h = rectangle.height;
+
+                    for (int i = 0; i < images.length; ++i) {
+                        final Raster raster = images[i].getData(rectangle);
+                        samples[i] = raster.getSamples(x0, y0, w, h, 0, samples[i]);
+                    }
+                    for (int y = 0, j = 0; y < h; ++y) {
+                        for (int x = 0; x < w; ++x, ++j) {
+                            for (int i = 0; i < featureBands.length; ++i) {
+                                features[i] = featureBands[i].scale(samples[i][j]);
+                            }
+                            calculator.calculateLogDensities(features, logDensities);
+                            putLevels((y0 + y) * width + x0 + x, logDensities);
+                        }
+                    }
+                    pm.worked(1);
+                }
+            }
+        } finally {
+            pm.done();
+        }
+    }
+
+    private void putLevels(int i, double[] logDensities) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < clusterCount; ++k) {
+            if (logDensities[k] > max) {
+                max = logDensities[k];
+            }
+        }
+        final int offset = i * clusterCount;
+        for (int k = 0; k < clusterCount; ++k) {
+            final double level = (max - logDensities[k]) * SCALE + 0.5;
+            // comparison is false for NaN, which occurs when all densities vanish
+            if (level < MAX_LEVEL) {
+                levels.put(offset + k, (short) level);
+            } else {
+                levels.put(offset + k, (short) MAX_LEVEL);
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import com.bc.ceres.glevel.MultiLevelModel;
+import org.esa.beam.cluster.EMCluster;
+import org.esa.beam.cluster.IndexFilter;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.jai.BandOpImage;
+
+import javax.media.jai.PixelAccessor;
+import javax.media.jai.UnpackedImageData;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Produces the scaled features and the posterior cluster probabilities of
+ * the pixels in a tile of the feature images.
+ * <p/>
+ * Each tile is evaluated only once while it is held in a bounded cache, so
+ * that the class index, cloud probability and cloud mask images created
+ * from the same producer are cheap views on a single evaluation. Threads
+ * requesting a tile which is being evaluated wait for the evaluation to
+ * complete.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class PosteriorTileProducer {
+
+    public static final int TILE_W = 32;
+    public static final int TILE_H = 32;
+
+    /**
+     * The default number of tiles held in the cache of a producer.
+     */
+    public static final int DEFAULT_CACHE_CAPACITY = 64;
+
+    private final Band[] featureBands;
+    private final RenderedImage[] featureImages;
+    private final PosteriorCalculator calculator;
+    private final IndexFilter validClusterFilter;
+    private final int clusterCount;
+    private final int level;
+    private final Map<Point, FutureTask<PosteriorTile>> cache;
+
+    private PosteriorTileProducer[] levelProducers;
+
+    /**
+     * Creates a new producer for the full-resolution feature images.
+     *
+     * @param sourceProduct      the source product.
+     * @param sourceBandNames    the names of the feature bands.
+     * @param clusters           the clusters.
+     * @param validClusterFilter the valid cluster filter.
+     *
+     * @return the posterior tile producer.
+     */
+    public static PosteriorTileProducer create(Product sourceProduct, String[] sourceBandNames,
+                                               EMCluster[] clusters, IndexFilter validClusterFilter) {
+        final Band[] sourceBands = new Band[sourceBandNames.length];
+        for (int i = 0; i < sourceBandNames.length; i++) {
+            sourceBands[i] = sourceProduct.getBand(sourceBandNames[i]);
+        }
+
+        return create(sourceBands, Clusterer.createProbabilityCalculator(clusters), validClusterFilter,
+                      clusters.length);
+    }
+
+    static PosteriorTileProducer create(Band[] featureBands, PosteriorCalculator calculator,
+                                        IndexFilter validClusterFilter, int clusterCount) {
+        return new PosteriorTileProducer(featureBands, 0, calculator, validClusterFilter, clusterCount,
+                                         DEFAULT_CACHE_CAPACITY);
+    }
+
+    private PosteriorTileProducer(Band[] featureBands, int level, PosteriorCalculator calculator,
+                                  IndexFilter validClusterFilter, int clusterCount, final int cacheCapacity) {
+        this.featureBands = featureBands;
+        this.calculator = calculator;
+        this.validClusterFilter = validClusterFilter;
+        this.clusterCount = clusterCount;
+        this.level = level;
+
+        featureImages = new RenderedImage[featureBands.length];
+        for (int i = 0; i < featureBands.length; ++i) {
+            final Band band = featureBands[i];
+            RenderedImage sourceImage = band.getSourceImage();
+            if (sourceImage == null) {
+                sourceImage = new BandOpImage(band);
+                band.setSourceImage(sourceImage);
+            }
+            if (level != 0) {
+                sourceImage = band.getSourceImage().getImage(level);
+            }
+            featureImages[i] = sourceImage;
+        }
+
+        cache = new LinkedHashMap<Point, FutureTask<PosteriorTile>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Point, FutureTask<PosteriorTile>> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the producer for a resolution level of the feature images.
+     * The producers of lower resolution levels are created when requested
+     * for the first time.
+     *
+     * @param level the resolution level.
+     *
+     * @return the producer for the resolution level requested.
+     */
+    public synchronized PosteriorTileProducer getLevel(int level) {
+        if (this.level != 0) {
+            throw new IllegalStateException("this.level != 0");
+        }
+        if (level == 0) {
+            return this;
+        }
+        if (levelProducers == null) {
+            levelProducers = new PosteriorTileProducer[getModel().getLevelCount()];
+        }
+        if (levelProducers[level] == null) {
+            levelProducers[level] = new PosteriorTileProducer(featureBands, level, calculator, validClusterFilter,
+                                                              clusterCount, DEFAULT_CACHE_CAPACITY);
+        }
+
+        return levelProducers[level];
+    }
+
+    /**
+     * Returns the multi-level model of the feature images.
+     *
+     * @return the multi-level model.
+     */
+    public MultiLevelModel getModel() {
+        return featureBands[0].getSourceImage().getModel();
+    }
+
+    public final int getWidth() {
+        return featureImages[0].getWidth();
+    }
+
+    public final int getHeight() {
+        return featureImages[0].getHeight();
+    }
+
+    public final int getFeatureCount() {
+        return featureImages.length;
+    }
+
+    public final int getClusterCount() {
+        return clusterCount;
+    }
+
+    /**
+     * Returns the tile containing a rectangle. The tile is evaluated when
+     * it is not found in the cache.
+     *
+     * @param rectangle the rectangle, which must not span several tiles.
+     *
+     * @return the tile containing the rectangle.
+     */
+    PosteriorTile getTile(Rectangle rectangle) {
+        final int tileX = rectangle.x / TILE_W;
+        final int tileY = rectangle.y / TILE_H;
+        final Rectangle bounds = new Rectangle(tileX * TILE_W, tileY * TILE_H, TILE_W, TILE_H).intersection(
+                new Rectangle(0, 0, getWidth(), getHeight()));
+        if (!bounds.contains(rectangle)) {
+            throw new IllegalArgumentException("rectangle spans several tiles");
+        }
+
+        final Point key = new Point(tileX, tileY);
+        final FutureTask<PosteriorTile> task;
+        boolean evaluating = false;
+
+        synchronized (cache) {
+            final FutureTask<PosteriorTile> cachedTask = cache.get(key);
+            if (cachedTask == null) {
+                task = new FutureTask<PosteriorTile>(new Callable<PosteriorTile>() {
+                    @Override
+                    public PosteriorTile call() {
+                        return computeTile(bounds);
+                    }
+                });
+                cache.put(key, task);
+                evaluating = true;
+            } else {
+                task = cachedTask;
+            }
+        }
+        if (evaluating) {
+            task.run();
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            synchronized (cache) {
+                if (cache.get(key) == task) {
+                    cache.remove(key);
+                }
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private PosteriorTile computeTile(Rectangle bounds) {
+        final int featureCount = featureImages.length;
+        final int pixelCount = bounds.width * bounds.height;
+        final double[] features = new double[pixelCount * featureCount];
+        final double[] posteriors = new double[pixelCount * clusterCount];
+
+        for (int i = 0; i < featureCount; ++i) {
+            final Raster raster = featureImages[i].getData(bounds);
+            final PixelAccessor accessor = new PixelAccessor(featureImages[i]);
+            final UnpackedImageData data = accessor.getPixels(raster, bounds, DataBuffer.TYPE_SHORT, false);
+            final short[] pixels = data.getShortData(0);
+
+            int lineOffset = data.bandOffsets[0];
+            int index = i;
+            for (int y = 0; y < bounds.height; ++y) {
+                int pixelOffset = lineOffset;
+                for (int x = 0; x < bounds.width; ++x) {
+                    features[index] = featureBands[i].scale(pixels[pixelOffset]);
+                    pixelOffset += data.pixelStride;
+                    index += featureCount;
+                }
+                lineOffset += data.lineStride;
+            }
+        }
+
+        final double[] samples = new double[featureCount];
+        final double[] pixelPosteriors = new double[clusterCount];
+        for (int j = 0; j < pixelCount; ++j) {
+            System.arraycopy(features, j * featureCount, samples, 0, featureCount);
+            calculator.calculate(samples, pixelPosteriors, validClusterFilter);
+            System.arraycopy(pixelPosteriors, 0, posteriors, j * clusterCount, clusterCount);
+        }
+
+        return new PosteriorTile(bounds, featureCount, clusterCount, features, posteriors);
+    }
+
+    /**
+     * The scaled features and posterior cluster probabilities of the pixels
+     * in a tile.
+     */
+    static final class PosteriorTile {
+
+        private final Rectangle bounds;
+        private final int featureCount;
+        private final int clusterCount;
+        private final double[] features;
+        private final double[] posteriors;
+
+        private PosteriorTile(Rectangle bounds, int featureCount, int clusterCount, double[] features,
+                              double[] posteriors) {
+            this.bounds = bounds;
+            this.featureCount = featureCount;
+            this.clusterCount = clusterCount;
+            this.features = features;
+            this.posteriors = posteriors;
+        }
+
+        int getIndex(int x, int y) {
+            return (y - bounds.y) * bounds.width + (x - bounds.x);
+        }
+
+        double getFeature(int index, int i) {
+            return features[index * featureCount + i];
+        }
+
+        void getPosteriors(int index, double[] posteriors) {
+            System.arraycopy(this.posteriors, index * clusterCount, posteriors, 0, clusterCount);
+        }
+    }
+}
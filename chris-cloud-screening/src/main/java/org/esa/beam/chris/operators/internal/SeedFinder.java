@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the initial cluster means for the EM cluster algorithm.
+ * <p/>
+ * The squared distances of all pixels to the nearest seed found so far are
+ * updated in parallel chunks. Since the chunks do not depend on the number
+ * of threads, the seeds found are determined by the random number generator
+ * alone.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+class SeedFinder {
+
+    private static final int CHUNK_SIZE = 16384;
+    private static final int SUBSAMPLE_SIZE = 8192;
+
+    private final PixelAccessor pixelAccessor;
+    private final Random random;
+
+    SeedFinder(PixelAccessor pixelAccessor, Random random) {
+        this.pixelAccessor = pixelAccessor;
+        this.random = random;
+    }
+
+    /**
+     * Finds seeds by means of the k-means++ algorithm: each seed is
+     * drawn from all pixels with a probability proportional to the squared
+     * distance to the nearest seed already found.
+     * <p/>
+     * D. Arthur, S. Vassilvitskii (2007, Proc. 18th ACM-SIAM SODA, 1027)
+     *
+     * @param seeds the seeds, on return holding the seeds found.
+     */
+    void findDistanceWeightedSeeds(double[][] seeds) {
+        final int pixelCount = pixelAccessor.getPixelCount();
+        final int[] indexes = new int[pixelCount];
+        for (int i = 0; i < pixelCount; ++i) {
+            indexes[i] = i;
+        }
+        final double[] distances = new double[pixelCount];
+        final double[] chunkSums = new double[(pixelCount + CHUNK_SIZE - 1) / CHUNK_SIZE];
+
+        final ExecutorService executorService = createExecutorService(chunkSums.length);
+        try {
+            pixelAccessor.getSamples(random.nextInt(pixelCount), seeds[0]);
+            for (int k = 1; k < seeds.length; ++k) {
+                updateDistances(executorService, indexes, seeds[k - 1], distances, chunkSums, k == 1);
+
+                double sum = 0.0;
+                for (final double chunkSum : chunkSums) {
+                    sum += chunkSum;
+                }
+                final int i;
+                if (sum > 0.0) {
+                    i = select(distances, chunkSums, random.nextDouble() * sum);
+                } else {
+                    // all pixels coincide with a seed
+                    i = random.nextInt(pixelCount);
+                }
+                pixelAccessor.getSamples(i, seeds[k]);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Finds seeds by means of a farthest-point traversal of a random
+     * subsample of pixels: each seed is the subsample pixel farthest from
+     * the seeds already found.
+     *
+     * @param seeds the seeds, on return holding the seeds found.
+     */
+    void findFarthestPointSeeds(double[][] seeds) {
+        final int pixelCount = pixelAccessor.getPixelCount();
+        final int sampleSize = Math.min(pixelCount, SUBSAMPLE_SIZE);
+        final int[] indexes = new int[sampleSize];
+        for (int j = 0; j < sampleSize; ++j) {
+            indexes[j] = random.nextInt(pixelCount);
+        }
+        final double[] distances = new double[sampleSize];
+        final double[] chunkSums = new double[(sampleSize + CHUNK_SIZE - 1) / CHUNK_SIZE];
+
+        final ExecutorService executorService = createExecutorService(chunkSums.length);
+        try {
+            pixelAccessor.getSamples(indexes[0], seeds[0]);
+            for (int k = 1; k < seeds.length; ++k) {
+                updateDistances(executorService, indexes, seeds[k - 1], distances, chunkSums, k == 1);
+
+                int farthest = 0;
+                for (int j = 1; j < sampleSize; ++j) {
+                    if (distances[j] > distances[farthest]) {
+                        farthest = j;
+                    }
+                }
+                pixelAccessor.getSamples(indexes[farthest], seeds[k]);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static ExecutorService createExecutorService(int chunkCount) {
+        return Executors.newFixedThreadPool(Math.min(chunkCount, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static int select(double[] distances, double[] chunkSums, double r) {
+        int c = 0;
+        for (; c < chunkSums.length - 1 && r >= chunkSums[c]; ++c) {
+            r -= chunkSums[c];
+        }
+        final int begin = c * CHUNK_SIZE;
+        final int end = Math.min(begin + CHUNK_SIZE, distances.length);
+
+        int last = begin;
+        for (int j = begin; j < end; ++j) {
+            if (distances[j] > 0.0) {
+                last = j;
+                if (r < distances[j]) {
+                    return j;
+                }
+                r -= distances[j];
+            }
+        }
+
+        // rounding errors
+        return last;
+    }
+
+    private void updateDistances(ExecutorService executorService,
+                                 final int[] indexes,
+                                 final double[] seed,
+                                 final double[] distances,
+                                 final double[] chunkSums,
+                                 final boolean first) {
+        final int chunkCount = chunkSums.length;
+
+        try {
+            final List<Future<Double>> futureList = new ArrayList<Future<Double>>(chunkCount);
+            for (int c = 0; c < chunkCount; ++c) {
+                final int begin = c * CHUNK_SIZE;
+                final int end = Math.min(begin + CHUNK_SIZE, indexes.length);
+
+                futureList.add(executorService.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() {
+                        final double[] samples = new double[seed.length];
+                        double sum = 0.0;
+
+                        for (int j = begin; j < end; ++j) {
+                            pixelAccessor.getSamples(indexes[j], samples);
+
+                            double d = 0.0;
+                            for (int l = 0; l < samples.length; ++l) {
+                                final double diff = samples[l] - seed[l];
+                                d += diff * diff;
+                            }
+                            if (first || d < distances[j]) {
+                                distances[j] = d;
+                            }
+                            sum += distances[j];
+                        }
+
+                        return sum;
+                    }
+                }));
+            }
+            for (int c = 0; c < chunkCount; ++c) {
+                chunkSums[c] = futureList.get(c).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -39,5 +39,14 @@ interface LabelingContext {
 
     void computeBrightnessValues(double[] brightnessValues, boolean[] ignoreFlags);
 
-    void computeOccurrenceValues(double[] occurrenceValues);
+    /**
+     * Computes the relative occurrence of each class among the pixels
+     * classified so far.
+     *
+     * @param occurrenceValues the occurrence values.
+     *
+     * @return {@code true} if all pixels have been classified, so the
+     *         occurrence values are exact, {@code false} otherwise.
+     */
+    boolean computeOccurrenceValues(double[] occurrenceValues);
 }
@@ -25,6 +25,7 @@ import org.esa.beam.framework.ui.ModelessDialog;
 import org.esa.beam.framework.ui.PixelPositionListener;
 import org.esa.beam.framework.ui.UIUtils;
 import org.esa.beam.framework.ui.product.ProductSceneView;
+import org.esa.beam.util.io.BeamFileChooser;
 import org.esa.beam.visat.VisatApp;
 
 import javax.swing.AbstractButton;
@@ -38,6 +39,8 @@ import java.awt.event.MouseEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyVetoException;
 import java.beans.VetoableChangeListener;
+import java.io.File;
+import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.concurrent.ExecutionException;
 
@@ -85,6 +88,13 @@ class LabelingDialog extends ModelessDialog {
             }
         });
 
+        form.getSaveModelButton().addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                saveClusterModel();
+            }
+        });
+
         pixelPositionListener = new PixelPositionListener() {
             @Override
             public void pixelPosChanged(ImageLayer baseImageLayer, int pixelX, int pixelY, int currentLevel,
@@ -165,12 +175,29 @@ class LabelingDialog extends ModelessDialog {
 
     @Override
     public void close() {
+        formModel.dispose();
         disposeInternalFrame(classFrame);
         disposeInternalFrame(colorFrame);
+        screeningContext.dispose();
 
         getJDialog().dispose();
     }
 
+    private void saveClusterModel() {
+        final BeamFileChooser fileChooser = new BeamFileChooser();
+        fileChooser.setDialogTitle("Save Cluster Model");
+        fileChooser.setSelectedFile(new File(screeningContext.getRadianceProduct().getName() + ".model"));
+
+        if (BeamFileChooser.APPROVE_OPTION == fileChooser.showSaveDialog(getJDialog())) {
+            final File file = fileChooser.getSelectedFile();
+            try {
+                screeningContext.createClusterModel(formModel.getCloudyFlags(), formModel.getIgnoreFlags()).write(file);
+            } catch (IOException e) {
+                appContext.handleError(MessageFormat.format("Cannot write cluster model file ''{0}''.", file), e);
+            }
+        }
+    }
+
     private JInternalFrame createInternalFrame(ProductSceneView view, String title) {
         final VisatApp visatApp = VisatApp.getApp();
 
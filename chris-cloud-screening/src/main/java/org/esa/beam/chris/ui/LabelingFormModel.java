@@ -22,10 +22,13 @@ import com.bc.ceres.binding.ValidationException;
 import com.bc.ceres.binding.accessors.DefaultPropertyAccessor;
 
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.table.AbstractTableModel;
 import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.text.MessageFormat;
 
 /**
@@ -96,6 +99,10 @@ class LabelingFormModel {
         return (Boolean) propertyContainer.getValue("probabilistic");
     }
 
+    void dispose() {
+        tableModel.stopUpdates();
+    }
+
     static class TableModel extends AbstractTableModel {
 
         static final int LABEL_COLUMN = 0;
@@ -113,8 +120,12 @@ class LabelingFormModel {
                 String.class, Color.class, Boolean.class, Boolean.class, Double.class, Double.class
         };
 
+        // the delay between updates of the occurrence values (ms)
+        private static final int OCCURRENCE_UPDATE_DELAY = 1000;
+
         private final LabelingContext context;
         private final int rowCount;
+        private final Timer occurrenceTimer;
 
         private final boolean[] cloudyFlags;
         private final boolean[] ignoreFlags;
@@ -130,11 +141,19 @@ class LabelingFormModel {
             brightnessValues = new double[rowCount];
             occurrenceValues = new double[rowCount];
 
+            // the occurrence values are updated until all pixels have been classified
+            occurrenceTimer = new Timer(OCCURRENCE_UPDATE_DELAY, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    updateOccurrenceValues();
+                }
+            });
+
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
                     context.computeBrightnessValues(brightnessValues, ignoreFlags);
-                    context.computeOccurrenceValues(occurrenceValues);
+                    updateOccurrenceValues();
                 }
             });
         }
@@ -253,15 +272,30 @@ class LabelingFormModel {
                 public void run() {
                     context.regenerateClassView(ignoreFlags);
                     context.computeBrightnessValues(brightnessValues, ignoreFlags);
-                    context.computeOccurrenceValues(occurrenceValues);
                     for (int k = 0; k < rowCount; ++k) {
                         fireTableCellUpdated(k, BRIGHTNESS_COLUMN);
-                        fireTableCellUpdated(k, OCCURRENCE_COLUMN);
                     }
+                    updateOccurrenceValues();
                 }
             });
         }
 
+        private void updateOccurrenceValues() {
+            final boolean complete = context.computeOccurrenceValues(occurrenceValues);
+            for (int k = 0; k < rowCount; ++k) {
+                fireTableCellUpdated(k, OCCURRENCE_COLUMN);
+            }
+            if (complete) {
+                occurrenceTimer.stop();
+            } else if (!occurrenceTimer.isRunning()) {
+                occurrenceTimer.start();
+            }
+        }
+
+        private void stopUpdates() {
+            occurrenceTimer.stop();
+        }
+
         private double getBrightness(int rowIndex) {
             return brightnessValues[rowIndex];
         }
@@ -17,20 +17,28 @@ package org.esa.beam.chris.ui;
 
 import com.bc.ceres.core.ProgressMonitor;
 import com.bc.ceres.core.SubProgressMonitor;
+import com.bc.ceres.glayer.support.ImageLayer;
+import com.bc.ceres.glevel.MultiLevelImage;
 import org.esa.beam.chris.operators.ClassifyOp;
 import org.esa.beam.chris.operators.ComputeToaReflectancesOp;
 import org.esa.beam.chris.operators.ExtractEndmembersOp;
 import org.esa.beam.chris.operators.ExtractFeaturesOp;
 import org.esa.beam.chris.operators.FindClustersOp;
 import org.esa.beam.chris.operators.internal.ClassOpImage;
+import org.esa.beam.chris.operators.internal.ClassStatistics;
+import org.esa.beam.chris.operators.internal.CloudAbundanceOpImage;
 import org.esa.beam.chris.operators.internal.CloudProbabilityOpImage;
+import org.esa.beam.chris.operators.internal.ClusterModel;
 import org.esa.beam.chris.operators.internal.Clusterer;
 import org.esa.beam.chris.operators.internal.ExclusiveIndexFilter;
+import org.esa.beam.chris.operators.internal.GaussianCalculator;
 import org.esa.beam.chris.operators.internal.InclusiveIndexFilter;
+import org.esa.beam.chris.operators.internal.PosteriorCalculator;
+import org.esa.beam.chris.operators.internal.PosteriorCube;
+import org.esa.beam.chris.operators.internal.PosteriorTileProducer;
 import org.esa.beam.chris.util.OpUtils;
 import org.esa.beam.cluster.EMCluster;
 import org.esa.beam.cluster.IndexFilter;
-import org.esa.beam.cluster.ProbabilityCalculator;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.ColorPaletteDef;
 import org.esa.beam.framework.datamodel.ImageInfo;
@@ -43,26 +51,18 @@ import org.esa.beam.framework.ui.product.ProductSceneImage;
 import org.esa.beam.framework.ui.product.ProductSceneView;
 import org.esa.beam.jai.ImageManager;
 import org.esa.beam.unmixing.Endmember;
-import org.esa.beam.unmixing.SpectralUnmixingOp;
 import org.esa.beam.util.PropertyMap;
 
-import javax.media.jai.Histogram;
-import javax.media.jai.ImageLayout;
-import javax.media.jai.JAI;
 import javax.media.jai.OpImage;
-import javax.media.jai.RenderedOp;
-import javax.media.jai.operator.HistogramDescriptor;
-import javax.media.jai.operator.MultiplyDescriptor;
 import java.awt.Color;
-import java.awt.Dimension;
 import java.awt.Rectangle;
-import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
+import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.io.IOException;
 import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -80,6 +80,10 @@ class ScreeningContext implements LabelingContext {
     private static final double WAVELENGTH_G = 550.0;
     private static final double WAVELENGTH_B = 450.0;
 
+    private static final int PREVIEW_PIXEL_COUNT = 512 * 512;
+
+    private static final String POSTERIOR_CUBE_STORAGE_KEY = "chris.cloudScreening.posteriorCubeStorage";
+
     private final EMCluster[] clusters;
     private final String[] featureBandNames;
 
@@ -88,6 +92,13 @@ class ScreeningContext implements LabelingContext {
     private final Product featureProduct;
     private final Product classProduct;
 
+    private final PosteriorCube.Storage posteriorCubeStorage;
+    private PosteriorCube posteriorCube;
+
+    private PosteriorTileProducer producer;
+    private boolean[] producerIgnoreFlags;
+    private MultiLevelImage classImage;
+
     private final ProductSceneView colorView;
     private final ProductSceneView classView;
 
@@ -98,6 +109,8 @@ class ScreeningContext implements LabelingContext {
         clusters = new EMCluster[formModel.getClusterCount()];
         featureBandNames = formModel.getFeatureBandNames();
         radianceProduct = formModel.getSourceProduct();
+        posteriorCubeStorage = PosteriorCube.Storage.valueOf(
+                configuration.getPropertyString(POSTERIOR_CUBE_STORAGE_KEY, PosteriorCube.Storage.HEAP.name()));
 
         try {
             pm.beginTask("Performing cluster analysis...", 100);
@@ -120,6 +133,8 @@ class ScreeningContext implements LabelingContext {
                                         clusters,
                                         iterationCount,
                                         seed,
+                                        formModel.getSeeding(),
+                                        formModel.getFullCovariances(),
                                         comparator,
                                         SubProgressMonitor.create(pm, 80));
 
@@ -130,11 +145,14 @@ class ScreeningContext implements LabelingContext {
             classProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(ClassifyOp.class),
                                              classificationParameterMap,
                                              featureProduct);
+            // the class image is computed progressively, beginning with the levels displayed
+            setProducer(new boolean[clusters.length]);
+            getClassBand().setSourceImage(classImage);
 
             // 5. Scene views
             colorView = createColorView(radianceProduct, configuration, SubProgressMonitor.create(pm, 10));
-            final Raster rgb = colorView.getBaseImageLayer().getImage().getData();
-            classView = createClassView(classProduct, rgb, configuration, SubProgressMonitor.create(pm, 10));
+            classView = createClassView(classProduct, colorView.getBaseImageLayer(), configuration,
+                                        SubProgressMonitor.create(pm, 10));
         } finally {
             pm.done();
         }
@@ -145,21 +163,21 @@ class ScreeningContext implements LabelingContext {
                                   boolean probabilistic,
                                   ProgressMonitor pm)
             throws OperatorException {
-        final IndexFilter validFilter = new ExclusiveIndexFilter(ignoreFlags);
         final IndexFilter cloudFilter = new InclusiveIndexFilter(cloudyFlags);
 
         final RenderedImage cloudMaskImage;
         try {
-            pm.beginTask("Creating cloud mask...", probabilistic ? 110 : 100);
+            pm.beginTask("Creating cloud mask...", probabilistic ? 20 : 1);
 
+            // the cloud mask images are computed from the feature images, not from the
+            // posterior cube, so the cloud product remains valid when this context is
+            // disposed. The posterior tiles are shared with the class image, unless the
+            // clusters ignored have been changed since the class view was regenerated
+            final PosteriorTileProducer cloudProducer = getProducer(ignoreFlags);
             if (probabilistic) {
                 // 1. Calculate cloud probability
                 final OpImage probabilityImage =
-                        CloudProbabilityOpImage.createProbabilityImage(featureProduct,
-                                                                       featureBandNames,
-                                                                       clusters,
-                                                                       validFilter,
-                                                                       cloudFilter);
+                        CloudProbabilityOpImage.createImage(cloudProducer, cloudFilter, false, DataBuffer.TYPE_FLOAT);
                 // 2. Extract endmembers
                 final Endmember[] endmembers =
                         ExtractEndmembersOp.extractEndmembers(reflectanceProduct,
@@ -167,34 +185,22 @@ class ScreeningContext implements LabelingContext {
                                                               classProduct,
                                                               featureBandNames,
                                                               clusters,
+                                                              getPosteriorCube(SubProgressMonitor.create(pm, 10)),
                                                               cloudyFlags,
                                                               ignoreFlags,
                                                               SubProgressMonitor.create(pm, 10));
 
-                // 3. Calculate cloud abundance
+                // 3. Calculate cloud mask from cloud probability and cloud abundance
                 final Band[] reflectanceBands =
                         OpUtils.findBands(reflectanceProduct, "toa_refl", ExtractEndmembersOp.BAND_FILTER);
-                final String[] reflectanceBandNames = new String[reflectanceBands.length];
-                for (int i = 0; i < reflectanceBands.length; ++i) {
-                    reflectanceBandNames[i] = reflectanceBands[i].getName();
-                }
-                final RenderedImage abundanceImage = createCloudAbundanceImage(reflectanceProduct,
-                                                                               reflectanceBandNames,
-                                                                               endmembers);
-
-                // 4. Calculate cloud mask
-                final RenderingHints renderingHints = new RenderingHints(JAI.KEY_TILE_CACHE, null);
-                renderingHints.put(JAI.KEY_IMAGE_LAYOUT, new ImageLayout(probabilityImage));
-                cloudMaskImage = MultiplyDescriptor.create(probabilityImage, abundanceImage, renderingHints);
+                cloudMaskImage = CloudAbundanceOpImage.createImage(probabilityImage, reflectanceBands, endmembers);
             } else {
-                cloudMaskImage = CloudProbabilityOpImage.createDiscretizedImage(featureProduct,
-                                                                                featureBandNames,
-                                                                                clusters,
-                                                                                validFilter,
-                                                                                cloudFilter);
+                cloudMaskImage = CloudProbabilityOpImage.createMultiLevelImage(cloudProducer, cloudFilter, true,
+                                                                               DataBuffer.TYPE_BYTE);
+                pm.worked(1);
             }
-            // 5. Add cloud mask to radiance product
-            final Band band = createSyntheticBand("cloud_product", cloudMaskImage, SubProgressMonitor.create(pm, 100));
+            // 4. Add cloud mask to radiance product, the tiles are computed when requested
+            final Band band = createSyntheticBand("cloud_product", cloudMaskImage);
             band.setDescription("Cloud product");
 
             return band;
@@ -203,6 +209,25 @@ class ScreeningContext implements LabelingContext {
         }
     }
 
+    /**
+     * Creates a cluster model from the clusters found and the labeling
+     * made by the user. The model can be used for an unattended cloud
+     * screening of similar scenes.
+     *
+     * @param cloudyFlags the cloud flags.
+     * @param ignoreFlags the ignore flags.
+     *
+     * @return the cluster model.
+     */
+    ClusterModel createClusterModel(boolean[] cloudyFlags, boolean[] ignoreFlags) {
+        final String[] labels = new String[clusters.length];
+        for (int k = 0; k < clusters.length; ++k) {
+            labels[k] = getLabel(k);
+        }
+
+        return new ClusterModel(featureBandNames, clusters, labels, cloudyFlags, ignoreFlags);
+    }
+
     @Override
     public int getClusterCount() {
         return clusters.length;
@@ -236,11 +261,7 @@ class ScreeningContext implements LabelingContext {
 
     @Override
     public void regenerateClassView(boolean[] ignoreFlags) {
-        final IndexFilter indexFilter = new ExclusiveIndexFilter(ignoreFlags);
-        final RenderedImage classImage = ClassOpImage.createImage(featureProduct,
-                                                                  featureBandNames,
-                                                                  clusters,
-                                                                  indexFilter);
+        setProducer(ignoreFlags);
         getClassBand().setSourceImage(classImage);
         classView.getBaseImageLayer().regenerate();
         classView.getLayerCanvas().repaint();
@@ -251,7 +272,7 @@ class ScreeningContext implements LabelingContext {
         final IndexFilter indexFilter = new ExclusiveIndexFilter(ignoreFlags);
 
         final double[] sums = new double[clusters.length];
-        final ProbabilityCalculator pc = Clusterer.createProbabilityCalculator(clusters);
+        final PosteriorCalculator pc = Clusterer.createProbabilityCalculator(clusters);
         Arrays.fill(brightnessValues, 0.0);
 
         for (final EMCluster cluster : clusters) {
@@ -271,20 +292,30 @@ class ScreeningContext implements LabelingContext {
     }
 
     @Override
-    public void computeOccurrenceValues(double[] occurrenceValues) {
-        final RenderedImage image = getClassBand().getSourceImage();
-        final double[] min = {0.0};
-        final double[] max = {clusters.length};
-        final int[] binCount = {clusters.length};
-        final RenderedOp op = HistogramDescriptor.create(image, null, 2, 2, binCount, min, max, null);
-        final Histogram histogram = (Histogram) op.getProperty("histogram");
-
-        final int totalCounts = image.getWidth() * image.getHeight();
-        final int[] histogramCounts = histogram.getBins(0);
+    public boolean computeOccurrenceValues(double[] occurrenceValues) {
+        // the class statistics are accumulated while the class image is displayed, no
+        // tiles are computed here. The statistics of the finest level which has been
+        // computed completely are used, the full resolution level is used otherwise
+        final MultiLevelImage image = classImage;
+        final int levelCount = image.getModel().getLevelCount();
+        ClassStatistics statistics = getStatistics(image, 0);
+        for (int level = 1; level < levelCount && !statistics.isComplete(); ++level) {
+            final ClassStatistics levelStatistics = getStatistics(image, level);
+            if (levelStatistics.isComplete()) {
+                statistics = levelStatistics;
+            }
+        }
+        final long[] counts = statistics.getCounts();
 
+        long totalCount = 0;
+        for (final long count : counts) {
+            totalCount += count;
+        }
         for (int k = 0; k < clusters.length; ++k) {
-            occurrenceValues[k] = (4.0 * histogramCounts[k]) / totalCounts;
+            occurrenceValues[k] = totalCount > 0 ? (double) counts[k] / totalCount : 0.0;
         }
+
+        return getStatistics(image, 0).isComplete();
     }
 
     int getClassIndex(int x, int y, int currentLevel) {
@@ -305,6 +336,13 @@ class ScreeningContext implements LabelingContext {
         return raster.getSample(x1, y1, 0);
     }
 
+    synchronized void dispose() {
+        if (posteriorCube != null) {
+            posteriorCube.dispose();
+            posteriorCube = null;
+        }
+    }
+
     Product getRadianceProduct() {
         return radianceProduct;
     }
@@ -317,6 +355,54 @@ class ScreeningContext implements LabelingContext {
         return classView;
     }
 
+    private synchronized void setProducer(boolean[] ignoreFlags) {
+        producer = PosteriorTileProducer.create(featureProduct, featureBandNames, clusters,
+                                                new ExclusiveIndexFilter(ignoreFlags));
+        producerIgnoreFlags = ignoreFlags.clone();
+        classImage = ClassOpImage.createMultiLevelImage(producer);
+    }
+
+    private synchronized PosteriorTileProducer getProducer(boolean[] ignoreFlags) {
+        if (Arrays.equals(ignoreFlags, producerIgnoreFlags)) {
+            return producer;
+        }
+        return PosteriorTileProducer.create(featureProduct, featureBandNames, clusters,
+                                            new ExclusiveIndexFilter(ignoreFlags));
+    }
+
+    /**
+     * Returns the posterior cube, which is used for extracting endmembers
+     * only and therefore computed when requested for the first time.
+     *
+     * @param pm the progress monitor.
+     *
+     * @return the posterior cube.
+     *
+     * @throws OperatorException if the posterior cube could not be created.
+     */
+    private synchronized PosteriorCube getPosteriorCube(ProgressMonitor pm) throws OperatorException {
+        if (posteriorCube == null) {
+            final Band[] featureBands = new Band[featureBandNames.length];
+            for (int i = 0; i < featureBandNames.length; i++) {
+                featureBands[i] = featureProduct.getBand(featureBandNames[i]);
+            }
+            try {
+                posteriorCube = PosteriorCube.create(featureBands, GaussianCalculator.create(clusters),
+                                                     posteriorCubeStorage, pm);
+            } catch (IOException e) {
+                throw new OperatorException("Cannot allocate the storage of the posterior cube.", e);
+            }
+        } else {
+            pm.done();
+        }
+
+        return posteriorCube;
+    }
+
+    private static ClassStatistics getStatistics(MultiLevelImage classImage, int level) {
+        return ((ClassOpImage) classImage.getImage(level)).getStatistics();
+    }
+
     private Band getClassBand() {
         return classProduct.getBand("class_indices");
     }
@@ -332,99 +418,164 @@ class ScreeningContext implements LabelingContext {
     }
 
     private static ProductSceneView createClassView(Product classProduct,
-                                                    Raster rgb,
+                                                    ImageLayer rgbLayer,
                                                     PropertyMap configuration,
                                                     ProgressMonitor pm) throws Exception {
         final Band classBand = classProduct.getBand("class_indices");
         final SampleCoding sampleCoding = classBand.getIndexCoding();
         final int classCount = sampleCoding.getSampleCount();
 
-        try {
-            pm.beginTask("Creating class view...", classCount);
+        // the class colors are derived from a coarse level of the image pyramids, the
+        // class image and the RGB image are taken from the same level
+        final MultiLevelImage multiLevelClassImage = classBand.getSourceImage();
+        final int level = findPreviewLevel(multiLevelClassImage);
+        final Color[] colors = computeClassColors(multiLevelClassImage.getImage(level), rgbLayer.getImage(level),
+                                                  classCount, pm);
 
-            final RenderedImage classImage = classBand.getSourceImage();
-            final Raster classImageData = classImage.getData();
+        // set image info according to median RGB image colors
+        final ColorPaletteDef.Point[] points = new ColorPaletteDef.Point[classCount];
+        for (int i = 0; i < points.length; ++i) {
+            final int value = sampleCoding.getSampleValue(i);
+            final String label = sampleCoding.getSampleName(i);
 
-            final int[] r = new int[classCount];
-            final int[] g = new int[classCount];
-            final int[] b = new int[classCount];
+            points[i] = new ColorPaletteDef.Point(value, colors[i], label);
+        }
+        classBand.setImageInfo(new ImageInfo(new ColorPaletteDef(points)));
 
-            // class index color = median RGB image color
-            for (int k = 0; k < classCount; ++k) {
-                final ArrayList<Integer> rList = new ArrayList<Integer>(100000);
-                final ArrayList<Integer> gList = new ArrayList<Integer>(100000);
-                final ArrayList<Integer> bList = new ArrayList<Integer>(100000);
-
-                for (int y = 0; y < classImage.getHeight(); ++y) {
-                    for (int x = 0; x < classImage.getWidth(); ++x) {
-                        final int classIndex = classImageData.getSample(x, y, 0);
-                        if (classIndex == k) {
-                            rList.add(rgb.getSample(x, y, 0));
-                            gList.add(rgb.getSample(x, y, 1));
-                            bList.add(rgb.getSample(x, y, 2));
-                        }
-                    }
-                }
+        return new ProductSceneView(new ProductSceneImage(classBand, configuration, ProgressMonitor.NULL));
+    }
 
-                Collections.sort(rList);
-                Collections.sort(gList);
-                Collections.sort(bList);
+    /**
+     * Returns the finest level of a multi-level image which does not have
+     * more than {@link #PREVIEW_PIXEL_COUNT} pixels.
+     *
+     * @param image the multi-level image.
+     *
+     * @return the preview level.
+     */
+    static int findPreviewLevel(MultiLevelImage image) {
+        final int levelCount = image.getModel().getLevelCount();
+
+        int level = 0;
+        while (level + 1 < levelCount && getPixelCount(image.getImage(level)) > PREVIEW_PIXEL_COUNT) {
+            ++level;
+        }
 
-                if (rList.size() > 0) {
-                    r[k] = rList.get(rList.size() / 2);
-                    g[k] = gList.get(gList.size() / 2);
-                    b[k] = bList.get(bList.size() / 2);
-                } else {
-                    r[k] = 0;
-                    g[k] = 0;
-                    b[k] = 0;
+        return level;
+    }
+
+    private static long getPixelCount(RenderedImage image) {
+        return (long) image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * Computes the color of each class, which is the median color of the
+     * pixels of the class in an RGB image.
+     *
+     * @param classImage the class image.
+     * @param rgbImage   the RGB image.
+     * @param classCount the number of classes.
+     * @param pm         the progress monitor.
+     *
+     * @return the class colors.
+     *
+     * @throws IllegalArgumentException if the class image and the RGB image
+     *                                  differ in size.
+     */
+    static Color[] computeClassColors(RenderedImage classImage, RenderedImage rgbImage, int classCount,
+                                      ProgressMonitor pm) {
+        final int w = classImage.getWidth();
+        final int h = classImage.getHeight();
+        if (w != rgbImage.getWidth() || h != rgbImage.getHeight()) {
+            throw new IllegalArgumentException(MessageFormat.format(
+                    "The class image ({0} x {1}) and the RGB image ({2} x {3}) differ in size.",
+                    w, h, rgbImage.getWidth(), rgbImage.getHeight()));
+        }
+
+        try {
+            pm.beginTask("Creating class view...", h);
+
+            final Raster classImageData = classImage.getData();
+            final Raster rgb = rgbImage.getData();
+
+            // per-class histograms of the RGB image colors, built in a single pass
+            final int[][] rHistograms = new int[classCount][256];
+            final int[][] gHistograms = new int[classCount][256];
+            final int[][] bHistograms = new int[classCount][256];
+            final int[] counts = new int[classCount];
+
+            final int[] classIndexes = new int[w];
+            final int[] rSamples = new int[w];
+            final int[] gSamples = new int[w];
+            final int[] bSamples = new int[w];
+
+            for (int y = 0; y < h; ++y) {
+                classImageData.getSamples(classImageData.getMinX(), classImageData.getMinY() + y, w, 1, 0,
+                                          classIndexes);
+                rgb.getSamples(rgb.getMinX(), rgb.getMinY() + y, w, 1, 0, rSamples);
+                rgb.getSamples(rgb.getMinX(), rgb.getMinY() + y, w, 1, 1, gSamples);
+                rgb.getSamples(rgb.getMinX(), rgb.getMinY() + y, w, 1, 2, bSamples);
+
+                for (int x = 0; x < w; ++x) {
+                    final int k = classIndexes[x];
+                    if (k >= 0 && k < classCount) {
+                        rHistograms[k][rSamples[x]]++;
+                        gHistograms[k][gSamples[x]]++;
+                        bHistograms[k][bSamples[x]]++;
+                        counts[k]++;
+                    }
                 }
                 pm.worked(1);
             }
 
-            // set image info according to median RGB image colors
-            final ColorPaletteDef.Point[] points = new ColorPaletteDef.Point[classCount];
-            for (int i = 0; i < points.length; ++i) {
-                final int value = sampleCoding.getSampleValue(i);
-                final Color color = new Color(r[i], g[i], b[i]);
-                final String label = sampleCoding.getSampleName(i);
-
-                points[i] = new ColorPaletteDef.Point(value, color, label);
+            // class color = median RGB image color
+            final Color[] colors = new Color[classCount];
+            for (int k = 0; k < classCount; ++k) {
+                if (counts[k] > 0) {
+                    colors[k] = new Color(median(rHistograms[k], counts[k]),
+                                          median(gHistograms[k], counts[k]),
+                                          median(bHistograms[k], counts[k]));
+                } else {
+                    colors[k] = Color.BLACK;
+                }
             }
-            classBand.setImageInfo(new ImageInfo(new ColorPaletteDef(points)));
-            return new ProductSceneView(new ProductSceneImage(classBand, configuration, ProgressMonitor.NULL));
+
+            return colors;
         } finally {
             pm.done();
         }
     }
 
-    private static RenderedImage createCloudAbundanceImage(Product reflectanceProduct,
-                                                           String[] reflectanceBandNames,
-                                                           Endmember[] endmembers) {
-        final Map<String, Object> parameterMap = new HashMap<String, Object>(3);
-        parameterMap.put("sourceBandNames", reflectanceBandNames);
-        parameterMap.put("endmembers", endmembers);
-        parameterMap.put("unmixingModelName", "Fully Constrained LSU");
-
-        final RenderingHints renderingHints = new RenderingHints(JAI.KEY_TILE_CACHE, null);
-        final Dimension tileSize = new Dimension(CloudProbabilityOpImage.TILE_W, CloudProbabilityOpImage.TILE_H);
-        renderingHints.put(GPF.KEY_TILE_SIZE, tileSize);
-
-        final Product product = GPF.createProduct(OperatorSpi.getOperatorAlias(SpectralUnmixingOp.class),
-                                                  parameterMap,
-                                                  reflectanceProduct,
-                                                  renderingHints);
+    /**
+     * Returns the median of the values in a histogram of integral values
+     * in the interval [0, 255], i.e. the value at position {@code count / 2}
+     * of the sorted values.
+     *
+     * @param histogram the histogram.
+     * @param count     the number of values in the histogram.
+     *
+     * @return the median value.
+     */
+    private static int median(int[] histogram, int count) {
+        final int position = count / 2;
+
+        int sum = 0;
+        for (int i = 0; i < histogram.length; ++i) {
+            sum += histogram[i];
+            if (sum > position) {
+                return i;
+            }
+        }
 
-        return product.getBand("cloud_abundance").getSourceImage();
+        return histogram.length - 1;
     }
 
-    private static Band createSyntheticBand(String name, RenderedImage sourceImage, ProgressMonitor pm) {
+    private static Band createSyntheticBand(String name, RenderedImage sourceImage) {
         final int dataType = ImageManager.getProductDataType(sourceImage.getSampleModel().getDataType());
         final Band band = new Band(name, dataType, sourceImage.getWidth(), sourceImage.getHeight());
 
-        band.setRasterData(RasterDataUtils.createRasterData(sourceImage, pm));
+        band.setSourceImage(sourceImage);
         band.setSynthetic(true);
-        band.getSourceImage();
 
         return band;
     }
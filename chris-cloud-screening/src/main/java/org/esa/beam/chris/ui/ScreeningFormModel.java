@@ -16,6 +16,7 @@
 package org.esa.beam.chris.ui;
 
 import com.bc.ceres.binding.PropertyContainer;
+import org.esa.beam.chris.operators.internal.Clusterer;
 import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.ParameterDescriptorFactory;
@@ -94,6 +95,14 @@ class ScreeningFormModel {
         return parameterBlock.seed;
     }
 
+    final Clusterer.Seeding getSeeding() {
+        return Clusterer.Seeding.valueOf(parameterBlock.seeding);
+    }
+
+    final boolean getFullCovariances() {
+        return parameterBlock.fullCovariances;
+    }
+
     String[] getFeatureBandNames() {
         final List<String> nameList = new ArrayList<String>(6);
 
@@ -133,6 +142,15 @@ class ScreeningFormModel {
                    defaultValue = "31415",
                    description = "The seed used for initializing the EM clustering algorithm.")
         private int seed = 31415;
+        @Parameter(label = "Seeding",
+                   defaultValue = "RANDOM",
+                   valueSet = {"RANDOM", "KMEANS_PLUS_PLUS", "FARTHEST_POINT"},
+                   description = "The strategy used for choosing the initial cluster means.")
+        private String seeding = "RANDOM";
+        @Parameter(label = "Full covariances",
+                   defaultValue = "false",
+                   description = "If true, the full covariance matrices of the clusters are estimated.")
+        private boolean fullCovariances = false;
 
         @Parameter(label = "Use NIR brightness", defaultValue = "true")
         private boolean useNirBr = true;
@@ -63,6 +63,84 @@ public class ClassOpImageTest extends TestCase {
         assertEquals(1, data.getSample(1, 1, 0));
     }
 
+    public void testStatistics() {
+        final Product product = createTestProduct();
+        final Distribution[] distributions = new Distribution[4];
+
+        distributions[0] = new StandardMultinormalDistribution(new double[]{10.0, 10.0, 10.0, 10.0});
+        distributions[1] = new StandardMultinormalDistribution(new double[]{20.0, 20.0, 20.0, 20.0});
+        distributions[2] = new StandardMultinormalDistribution(new double[]{30.0, 30.0, 30.0, 30.0});
+        distributions[3] = new StandardMultinormalDistribution(new double[]{40.0, 40.0, 40.0, 40.0});
+
+        final double[] priors = {1.0, 1.0, 1.0, 1.0};
+        final ProbabilityCalculator calculator = new ProbabilityCalculator(distributions, priors);
+
+        final ClassOpImage image = ClassOpImage.createImage(product.getBands(), calculator, NO_FILTERING, 4);
+        final ClassStatistics statistics = image.getStatistics();
+        assertFalse(statistics.isComplete());
+
+        statistics.complete(image);
+        assertTrue(statistics.isComplete());
+
+        // computing the tiles again must not change the statistics
+        image.getData();
+        final long[] counts = statistics.getCounts();
+        for (int k = 0; k < 4; ++k) {
+            assertEquals(1, counts[k]);
+        }
+
+        final double[] means = statistics.getFeatureMeans(3);
+        assertEquals(40.1, means[0], 1.0E-6);
+        assertEquals(40.4, means[3], 1.0E-6);
+    }
+
+    public void testStatisticsAfterFailure() {
+        final Product product = createTestProduct();
+        final Distribution[] distributions = new Distribution[4];
+
+        distributions[0] = new StandardMultinormalDistribution(new double[]{10.0, 10.0, 10.0, 10.0});
+        distributions[1] = new StandardMultinormalDistribution(new double[]{20.0, 20.0, 20.0, 20.0});
+        distributions[2] = new StandardMultinormalDistribution(new double[]{30.0, 30.0, 30.0, 30.0});
+        distributions[3] = new StandardMultinormalDistribution(new double[]{40.0, 40.0, 40.0, 40.0});
+
+        final double[] priors = {1.0, 1.0, 1.0, 1.0};
+        final ProbabilityCalculator calculator = new ProbabilityCalculator(distributions, priors);
+        final boolean[] failing = {true};
+
+        final ClassOpImage image = ClassOpImage.createImage(product.getBands(), new PosteriorCalculator() {
+            @Override
+            public int getClusterCount() {
+                return 4;
+            }
+
+            @Override
+            public void calculate(double[] features, double[] posteriors, IndexFilter filter) {
+                if (failing[0]) {
+                    throw new IllegalStateException("failing");
+                }
+                calculator.calculate(features, posteriors, filter);
+            }
+        }, NO_FILTERING, 4);
+        final ClassStatistics statistics = image.getStatistics();
+
+        try {
+            image.getData();
+            fail();
+        } catch (RuntimeException expected) {
+        }
+        assertFalse(statistics.isComplete());
+
+        // the tile claimed by the failed computation must be counted when computed again
+        failing[0] = false;
+        statistics.complete(image);
+        assertTrue(statistics.isComplete());
+
+        final long[] counts = statistics.getCounts();
+        for (int k = 0; k < 4; ++k) {
+            assertEquals(1, counts[k]);
+        }
+    }
+
     private static Product createTestProduct() {
         final Product product = new Product("Features", "Features", 2, 2);
 
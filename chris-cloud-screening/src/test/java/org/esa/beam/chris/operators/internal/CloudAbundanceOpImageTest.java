@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.unmixing.Endmember;
+
+import java.awt.image.Raster;
+
+/**
+ * Tests for class {@link CloudAbundanceOpImage}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class CloudAbundanceOpImageTest extends TestCase {
+
+    private static final double[] WAVELENGTHS = {450.0, 550.0, 650.0, 750.0};
+
+    private static final double[] CLOUD = {0.8, 0.9, 0.9, 0.8};
+    private static final double[] SOIL = {0.1, 0.2, 0.3, 0.4};
+    private static final double[] WATER = {0.4, 0.3, 0.2, 0.1};
+
+    public void testComputation() {
+        // the reflectances are mixtures of the endmembers with abundances
+        //   (0.5, 0.3, 0.2), (1.0, 0.0, 0.0), (0.2, 0.4, 0.4)
+        //   (-0.2, 0.6, 0.6), (0.4, 0.8, -0.2), (0.5, 0.3, 0.2)
+        final Product product = new Product("Reflectances", "Reflectances", 3, 2);
+        final Band[] reflectanceBands = new Band[4];
+        reflectanceBands[0] = addReflectanceBand(product, "toa_refl_1", new short[]{510, 800, 360, 140, 320, 510});
+        reflectanceBands[1] = addReflectanceBand(product, "toa_refl_2", new short[]{570, 900, 380, 120, 460, 570});
+        reflectanceBands[2] = addReflectanceBand(product, "toa_refl_3", new short[]{580, 900, 380, 120, 560, 580});
+        reflectanceBands[3] = addReflectanceBand(product, "toa_refl_4", new short[]{540, 800, 360, 140, 620, 540});
+
+        final Band probabilityBand = product.addBand("cloud_probability", ProductData.TYPE_FLOAT32);
+        probabilityBand.setSynthetic(true);
+        probabilityBand.setRasterData(ProductData.createInstance(new float[]{1.0f, 1.0f, 0.5f, 1.0f, 1.0f, 0.0f}));
+
+        final Endmember[] endmembers = {
+                new Endmember("cloud", WAVELENGTHS, CLOUD),
+                new Endmember("soil", WAVELENGTHS, SOIL),
+                new Endmember("water", WAVELENGTHS, WATER)
+        };
+
+        final CloudAbundanceOpImage image =
+                CloudAbundanceOpImage.createImage(probabilityBand.getSourceImage(), reflectanceBands, endmembers);
+        final Raster data = image.getData();
+
+        assertEquals(0.5, data.getSampleDouble(0, 0, 0), 1.0E-5);
+        assertEquals(1.0, data.getSampleDouble(1, 0, 0), 1.0E-5);
+        // the cloud abundance is multiplied with the cloud probability
+        assertEquals(0.1, data.getSampleDouble(2, 0, 0), 1.0E-5);
+        // the cloud endmember has a negative abundance
+        assertEquals(0.0, data.getSampleDouble(0, 1, 0), 0.0);
+        // the water endmember has a negative abundance and is removed, the cloud
+        // abundance is the sum-to-one constrained least squares solution for the
+        // remaining endmembers
+        assertEquals(0.29 / 0.75, data.getSampleDouble(1, 1, 0), 1.0E-5);
+        // the cloud probability is zero
+        assertEquals(0.0, data.getSampleDouble(2, 1, 0), 0.0);
+    }
+
+    private static Band addReflectanceBand(Product product, String name, short[] samples) {
+        final Band band = product.addBand(name, ProductData.TYPE_INT16);
+        band.setScalingFactor(1.0 / 1000.0);
+
+        band.setSynthetic(true);
+        band.setRasterData(ProductData.createInstance(samples));
+
+        return band;
+    }
+}
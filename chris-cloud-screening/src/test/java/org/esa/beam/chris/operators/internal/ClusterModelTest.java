@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import junit.framework.TestCase;
+import org.esa.beam.cluster.EMCluster;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for class {@link ClusterModel}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class ClusterModelTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("chris-cluster", ".model");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testWriteAndRead() throws IOException {
+        final String[] featureBandNames = {"brightness_vis", "whiteness_vis"};
+        final EMCluster[] clusters = {
+                new EMCluster(new double[]{0.1, 0.2}, new double[][]{{1.0, 0.5}, {0.5, 4.0}}, 0.25),
+                new EMCluster(new double[]{0.8, 0.05}, new double[][]{{2.0, 0.0}, {0.0, 1.0}}, 0.75),
+        };
+        final String[] labels = {"surface", "cloud"};
+        final boolean[] cloudFlags = {false, true};
+        final boolean[] invalidFlags = {true, false};
+
+        new ClusterModel(featureBandNames, clusters, labels, cloudFlags, invalidFlags).write(file);
+        final ClusterModel model = ClusterModel.read(file);
+
+        assertEquals(2, model.getFeatureBandNames().length);
+        assertEquals("brightness_vis", model.getFeatureBandNames()[0]);
+        assertEquals("whiteness_vis", model.getFeatureBandNames()[1]);
+        assertEquals("surface", model.getLabels()[0]);
+        assertEquals("cloud", model.getLabels()[1]);
+        assertFalse(model.getCloudFlags()[0]);
+        assertTrue(model.getCloudFlags()[1]);
+        assertTrue(model.getInvalidFlags()[0]);
+        assertFalse(model.getInvalidFlags()[1]);
+
+        final EMCluster[] actual = model.getClusters();
+        assertEquals(2, actual.length);
+        for (int k = 0; k < clusters.length; ++k) {
+            assertEquals(clusters[k].getPriorProbability(), actual[k].getPriorProbability(), 0.0);
+            for (int i = 0; i < 2; ++i) {
+                assertEquals(clusters[k].getMean()[i], actual[k].getMean()[i], 0.0);
+                for (int j = 0; j < 2; ++j) {
+                    assertEquals(clusters[k].getCovariances()[i][j], actual[k].getCovariances()[i][j], 0.0);
+                }
+            }
+        }
+    }
+
+    public void testReadOtherFile() throws IOException {
+        final FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(new byte[]{0, 5, 'H', 'E', 'L', 'L', 'O'});
+        } finally {
+            fos.close();
+        }
+
+        try {
+            ClusterModel.read(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testLabelCountMismatch() {
+        final EMCluster[] clusters = {
+                new EMCluster(new double[]{0.1}, new double[][]{{1.0}}, 1.0),
+        };
+
+        try {
+            new ClusterModel(new String[]{"brightness_vis"}, clusters, new String[0], new boolean[1], new boolean[1]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
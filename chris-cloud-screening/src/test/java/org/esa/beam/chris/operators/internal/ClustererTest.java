@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import junit.framework.TestCase;
+import org.esa.beam.cluster.EMCluster;
+
+import java.util.Random;
+
+/**
+ * Tests for class {@link Clusterer}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class ClustererTest extends TestCase {
+
+    private static final double TOLERANCE = 1.0E-4;
+    private static final int MAX_ITERATION_COUNT = 100;
+
+    private PixelAccessor pixelAccessor;
+
+    @Override
+    protected void setUp() throws Exception {
+        // 10000 pixels scattered around three centers
+        final Random random = new Random(5);
+        final double[][] values = new double[10000][2];
+        for (int i = 0; i < values.length; ++i) {
+            final int c = i % 3;
+            values[i][0] = 5.0 * c + 0.5 * random.nextGaussian();
+            values[i][1] = 2.0 * c + 0.5 * random.nextGaussian();
+        }
+        pixelAccessor = new PixelAccessor() {
+            @Override
+            public double[] addSamples(int i, double[] samples) {
+                samples[0] += values[i][0];
+                samples[1] += values[i][1];
+                return samples;
+            }
+
+            @Override
+            public double[] getSamples(int i, double[] samples) {
+                samples[0] = values[i][0];
+                samples[1] = values[i][1];
+                return samples;
+            }
+
+            @Override
+            public int getPixelCount() {
+                return values.length;
+            }
+
+            @Override
+            public int getSampleCount() {
+                return 2;
+            }
+        };
+    }
+
+    public void testParameterChange() {
+        final Clusterer clusterer = new Clusterer(pixelAccessor, 3, 1);
+        assertEquals(Double.POSITIVE_INFINITY, clusterer.getParameterChange(), 0.0);
+
+        clusterer.iterate();
+        assertTrue(clusterer.getParameterChange() > TOLERANCE);
+    }
+
+    public void testWarmStartConvergesInFewerIterations() {
+        final Clusterer coldClusterer = new Clusterer(pixelAccessor, 3, 1);
+        final int coldIterationCount = iterateUntilConverged(coldClusterer);
+        assertTrue(coldIterationCount < MAX_ITERATION_COUNT);
+
+        final EMCluster[] clusters = coldClusterer.getClusters(null, new EMCluster[3]);
+        final Clusterer warmClusterer = new Clusterer(pixelAccessor, clusters);
+        final int warmIterationCount = iterateUntilConverged(warmClusterer);
+
+        assertTrue(warmIterationCount <= 2);
+        assertTrue(warmIterationCount < coldIterationCount);
+
+        // the warm-started clusters are in model order
+        final EMCluster[] warmClusters = warmClusterer.getClusters(null, new EMCluster[3]);
+        for (int k = 0; k < clusters.length; ++k) {
+            assertEquals(clusters[k].getMean(0), warmClusters[k].getMean(0), 1.0E-3);
+            assertEquals(clusters[k].getMean(1), warmClusters[k].getMean(1), 1.0E-3);
+        }
+    }
+
+    private static int iterateUntilConverged(Clusterer clusterer) {
+        int iterationCount = 0;
+        while (iterationCount < MAX_ITERATION_COUNT) {
+            clusterer.iterate();
+            ++iterationCount;
+            if (clusterer.getParameterChange() < TOLERANCE) {
+                break;
+            }
+        }
+        return iterationCount;
+    }
+}
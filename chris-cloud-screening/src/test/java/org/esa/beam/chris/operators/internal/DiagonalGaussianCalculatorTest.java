@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import junit.framework.TestCase;
+import org.esa.beam.cluster.EMCluster;
+import org.esa.beam.cluster.IndexFilter;
+
+/**
+ * Tests for class {@link DiagonalGaussianCalculator}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class DiagonalGaussianCalculatorTest extends TestCase {
+
+    private static final IndexFilter NO_FILTERING = new IndexFilter() {
+        @Override
+        public boolean accept(int index) {
+            return true;
+        }
+    };
+
+    public void testCalculate() {
+        final EMCluster[] clusters = {
+                new EMCluster(new double[]{0.0, 0.0}, new double[][]{{1.0, 0.0}, {0.0, 4.0}}, 0.25),
+                new EMCluster(new double[]{1.0, 2.0}, new double[][]{{2.0, 0.0}, {0.0, 1.0}}, 0.75),
+        };
+        final DiagonalGaussianCalculator calculator = DiagonalGaussianCalculator.create(clusters);
+
+        final double[] features = {0.5, 1.0};
+        final double[] posteriors = new double[2];
+        calculator.calculate(features, posteriors, NO_FILTERING);
+
+        final double p0 = 0.25 * density(features, clusters[0]);
+        final double p1 = 0.75 * density(features, clusters[1]);
+        assertEquals(p0 / (p0 + p1), posteriors[0], 1.0E-12);
+        assertEquals(p1 / (p0 + p1), posteriors[1], 1.0E-12);
+
+        final double[] unfiltered = new double[2];
+        calculator.calculate(features, unfiltered);
+        assertEquals(posteriors[0], unfiltered[0], 0.0);
+        assertEquals(posteriors[1], unfiltered[1], 0.0);
+    }
+
+    public void testCalculateWithFilter() {
+        final EMCluster[] clusters = {
+                new EMCluster(new double[]{0.0}, new double[][]{{1.0}}, 0.5),
+                new EMCluster(new double[]{1.0}, new double[][]{{1.0}}, 0.3),
+                new EMCluster(new double[]{2.0}, new double[][]{{1.0}}, 0.2),
+        };
+        final DiagonalGaussianCalculator calculator = DiagonalGaussianCalculator.create(clusters);
+        final double[] posteriors = new double[3];
+
+        calculator.calculate(new double[]{0.0}, posteriors, new ExclusiveIndexFilter(new boolean[]{true}));
+        assertEquals(0.0, posteriors[0], 0.0);
+        assertEquals(1.0, posteriors[1] + posteriors[2], 1.0E-12);
+
+        calculator.calculate(new double[]{0.0}, posteriors, new IndexFilter() {
+            @Override
+            public boolean accept(int index) {
+                return false;
+            }
+        });
+        assertEquals(0.0, posteriors[0], 0.0);
+        assertEquals(0.0, posteriors[1], 0.0);
+        assertEquals(0.0, posteriors[2], 0.0);
+    }
+
+    public void testCalculateFarFromAllClusters() {
+        final EMCluster[] clusters = {
+                new EMCluster(new double[]{0.0}, new double[][]{{1.0}}, 0.5),
+                new EMCluster(new double[]{1.0}, new double[][]{{1.0}}, 0.5),
+        };
+        final DiagonalGaussianCalculator calculator = DiagonalGaussianCalculator.create(clusters);
+        final double[] posteriors = new double[2];
+
+        // the densities underflow, but the posterior probabilities do not
+        calculator.calculate(new double[]{100.0}, posteriors, NO_FILTERING);
+        assertEquals(0.0, posteriors[0], 1.0E-12);
+        assertEquals(1.0, posteriors[1], 1.0E-12);
+    }
+
+    public void testSingularCovariancesAreRegularized() {
+        final DiagonalGaussianCalculator calculator = new DiagonalGaussianCalculator(2, 2);
+        calculator.setCluster(0, new double[]{0.0, 0.0}, new double[][]{{1.0, 0.0}, {0.0, 0.0}}, 0.5);
+        calculator.setCluster(1, new double[]{1.0, 1.0}, new double[][]{{1.0, 0.0}, {0.0, 1.0}}, 0.5);
+
+        final double[] posteriors = new double[2];
+        calculator.calculate(new double[]{0.0, 0.0}, posteriors);
+        assertEquals(1.0, posteriors[0], 1.0E-3);
+        assertEquals(0.0, posteriors[1], 1.0E-3);
+
+        calculator.calculate(new double[]{0.0, 0.5}, posteriors);
+        assertEquals(0.0, posteriors[0], 1.0E-12);
+        assertEquals(1.0, posteriors[1], 1.0E-12);
+    }
+
+    private static double density(double[] y, EMCluster cluster) {
+        final double[] mean = cluster.getMean();
+        final double[][] covariances = cluster.getCovariances();
+
+        double det = 1.0;
+        double sum = 0.0;
+        for (int i = 0; i < y.length; ++i) {
+            det *= covariances[i][i];
+            sum += (y[i] - mean[i]) * (y[i] - mean[i]) / covariances[i][i];
+        }
+
+        return Math.exp(-0.5 * sum) / Math.sqrt(Math.pow(2.0 * Math.PI, y.length) * det);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import junit.framework.TestCase;
+import org.esa.beam.cluster.EMCluster;
+
+/**
+ * Tests for class {@link FullGaussianCalculator}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class FullGaussianCalculatorTest extends TestCase {
+
+    public void testCalculate() {
+        final EMCluster[] clusters = {
+                new EMCluster(new double[]{0.0, 0.0}, new double[][]{{1.0, 0.8}, {0.8, 4.0}}, 0.25),
+                new EMCluster(new double[]{1.0, 2.0}, new double[][]{{2.0, -0.5}, {-0.5, 1.0}}, 0.75),
+        };
+        final GaussianCalculator calculator = GaussianCalculator.create(clusters);
+        assertTrue(calculator instanceof FullGaussianCalculator);
+
+        final double[] features = {0.5, 1.0};
+        final double[] posteriors = new double[2];
+        calculator.calculate(features, posteriors);
+
+        final double p0 = 0.25 * density(features, clusters[0]);
+        final double p1 = 0.75 * density(features, clusters[1]);
+        assertEquals(p0 / (p0 + p1), posteriors[0], 1.0E-12);
+        assertEquals(p1 / (p0 + p1), posteriors[1], 1.0E-12);
+
+        final double[] logDensities = new double[2];
+        calculator.calculateLogDensities(features, logDensities);
+        assertEquals(Math.log(p0), logDensities[0], 1.0E-12);
+        assertEquals(Math.log(p1), logDensities[1], 1.0E-12);
+    }
+
+    public void testDiagonalCovariances() {
+        final EMCluster[] clusters = {
+                new EMCluster(new double[]{0.0, 0.0}, new double[][]{{1.0, 0.0}, {0.0, 4.0}}, 0.25),
+                new EMCluster(new double[]{1.0, 2.0}, new double[][]{{2.0, 0.0}, {0.0, 1.0}}, 0.75),
+        };
+        assertTrue(GaussianCalculator.create(clusters) instanceof DiagonalGaussianCalculator);
+
+        final FullGaussianCalculator full = new FullGaussianCalculator(2, 2);
+        final DiagonalGaussianCalculator diagonal = DiagonalGaussianCalculator.create(clusters);
+        for (int k = 0; k < 2; ++k) {
+            full.setCluster(k, clusters[k].getMean(), clusters[k].getCovariances(),
+                            clusters[k].getPriorProbability());
+        }
+
+        final double[] features = {0.3, -1.0};
+        final double[] expected = new double[2];
+        final double[] actual = new double[2];
+        diagonal.calculateLogDensities(features, expected);
+        full.calculateLogDensities(features, actual);
+        assertEquals(expected[0], actual[0], 1.0E-12);
+        assertEquals(expected[1], actual[1], 1.0E-12);
+    }
+
+    public void testSingularCovariancesAreRegularized() {
+        final FullGaussianCalculator calculator = new FullGaussianCalculator(2, 2);
+        // perfectly correlated features
+        calculator.setCluster(0, new double[]{0.0, 0.0}, new double[][]{{1.0, 1.0}, {1.0, 1.0}}, 0.5);
+        // empty cluster
+        calculator.setCluster(1, new double[]{1.0, 1.0}, new double[][]{{Double.NaN, Double.NaN},
+                {Double.NaN, Double.NaN}}, 0.0);
+
+        final double[] posteriors = new double[2];
+        calculator.calculate(new double[]{0.5, 0.5}, posteriors);
+        assertEquals(1.0, posteriors[0], 1.0E-12);
+        assertEquals(0.0, posteriors[1], 1.0E-12);
+    }
+
+    private static double density(double[] y, EMCluster cluster) {
+        final double[] mean = cluster.getMean();
+        final double[][] c = cluster.getCovariances();
+
+        final double det = c[0][0] * c[1][1] - c[0][1] * c[1][0];
+        final double d0 = y[0] - mean[0];
+        final double d1 = y[1] - mean[1];
+        final double u = (c[1][1] * d0 * d0 - 2.0 * c[0][1] * d0 * d1 + c[0][0] * d1 * d1) / det;
+
+        return Math.exp(-0.5 * u) / (2.0 * Math.PI * Math.sqrt(det));
+    }
+}
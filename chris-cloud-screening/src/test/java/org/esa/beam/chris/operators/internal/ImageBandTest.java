@@ -15,6 +15,7 @@
  */
 package org.esa.beam.chris.operators.internal;
 
+import com.bc.ceres.core.ProgressMonitor;
 import junit.framework.TestCase;
 import org.esa.beam.framework.datamodel.ProductData;
 
@@ -49,20 +50,25 @@ public class ImageBandTest extends TestCase {
         imageBand.setSourceImage(image);
         // new image...
         assertSame(image, imageBand.getSourceImage().getImage(0));
-        // new data buffer
-        final ProductData data = imageBand.getData();
-        assertNotNull(data);
-        assertEquals(H * W, data.getNumElems());
-        assertEachElementEquals(1, data);
+        // ... but no raster data
+        assertFalse(imageBand.hasRasterData());
 
-        // 2. Set image again
+        // 2. Set image again after raster data have been loaded
+        imageBand.setRasterData(imageBand.createCompatibleRasterData());
         imageBand.setSourceImage(createTestImage(7, W, H));
         // different image...
         assertNotNull(imageBand.getSourceImage());
         assertNotSame(image, imageBand.getSourceImage());
-        // ... but same data buffer...
-        assertSame(data, imageBand.getData());
-        assertEquals(H * W, data.getNumElems());
+        // ... and stale raster data are released
+        assertFalse(imageBand.hasRasterData());
+    }
+
+    public void testReadRasterData() {
+        final ImageBand imageBand = new ImageBand("test", ProductData.TYPE_INT32, W, H);
+        imageBand.setSourceImage(createTestImage(7, W, H));
+
+        final ProductData data = ProductData.createInstance(ProductData.TYPE_INT32, 3 * 2);
+        imageBand.readRasterData(1, 2, 3, 2, data, ProgressMonitor.NULL);
         assertEachElementEquals(7, data);
     }
 
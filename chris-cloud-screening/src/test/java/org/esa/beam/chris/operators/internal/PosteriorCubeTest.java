@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import com.bc.ceres.core.ProgressMonitor;
+import junit.framework.TestCase;
+import org.esa.beam.cluster.EMCluster;
+import org.esa.beam.cluster.IndexFilter;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.io.IOException;
+
+/**
+ * Tests for class {@link PosteriorCube}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class PosteriorCubeTest extends TestCase {
+
+    private static final IndexFilter NO_FILTERING = new ExclusiveIndexFilter();
+
+    private Band[] featureBands;
+    private DiagonalGaussianCalculator calculator;
+
+    @Override
+    protected void setUp() throws Exception {
+        final Product product = new Product("Features", "Features", 2, 2);
+        featureBands = new Band[]{
+                addSourceBand(product, "feature_0", new short[]{101, 401, 301, 201}),
+                addSourceBand(product, "feature_1", new short[]{102, 402, 302, 202})
+        };
+        calculator = DiagonalGaussianCalculator.create(new EMCluster[]{
+                new EMCluster(new double[]{10.0, 10.0}, new double[][]{{100.0, 0.0}, {0.0, 100.0}}, 0.4),
+                new EMCluster(new double[]{20.0, 20.0}, new double[][]{{100.0, 0.0}, {0.0, 100.0}}, 0.3),
+                new EMCluster(new double[]{30.0, 30.0}, new double[][]{{100.0, 0.0}, {0.0, 100.0}}, 0.2),
+                new EMCluster(new double[]{40.0, 40.0}, new double[][]{{100.0, 0.0}, {0.0, 100.0}}, 0.1),
+        });
+    }
+
+    public void testPosteriors() throws IOException {
+        assertPosteriors(PosteriorCube.Storage.HEAP);
+        assertPosteriors(PosteriorCube.Storage.DIRECT);
+        assertPosteriors(PosteriorCube.Storage.MAPPED);
+    }
+
+    public void testPosteriorsWithFilter() throws IOException {
+        final PosteriorCube cube = PosteriorCube.create(featureBands, calculator, PosteriorCube.Storage.HEAP,
+                                                        ProgressMonitor.NULL);
+        final IndexFilter filter = new ExclusiveIndexFilter(new boolean[]{true, false, true});
+        final double[] expected = new double[4];
+        final double[] actual = new double[4];
+
+        for (int y = 0; y < 2; ++y) {
+            for (int x = 0; x < 2; ++x) {
+                calculator.calculate(getFeatures(x, y), expected, filter);
+                cube.getPosteriors(x, y, actual, filter);
+
+                assertEquals(0.0, actual[0], 0.0);
+                assertEquals(0.0, actual[2], 0.0);
+                for (int k = 0; k < 4; ++k) {
+                    assertEquals(expected[k], actual[k], 1.0E-3);
+                }
+            }
+        }
+        cube.dispose();
+    }
+
+    private void assertPosteriors(PosteriorCube.Storage storage) throws IOException {
+        final PosteriorCube cube = PosteriorCube.create(featureBands, calculator, storage, ProgressMonitor.NULL);
+        final double[] expected = new double[4];
+        final double[] actual = new double[4];
+
+        for (int y = 0; y < 2; ++y) {
+            for (int x = 0; x < 2; ++x) {
+                calculator.calculate(getFeatures(x, y), expected);
+                cube.getPosteriors(x, y, actual, NO_FILTERING);
+
+                for (int k = 0; k < 4; ++k) {
+                    assertEquals(expected[k], actual[k], 1.0E-3);
+                }
+            }
+        }
+        cube.dispose();
+    }
+
+    private double[] getFeatures(int x, int y) {
+        final double[] features = new double[featureBands.length];
+        for (int i = 0; i < features.length; ++i) {
+            features[i] = featureBands[i].getPixelDouble(x, y);
+        }
+        return features;
+    }
+
+    private static Band addSourceBand(Product product, String name, short[] samples) {
+        final Band band = product.addBand(name, ProductData.TYPE_INT16);
+        band.setScalingFactor(1.0 / 10.0);
+
+        band.setSynthetic(true);
+        band.setRasterData(ProductData.createInstance(samples));
+
+        return band;
+    }
+}
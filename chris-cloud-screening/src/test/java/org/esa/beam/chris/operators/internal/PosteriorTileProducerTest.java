@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import junit.framework.TestCase;
+import org.esa.beam.cluster.IndexFilter;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+
+/**
+ * Tests for class {@link PosteriorTileProducer}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class PosteriorTileProducerTest extends TestCase {
+
+    private static final IndexFilter NO_FILTERING = new IndexFilter() {
+        @Override
+        public boolean accept(int index) {
+            return true;
+        }
+    };
+
+    public void testViewsShareSingleEvaluation() {
+        final Product product = new Product("Features", "Features", 2, 2);
+        final Band band = product.addBand("feature", ProductData.TYPE_INT16);
+        band.setScalingFactor(1.0 / 10.0);
+        band.setSynthetic(true);
+        band.setRasterData(ProductData.createInstance(new short[]{1, 9, 4, 6}));
+
+        final CountingCalculator calculator = new CountingCalculator();
+        final PosteriorTileProducer producer =
+                PosteriorTileProducer.create(new Band[]{band}, calculator, NO_FILTERING, 2);
+
+        final Raster classData = ClassOpImage.createImage(producer).getData();
+        final IndexFilter cloudFilter = new InclusiveIndexFilter(new boolean[]{false, true});
+        final Raster probabilityData = CloudProbabilityOpImage.createImage(producer, cloudFilter, false,
+                                                                           DataBuffer.TYPE_FLOAT).getData();
+        final Raster maskData = CloudProbabilityOpImage.createImage(producer, cloudFilter, true,
+                                                                    DataBuffer.TYPE_BYTE).getData();
+
+        // each pixel is evaluated only once
+        assertEquals(4, calculator.count);
+
+        assertEquals(0, classData.getSample(0, 0, 0));
+        assertEquals(1, classData.getSample(1, 0, 0));
+        assertEquals(0, classData.getSample(0, 1, 0));
+        assertEquals(1, classData.getSample(1, 1, 0));
+
+        assertEquals(0.1, probabilityData.getSampleDouble(0, 0, 0), 1.0E-6);
+        assertEquals(0.9, probabilityData.getSampleDouble(1, 0, 0), 1.0E-6);
+        assertEquals(0.4, probabilityData.getSampleDouble(0, 1, 0), 1.0E-6);
+        assertEquals(0.6, probabilityData.getSampleDouble(1, 1, 0), 1.0E-6);
+
+        assertEquals(0, maskData.getSample(0, 0, 0));
+        assertEquals(1, maskData.getSample(1, 0, 0));
+        assertEquals(0, maskData.getSample(0, 1, 0));
+        assertEquals(1, maskData.getSample(1, 1, 0));
+    }
+
+    public void testGetTile() {
+        final Product product = new Product("Features", "Features", 40, 40);
+        final Band band = product.addBand("feature", ProductData.TYPE_INT16);
+        band.setSynthetic(true);
+        band.setRasterData(ProductData.createInstance(new short[40 * 40]));
+
+        final PosteriorTileProducer producer =
+                PosteriorTileProducer.create(new Band[]{band}, new CountingCalculator(), NO_FILTERING, 2);
+
+        final PosteriorTileProducer.PosteriorTile tile = producer.getTile(new Rectangle(32, 0, 8, 32));
+        assertSame(tile, producer.getTile(new Rectangle(35, 3, 2, 2)));
+        assertEquals(0, tile.getIndex(32, 0));
+        assertEquals(9, tile.getIndex(33, 1));
+
+        try {
+            producer.getTile(new Rectangle(30, 0, 4, 4));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Calculates a posterior probability of the second cluster equal to the
+     * feature value and counts the number of calculations.
+     */
+    private static class CountingCalculator implements PosteriorCalculator {
+
+        private int count;
+
+        @Override
+        public int getClusterCount() {
+            return 2;
+        }
+
+        @Override
+        public synchronized void calculate(double[] features, double[] posteriors, IndexFilter filter) {
+            posteriors[0] = 1.0 - features[0];
+            posteriors[1] = features[0];
+            count++;
+        }
+    }
+}
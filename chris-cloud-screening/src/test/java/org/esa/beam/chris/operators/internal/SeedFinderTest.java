@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators.internal;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for class {@link SeedFinder}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class SeedFinderTest extends TestCase {
+
+    private static final double[] CENTERS = {0.0, 10.0, 20.0, 30.0};
+
+    private PixelAccessor pixelAccessor;
+
+    @Override
+    protected void setUp() throws Exception {
+        // 40000 pixels, 97 percent of which belong to the first center
+        final double[] values = new double[40000];
+        for (int i = 0; i < values.length; ++i) {
+            final int c = i % 100 < 97 ? 0 : 1 + i % 3;
+            values[i] = CENTERS[c] + 0.001 * (i % 7);
+        }
+        pixelAccessor = new PixelAccessor() {
+            @Override
+            public double[] addSamples(int i, double[] samples) {
+                samples[0] += values[i];
+                return samples;
+            }
+
+            @Override
+            public double[] getSamples(int i, double[] samples) {
+                samples[0] = values[i];
+                return samples;
+            }
+
+            @Override
+            public int getPixelCount() {
+                return values.length;
+            }
+
+            @Override
+            public int getSampleCount() {
+                return 1;
+            }
+        };
+    }
+
+    public void testDistanceWeightedSeeds() {
+        final double[][] seeds = new double[4][1];
+        new SeedFinder(pixelAccessor, new Random(5)).findDistanceWeightedSeeds(seeds);
+        assertEachCenterSeeded(seeds);
+
+        final double[][] others = new double[4][1];
+        new SeedFinder(pixelAccessor, new Random(5)).findDistanceWeightedSeeds(others);
+        for (int k = 0; k < seeds.length; ++k) {
+            assertEquals(seeds[k][0], others[k][0], 0.0);
+        }
+    }
+
+    public void testFarthestPointSeeds() {
+        final double[][] seeds = new double[4][1];
+        new SeedFinder(pixelAccessor, new Random(5)).findFarthestPointSeeds(seeds);
+        assertEachCenterSeeded(seeds);
+
+        final double[][] others = new double[4][1];
+        new SeedFinder(pixelAccessor, new Random(5)).findFarthestPointSeeds(others);
+        for (int k = 0; k < seeds.length; ++k) {
+            assertEquals(seeds[k][0], others[k][0], 0.0);
+        }
+    }
+
+    private static void assertEachCenterSeeded(double[][] seeds) {
+        for (final double center : CENTERS) {
+            int count = 0;
+            for (final double[] seed : seeds) {
+                if (Math.abs(seed[0] - center) < 0.01) {
+                    ++count;
+                }
+            }
+            assertEquals(1, count);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.ui;
+
+import com.bc.ceres.core.ProgressMonitor;
+import com.bc.ceres.glevel.MultiLevelImage;
+import com.bc.ceres.glevel.MultiLevelModel;
+import com.bc.ceres.glevel.support.AbstractMultiLevelSource;
+import com.bc.ceres.glevel.support.DefaultMultiLevelImage;
+import com.bc.ceres.glevel.support.DefaultMultiLevelModel;
+import junit.framework.TestCase;
+
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+
+/**
+ * Tests for class {@link ScreeningContext}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class ScreeningContextTest extends TestCase {
+
+    public void testFindPreviewLevel() {
+        // one pixel corresponds to ten map units, the preview level must not depend on it
+        final AffineTransform i2m = AffineTransform.getScaleInstance(10.0, 10.0);
+        final MultiLevelImage image = createMultiLevelImage(new DefaultMultiLevelModel(5, i2m, 2048, 2048), 2048, 2048);
+
+        final int level = ScreeningContext.findPreviewLevel(image);
+        assertEquals(2, level);
+        assertEquals(512, image.getImage(level).getWidth());
+        assertEquals(512, image.getImage(level).getHeight());
+    }
+
+    public void testFindPreviewLevel_SmallImage() {
+        final MultiLevelModel model = new DefaultMultiLevelModel(3, new AffineTransform(), 300, 200);
+        final MultiLevelImage image = createMultiLevelImage(model, 300, 200);
+
+        assertEquals(0, ScreeningContext.findPreviewLevel(image));
+    }
+
+    public void testComputeClassColors() {
+        final BufferedImage classImage = new BufferedImage(3, 2, BufferedImage.TYPE_BYTE_GRAY);
+        classImage.getRaster().setPixels(0, 0, 3, 2, new int[]{0, 0, 0, 1, 1, 0});
+
+        final BufferedImage rgbImage = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+        rgbImage.setRGB(0, 0, new Color(10, 20, 30).getRGB());
+        rgbImage.setRGB(1, 0, new Color(40, 50, 60).getRGB());
+        rgbImage.setRGB(2, 0, new Color(70, 80, 90).getRGB());
+        rgbImage.setRGB(0, 1, new Color(200, 210, 220).getRGB());
+        rgbImage.setRGB(1, 1, new Color(200, 210, 220).getRGB());
+        rgbImage.setRGB(2, 1, new Color(100, 110, 120).getRGB());
+
+        final Color[] colors = ScreeningContext.computeClassColors(classImage, rgbImage, 3, ProgressMonitor.NULL);
+        assertEquals(3, colors.length);
+        // the median of 4 values is the value at position 2 of the sorted values
+        assertEquals(new Color(70, 80, 90), colors[0]);
+        assertEquals(new Color(200, 210, 220), colors[1]);
+        // class 2 does not occur
+        assertEquals(Color.BLACK, colors[2]);
+    }
+
+    public void testComputeClassColors_DifferentSizes() {
+        final BufferedImage classImage = new BufferedImage(3, 2, BufferedImage.TYPE_BYTE_GRAY);
+        final BufferedImage rgbImage = new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB);
+
+        try {
+            ScreeningContext.computeClassColors(classImage, rgbImage, 2, ProgressMonitor.NULL);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static MultiLevelImage createMultiLevelImage(MultiLevelModel model, final int width, final int height) {
+        return new DefaultMultiLevelImage(new AbstractMultiLevelSource(model) {
+            @Override
+            protected RenderedImage createImage(int level) {
+                final int w = (int) Math.ceil(width / (double) (1 << level));
+                final int h = (int) Math.ceil(height / (double) (1 << level));
+
+                return new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+            }
+        });
+    }
+}
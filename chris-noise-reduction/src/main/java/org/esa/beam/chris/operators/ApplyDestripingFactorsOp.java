@@ -18,6 +18,7 @@ package org.esa.beam.chris.operators;
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.beam.chris.util.OpUtils;
 import org.esa.beam.dataio.chris.ChrisConstants;
+import org.esa.beam.framework.dataio.ProductIO;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.FlagCoding;
 import org.esa.beam.framework.datamodel.Product;
@@ -26,11 +27,14 @@ import org.esa.beam.framework.gpf.OperatorException;
 import org.esa.beam.framework.gpf.OperatorSpi;
 import org.esa.beam.framework.gpf.Tile;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
 import org.esa.beam.util.ProductUtils;
 
 import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
 import java.text.MessageFormat;
 
 /**
@@ -50,22 +54,34 @@ public class ApplyDestripingFactorsOp extends Operator {
 
     @SourceProduct(alias = "input")
     Product sourceProduct;
-    @SourceProduct(alias = "factors")
+    @SourceProduct(alias = "factors", optional = true)
     Product factorProduct;
     @TargetProduct
     Product targetProduct;
 
+    @Parameter(description = "The directory of the destriping factors cache, which is consulted when no factor product is given.")
+    File cacheDirectory;
+
+    @Parameter(defaultValue = "" + ComputeDestripingFactorsOp.DEFAULT_SMOOTHING_ORDER, interval = "[11, 99]")
+    int smoothingOrder;
+
+    @Parameter(defaultValue = "" + ComputeDestripingFactorsOp.DEFAULT_SLIT_CORRECTION)
+    boolean slitCorrection;
+
+    // the factor product read from the cache
+    private transient Product cachedFactorProduct;
+
     @Override
     public void initialize() throws OperatorException {
-        assertValidity(sourceProduct);
+        NoiseReductionOpUtils.assertValidity(sourceProduct);
 
-        targetProduct = new Product(sourceProduct.getName() + "_NR", sourceProduct.getProductType() + "_NR",
-                                    sourceProduct.getSceneRasterWidth(),
-                                    sourceProduct.getSceneRasterHeight());
+        if (factorProduct == null) {
+            cachedFactorProduct = readCachedFactorProduct();
+            factorProduct = cachedFactorProduct;
+        }
 
-        targetProduct.setStartTime(sourceProduct.getStartTime());
-        targetProduct.setEndTime(sourceProduct.getEndTime());
-        ProductUtils.copyFlagCodings(sourceProduct, targetProduct);
+        targetProduct = NoiseReductionOpUtils.createTargetProduct(sourceProduct, sourceProduct.getName() + "_NR",
+                                                                  sourceProduct.getProductType() + "_NR");
 
         for (final Band sourceBand : sourceProduct.getBands()) {
             final Band targetBand = ProductUtils.copyBand(sourceBand.getName(), sourceProduct, targetProduct);
@@ -77,7 +93,6 @@ public class ApplyDestripingFactorsOp extends Operator {
         }
         ProductUtils.copyMasks(sourceProduct, targetProduct);
         targetProduct.setAutoGrouping(sourceProduct.getAutoGrouping());
-        ProductUtils.copyMetadata(sourceProduct.getMetadataRoot(), targetProduct.getMetadataRoot());
         OpUtils.setAnnotationString(targetProduct, ChrisConstants.ATTR_NAME_NOISE_REDUCTION,
                                     OpUtils.getAnnotationString(factorProduct,
                                                                 ChrisConstants.ATTR_NAME_NOISE_REDUCTION));
@@ -137,14 +152,46 @@ public class ApplyDestripingFactorsOp extends Operator {
         }
     }
 
-    private static void assertValidity(Product product) throws OperatorException {
-        try {
-            OpUtils.getAnnotationString(product, ChrisConstants.ATTR_NAME_CHRIS_MODE);
-        } catch (OperatorException e) {
+    @Override
+    public void dispose() {
+        if (cachedFactorProduct != null) {
+            cachedFactorProduct.dispose();
+            cachedFactorProduct = null;
+        }
+        super.dispose();
+    }
+
+    private Product readCachedFactorProduct() throws OperatorException {
+        final File sourceFile = sourceProduct.getFileLocation();
+        if (sourceFile == null) {
             throw new OperatorException(MessageFormat.format(
-                    "product ''{0}'' is not a CHRIS product", product.getName()), e);
+                    "No destriping factors given for product ''{0}'', which has no file location.",
+                    sourceProduct.getName()));
+        }
+        final DestripingFactorsCache cache;
+        if (cacheDirectory != null) {
+            cache = new DestripingFactorsCache(cacheDirectory);
+        } else {
+            cache = new DestripingFactorsCache(DestripingFactorsCache.getDefaultDirectory());
+        }
+        final String temperature = OpUtils.getAnnotationString(sourceProduct,
+                                                               ChrisConstants.ATTR_NAME_CHRIS_TEMPERATURE);
+        try {
+            final String checksum = DestripingFactorsCache.computeChecksum(sourceFile);
+            final File factorFile = cache.findByMember(checksum, smoothingOrder, slitCorrection, temperature);
+            if (factorFile == null) {
+                throw new OperatorException(MessageFormat.format(
+                        "No cached destriping factors found for product ''{0}''.", sourceProduct.getName()));
+            }
+            final Product factorProduct = ProductIO.readProduct(factorFile);
+            if (factorProduct == null) {
+                throw new OperatorException(MessageFormat.format(
+                        "Cannot read cached destriping factors file ''{0}''.", factorFile));
+            }
+            return factorProduct;
+        } catch (IOException e) {
+            throw new OperatorException(e);
         }
-        // todo - add further validation criteria
     }
 
     public static class Spi extends OperatorSpi {
@@ -21,7 +21,6 @@ import org.esa.beam.chris.util.OpUtils;
 import org.esa.beam.chris.util.math.internal.LocalRegressionSmoother;
 import org.esa.beam.chris.util.math.internal.LowessRegressionWeightCalculator;
 import org.esa.beam.dataio.chris.ChrisConstants;
-import org.esa.beam.dataio.chris.internal.Sorter;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.MetadataElement;
 import org.esa.beam.framework.datamodel.Product;
@@ -40,9 +39,18 @@ import javax.imageio.stream.ImageInputStream;
 import java.awt.Rectangle;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import static java.lang.Math.*;
 
@@ -67,15 +75,26 @@ public class ComputeDestripingFactorsOp extends Operator {
     private static final double S1 = -0.12107994955864;
     private static final double S2 = 0.65034734426230;
 
+    private static final int STRIP_HEIGHT = 16;
+
+    /**
+     * The default value of the smoothing order parameter.
+     */
+    public static final int DEFAULT_SMOOTHING_ORDER = 27;
+    /**
+     * The default value of the slit correction parameter.
+     */
+    public static final boolean DEFAULT_SLIT_CORRECTION = true;
+
     @SourceProducts
     Product[] sourceProducts;
     @TargetProduct
     Product targetProduct;
 
-    @Parameter(defaultValue = "27", interval = "[11, 99]")
+    @Parameter(defaultValue = "" + DEFAULT_SMOOTHING_ORDER, interval = "[11, 99]")
     int smoothingOrder;
 
-    @Parameter(defaultValue = "true")
+    @Parameter(defaultValue = "" + DEFAULT_SLIT_CORRECTION)
     boolean slitCorrection;
 
     private int spectralBandCount;
@@ -86,8 +105,14 @@ public class ComputeDestripingFactorsOp extends Operator {
     private transient Band[][] sourceMskBands;
     private transient Band[] targetBands;
     private transient Panorama panorama;
-    private boolean[][] edgeMask;
+    private BitSet edgeMask;
     private double[] slitNoiseFactors;
+    private double[][] logRatioSums;
+    private int[][] logRatioCounts;
+
+    private final Object preparationLock = new Object();
+    private transient FutureTask<List<Future<double[]>>> preparation;
+    private transient ExecutorService executorService;
 
 
     @Override
@@ -167,18 +192,17 @@ public class ComputeDestripingFactorsOp extends Operator {
 
     @Override
     public void computeTile(Band band, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        pm.beginTask("Computing correction factors...", 100);
         try {
-            synchronized (this) {
-                if (edgeMask == null) {
-                    pm.beginTask("Computing correction factors...", 100);
-                    edgeMask = createEdgeMask(SubProgressMonitor.create(pm, 90));
-                } else {
-                    pm.beginTask("Computing correction factors...", 10);
-                }
-            }
+            final List<Future<double[]>> factorList = getCorrectionFactors(SubProgressMonitor.create(pm, 90));
+
             for (int i = 0; i < targetBands.length; ++i) {
                 if (targetBands[i].equals(band)) {
-                    computeCorrectionFactors(i, targetTile, SubProgressMonitor.create(pm, 10));
+                    final double[] factors = getResult(factorList.get(i));
+                    for (int x = targetTile.getMinX(); x < targetTile.getMinX() + targetTile.getWidth(); ++x) {
+                        targetTile.setSample(x, 0, factors[x]);
+                    }
+                    pm.worked(10);
                     return;
                 }
             }
@@ -189,6 +213,11 @@ public class ComputeDestripingFactorsOp extends Operator {
 
     @Override
     public void dispose() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+        preparation = null;
         sourceRciBands = null;
         sourceMskBands = null;
         targetBands = null;
@@ -196,86 +225,207 @@ public class ComputeDestripingFactorsOp extends Operator {
         smoother = null;
         edgeMask = null;
         slitNoiseFactors = null;
+        logRatioSums = null;
+        logRatioCounts = null;
     }
 
     /**
-     * Computes the vertical striping correction factors for a single target band.
+     * Returns the futures of the correction factors of all spectral bands.
+     * <p/>
+     * The edge mask and the logarithmic radiance ratios are computed only
+     * once, by the thread calling this method first. Concurrent callers wait
+     * for this computation without holding the operator monitor. Then the
+     * correction factors of all bands are computed concurrently.
+     *
+     * @param pm the {@link ProgressMonitor}.
      *
-     * @param bandIndex  the band index.
-     * @param targetTile the target raster.
-     * @param pm         the {@link ProgressMonitor}.
+     * @return the futures of the correction factors.
      *
      * @throws OperatorException if an error occurred.
      */
-    private void computeCorrectionFactors(int bandIndex, Tile targetTile, ProgressMonitor pm)
-            throws OperatorException {
-        pm.beginTask("Computing correction factors...", panorama.height + 5);
+    private List<Future<double[]>> getCorrectionFactors(final ProgressMonitor pm) throws OperatorException {
+        final FutureTask<List<Future<double[]>>> task;
+        boolean evaluating = false;
+
+        synchronized (preparationLock) {
+            if (preparation == null) {
+                preparation = new FutureTask<List<Future<double[]>>>(new Callable<List<Future<double[]>>>() {
+                    @Override
+                    public List<Future<double[]>> call() throws OperatorException {
+                        return prepare(pm);
+                    }
+                });
+                evaluating = true;
+            }
+            task = preparation;
+        }
+        if (evaluating) {
+            task.run();
+        } else {
+            pm.done();
+        }
+
+        return getResult(task);
+    }
+
+    private List<Future<double[]>> prepare(ProgressMonitor pm) throws OperatorException {
+        pm.beginTask("Preparing correction factor computation...", 90);
         try {
-            // 1. Accumulate the across-track spatial derivative profile
-            final double[] p = new double[panorama.width];
-            final int[] count = new int[panorama.width];
+            edgeMask = createEdgeMask(SubProgressMonitor.create(pm, 60));
+            accumulateLogRatios(SubProgressMonitor.create(pm, 30));
+            // the edge mask is not needed anymore
+            edgeMask = null;
+        } finally {
+            pm.done();
+        }
 
-            for (int j = 0; j < sourceProducts.length; ++j) {
-                final Tile rci = getSceneTile(sourceRciBands[bandIndex][j]);
-                final Tile mask = getSceneTile(sourceMskBands[bandIndex][j]);
+        final int threadCount = min(spectralBandCount, Runtime.getRuntime().availableProcessors());
+        executorService = Executors.newFixedThreadPool(threadCount);
 
-                for (int y = 0; y < rci.getHeight(); ++y) {
-                    checkForCancellation();
-                    double r1 = getDouble(rci, 0, y);
+        final List<Future<double[]>> factorList = new ArrayList<Future<double[]>>(spectralBandCount);
+        for (int i = 0; i < spectralBandCount; ++i) {
+            final int bandIndex = i;
+            factorList.add(executorService.submit(new Callable<double[]>() {
+                @Override
+                public double[] call() {
+                    return computeCorrectionFactors(bandIndex);
+                }
+            }));
+        }
+        // the pool threads terminate when all bands are computed
+        executorService.shutdown();
 
-                    for (int x = 1; x < rci.getWidth(); ++x) {
-                        final double r2 = getDouble(rci, x, y);
+        return factorList;
+    }
 
-                        if (!edgeMask[panorama.getY(j, y)][x] && isValid(mask, x, y) && isValid(mask, x, y)) {
-                            p[x] += log(r2 / r1);
-                            ++count[x];
-                        }
-                        r1 = r2;
+    private static <T> T getResult(Future<T> future) throws OperatorException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperatorException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof OperatorException) {
+                throw (OperatorException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new OperatorException(cause);
+        }
+    }
+
+    /**
+     * Accumulates the across-track logarithmic radiance ratios of all spectral
+     * bands in a single scan over the source products. Each product is read
+     * strip by strip, and for each strip the tiles of all bands are processed
+     * before the next strip is read.
+     *
+     * @param pm the {@link ProgressMonitor}.
+     *
+     * @throws OperatorException if an error occurred.
+     */
+    private void accumulateLogRatios(ProgressMonitor pm) throws OperatorException {
+        pm.beginTask("Accumulating logarithmic radiance ratios...", panorama.height);
+        try {
+            final double[][] sums = new double[spectralBandCount][panorama.width];
+            final int[][] counts = new int[spectralBandCount][panorama.width];
+
+            for (int j = 0; j < sourceProducts.length; ++j) {
+                final int height = sourceProducts[j].getSceneRasterHeight();
+
+                for (int minY = 0; minY < height; minY += STRIP_HEIGHT) {
+                    final Rectangle strip = new Rectangle(0, minY, panorama.width, min(STRIP_HEIGHT, height - minY));
+
+                    for (int i = 0; i < spectralBandCount; ++i) {
+                        checkForCancellation();
+                        final Tile rci = getSourceTile(sourceRciBands[i][j], strip);
+                        final Tile mask = getSourceTile(sourceMskBands[i][j], strip);
+                        accumulateLogRatios(rci, mask, j, sums[i], counts[i]);
                     }
-                    pm.worked(1);
+                    pm.worked(strip.height);
                 }
             }
-            // 2. Compute the average profile
-            for (int x = 1; x < panorama.width; ++x) {
-                if (count[x] > 0) {
-                    p[x] /= count[x];
-                } else {
-                    p[x] = p[x - 1];
+
+            logRatioSums = sums;
+            logRatioCounts = counts;
+        } finally {
+            pm.done();
+        }
+    }
+
+    private void accumulateLogRatios(Tile rci, Tile mask, int productIndex, double[] sums, int[] counts) {
+        final int[] rciData = rci.getDataBufferInt();
+        final short[] maskData = mask.getDataBufferShort();
+        final int width = rci.getWidth();
+
+        for (int y = 0; y < rci.getHeight(); ++y) {
+            final int rciOffset = rci.getScanlineOffset() + y * rci.getScanlineStride();
+            final int maskOffset = mask.getScanlineOffset() + y * mask.getScanlineStride();
+            final int edgeOffset = panorama.getY(productIndex, rci.getMinY() + y) * panorama.width;
+
+            double r1 = getDouble(rciData[rciOffset], 0);
+            for (int x = 1; x < width; ++x) {
+                final double r2 = getDouble(rciData[rciOffset + x], x);
+
+                if (!edgeMask.get(edgeOffset + x) && maskData[maskOffset + x] == 0) {
+                    sums[x] += log(r2 / r1);
+                    ++counts[x];
                 }
+                r1 = r2;
             }
-            pm.worked(1);
-            // 3. Compute the integrated profile
-            for (int x = 1; x < panorama.width; ++x) {
-                p[x] += p[x - 1];
-            }
-            pm.worked(1);
-            // 4. Smooth the integrated profile to get rid of small-scale variations (noise)
-            final double[] s = new double[panorama.width];
-            smoother.smooth(p, s);
-            pm.worked(1);
-            // 5. Compute the noise profile
-            double meanNoise = 0.0;
-            for (int x = 0; x < panorama.width; ++x) {
-                p[x] -= s[x];
-                meanNoise += p[x];
-            }
-            meanNoise /= panorama.width;
-            for (int x = 0; x < panorama.width; ++x) {
-                p[x] -= meanNoise;
+        }
+    }
+
+    /**
+     * Computes the vertical striping correction factors for a single target band.
+     * When slit correction is enabled, the slit and vertical striping correction
+     * are combined into a single correction factor.
+     *
+     * @param bandIndex the band index.
+     *
+     * @return the correction factors.
+     */
+    private double[] computeCorrectionFactors(int bandIndex) {
+        // 1. Get the across-track spatial derivative profile accumulated for all bands
+        final double[] p = Arrays.copyOf(logRatioSums[bandIndex], panorama.width);
+        final int[] count = logRatioCounts[bandIndex];
+        // 2. Compute the average profile
+        for (int x = 1; x < panorama.width; ++x) {
+            if (count[x] > 0) {
+                p[x] /= count[x];
+            } else {
+                p[x] = p[x - 1];
             }
-            pm.worked(1);
-            // 6. Compute the correction factors
-            for (int x = targetTile.getMinX(); x < targetTile.getMinX() + targetTile.getWidth(); ++x) {
-                setDouble(targetTile, x, 0, exp(-p[x]));
+        }
+        // 3. Compute the integrated profile
+        for (int x = 1; x < panorama.width; ++x) {
+            p[x] += p[x - 1];
+        }
+        // 4. Smooth the integrated profile to get rid of small-scale variations (noise)
+        final double[] s = new double[panorama.width];
+        smoother.smooth(p, s);
+        // 5. Compute the noise profile
+        double meanNoise = 0.0;
+        for (int x = 0; x < panorama.width; ++x) {
+            p[x] -= s[x];
+            meanNoise += p[x];
+        }
+        meanNoise /= panorama.width;
+        for (int x = 0; x < panorama.width; ++x) {
+            p[x] -= meanNoise;
+        }
+        // 6. Compute the correction factors
+        for (int x = 0; x < panorama.width; ++x) {
+            if (slitCorrection) {
+                p[x] = exp(-p[x]) / slitNoiseFactors[x];
+            } else {
+                p[x] = exp(-p[x]);
             }
-            pm.worked(1);
-        } finally {
-            pm.done();
         }
-    }
 
-    private static boolean isValid(Tile mask, int x, int y) {
-        return mask.getSampleInt(x, y) == 0;
+        return p;
     }
 
     private static double[] getSlitNoiseFactors(Product product) throws OperatorException {
@@ -325,80 +475,113 @@ public class ComputeDestripingFactorsOp extends Operator {
 
     /**
      * Creates the spatio-spectral edge mask for a hyperspectral image.
+     * <p/>
+     * The squares and across-track scalar products of the spectral vectors
+     * are accumulated in double precision for a strip of rows at a time, but
+     * the spectral angles are stored in single precision. The edge-detection
+     * thresholds are the 60th and 80th percentiles of the angles found by
+     * selection in a reusable buffer. The thresholds and the edge mask are
+     * exact up to the single-precision rounding of the angles (about 1e-7
+     * relative). Undefined angles, i.e. angles involving a spectrum of zero
+     * norm, are set to zero.
      *
      * @param pm the {@link ProgressMonitor}.
      *
-     * @return the edge mask. The value {@code true} indicates changes in the surface
-     *         texture or coverage.
+     * @return the edge mask. The bit at index {@code y * width + x} is set for
+     *         changes in the surface texture or coverage.
      *
      * @throws OperatorException if an error occurred.
      */
-    private boolean[][] createEdgeMask(ProgressMonitor pm) throws OperatorException {
-        pm.beginTask("Creating edge mask...", spectralBandCount + panorama.width + 2);
+    private BitSet createEdgeMask(ProgressMonitor pm) throws OperatorException {
+        final int width = panorama.width;
+        final int height = panorama.height;
+
+        pm.beginTask("Creating edge mask...", height + width + 1);
         try {
+            // the across-track spectral angle differences, stored column by column
+            final float[] sad = new float[width * height];
+
+            final double[][] squares = new double[STRIP_HEIGHT][width];
+            final double[][] products = new double[STRIP_HEIGHT][width];
 
-            final double[][] sad = new double[panorama.width][panorama.height];
-            final double[][] sca = new double[panorama.width][panorama.height];
+            // 1. Compute the across-track spectral angle differences strip by strip
+            for (int j = 0; j < sourceProducts.length; ++j) {
+                final int productHeight = sourceProducts[j].getSceneRasterHeight();
 
-            // 1. Compute the squares and across-track scalar products of the spectral vectors
-            for (final Band[] bands : sourceRciBands) {
-                for (int i = 0; i < bands.length; i++) {
-                    final Tile data = getSceneTile(bands[i]);
+                for (int minY = 0; minY < productHeight; minY += STRIP_HEIGHT) {
+                    final Rectangle strip = new Rectangle(0, minY, width, min(STRIP_HEIGHT, productHeight - minY));
 
-                    for (int y = 0; y < data.getHeight(); ++y) {
+                    for (int y = 0; y < strip.height; ++y) {
+                        Arrays.fill(squares[y], 0.0);
+                        Arrays.fill(products[y], 0.0);
+                    }
+                    // 1.1 Accumulate the squares and across-track scalar products of the spectral vectors
+                    for (int i = 0; i < spectralBandCount; ++i) {
                         checkForCancellation();
-                        double r1 = getDouble(data, 0, y);
-                        sad[0][panorama.getY(i, y)] += r1 * r1;
+                        final Tile data = getSourceTile(sourceRciBands[i][j], strip);
+                        final int[] samples = data.getDataBufferInt();
 
-                        for (int x = 1; x < data.getWidth(); ++x) {
-                            final double r2 = getDouble(data, x, y);
+                        for (int y = 0; y < strip.height; ++y) {
+                            final int offset = data.getScanlineOffset() + y * data.getScanlineStride();
+                            final double[] sq = squares[y];
+                            final double[] sp = products[y];
 
-                            sca[x][panorama.getY(i, y)] += r2 * r1;
-                            sad[x][panorama.getY(i, y)] += r2 * r2;
-                            r1 = r2;
-                        }
-                    }
-                }
-                pm.worked(1);
-            }
-            // 2. Compute the across-track spectral angle differences
-            for (int y = 0; y < panorama.height; ++y) {
-                checkForCancellation();
-                double norm1 = sqrt(sad[0][y]);
-                sad[0][y] = 0.0;
+                            double r1 = getDouble(samples[offset], 0);
+                            sq[0] += r1 * r1;
 
-                for (int x = 1; x < panorama.width; ++x) {
-                    final double norm2 = sqrt(sad[x][y]);
+                            for (int x = 1; x < width; ++x) {
+                                final double r2 = getDouble(samples[offset + x], x);
 
-                    sad[x][y] = acos(sca[x][y] / (norm1 * norm2));
-                    norm1 = norm2;
+                                sp[x] += r2 * r1;
+                                sq[x] += r2 * r2;
+                                r1 = r2;
+                            }
+                        }
+                    }
+                    // 1.2 Compute the spectral angle differences
+                    for (int y = 0; y < strip.height; ++y) {
+                        final int panoramaY = panorama.getY(j, minY + y);
+                        final double[] sq = squares[y];
+                        final double[] sp = products[y];
+
+                        double norm1 = sqrt(sq[0]);
+                        for (int x = 1; x < width; ++x) {
+                            final double norm2 = sqrt(sq[x]);
+                            final double angle = acos(sp[x] / (norm1 * norm2));
+
+                            sad[x * height + panoramaY] = Double.isNaN(angle) ? 0.0f : (float) angle;
+                            norm1 = norm2;
+                        }
+                    }
+                    pm.worked(strip.height);
                 }
             }
-            pm.worked(1);
 
-            final int minIndex = (int) (0.60 * panorama.height);
-            final int maxIndex = (int) (0.80 * panorama.height);
+            final int minIndex = (int) (0.60 * height);
+            final int maxIndex = (int) (0.80 * height);
 
-            double minThreshold = 0.0;
-            double maxThreshold = 0.0;
+            float minThreshold = 0.0f;
+            float maxThreshold = 0.0f;
 
-            // 3. Adjust the edge-detection threshold
-            for (int x = 1; x < panorama.width; ++x) {
-                final double[] values = Arrays.copyOf(sad[x], panorama.height);
-                minThreshold = max(minThreshold, Sorter.nthElement(values, minIndex));
-                maxThreshold = max(maxThreshold, Sorter.nthElement(values, maxIndex));
+            // 2. Adjust the edge-detection threshold
+            final float[] values = new float[height];
+            for (int x = 1; x < width; ++x) {
+                System.arraycopy(sad, x * height, values, 0, height);
+                minThreshold = max(minThreshold, select(values, 0, height, minIndex));
+                // after the first selection all values above the minimum index are greater or equal
+                maxThreshold = max(maxThreshold, select(values, minIndex, height, maxIndex));
 
                 pm.worked(1);
             }
             final double threshold = min(max(getEdgeDetectionThreshold(sourceProducts[0]), minThreshold), maxThreshold);
 
-            // 4. Create the edge mask
-            final boolean[][] edgeMask = new boolean[panorama.height][panorama.width];
-            for (int y = 0; y < panorama.height; ++y) {
+            // 3. Create the edge mask
+            final BitSet edgeMask = new BitSet(width * height);
+            for (int x = 1; x < width; ++x) {
                 checkForCancellation();
-                for (int x = 1; x < panorama.width; ++x) {
-                    if (sad[x][y] > threshold) {
-                        edgeMask[y][x] = true;
+                for (int y = 0; y < height; ++y) {
+                    if (sad[x * height + y] > threshold) {
+                        edgeMask.set(y * width + x);
                     }
                 }
             }
@@ -410,28 +593,64 @@ public class ComputeDestripingFactorsOp extends Operator {
         }
     }
 
-    private double getDouble(Tile tile, int x, int y) {
-        if (slitCorrection) {
-            // return the slit-corrected value
-            return tile.getSampleDouble(x, y) / slitNoiseFactors[x];
-        } else {
-            return tile.getSampleDouble(x, y);
+    /**
+     * Rearranges a range of values such that the value at index {@code k} is
+     * the value which would be there if the range were sorted, all values
+     * before are less than or equal to, and all values after are greater than
+     * or equal to this value.
+     *
+     * @param values the values.
+     * @param from   the first index of the range (inclusive).
+     * @param to     the last index of the range (exclusive).
+     * @param k      the index of the value to be selected.
+     *
+     * @return the selected value.
+     */
+    static float select(float[] values, int from, int to, int k) {
+        int lo = from;
+        int hi = to - 1;
+
+        while (lo < hi) {
+            final float pivot = values[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    ++i;
+                }
+                while (values[j] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    final float v = values[i];
+                    values[i] = values[j];
+                    values[j] = v;
+                    ++i;
+                    --j;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                break;
+            }
         }
+
+        return values[k];
     }
 
-    private void setDouble(Tile tile, int x, int y, double v) {
+    private double getDouble(double value, int x) {
         if (slitCorrection) {
-            // combine slit and vertical striping correction into a single correction factor
-            tile.setSample(x, y, v / slitNoiseFactors[x]);
+            // return the slit-corrected value
+            return value / slitNoiseFactors[x];
         } else {
-            tile.setSample(x, y, v);
+            return value;
         }
     }
 
-    private Tile getSceneTile(Band band) throws OperatorException {
-        return getSourceTile(band, new Rectangle(0, 0, band.getSceneRasterWidth(), band.getSceneRasterHeight()));
-    }
-
     private static double getEdgeDetectionThreshold(Product product) throws OperatorException {
         // todo - store this map as resource
         final Map<String, Double> thresholdMap = new HashMap<String, Double>();
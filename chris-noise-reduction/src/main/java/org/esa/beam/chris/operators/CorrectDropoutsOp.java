@@ -21,7 +21,6 @@ import org.esa.beam.chris.util.OpUtils;
 import org.esa.beam.dataio.chris.ChrisConstants;
 import org.esa.beam.dataio.chris.internal.DropoutCorrection;
 import org.esa.beam.framework.datamodel.Band;
-import org.esa.beam.framework.datamodel.FlagCoding;
 import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.gpf.Operator;
 import org.esa.beam.framework.gpf.OperatorException;
@@ -34,7 +33,6 @@ import org.esa.beam.framework.gpf.annotations.TargetProduct;
 import org.esa.beam.util.ProductUtils;
 
 import java.awt.Rectangle;
-import java.text.MessageFormat;
 import java.util.Map;
 
 import static java.lang.Math.max;
@@ -74,17 +72,10 @@ public class CorrectDropoutsOp extends Operator {
 
     @Override
     public void initialize() throws OperatorException {
-        assertValidity(sourceProduct);
+        NoiseReductionOpUtils.assertValidity(sourceProduct);
 
-        targetProduct = new Product(sourceProduct.getName(), sourceProduct.getProductType(),
-                                    sourceProduct.getSceneRasterWidth(),
-                                    sourceProduct.getSceneRasterHeight());
-
-        targetProduct.setStartTime(sourceProduct.getStartTime());
-        targetProduct.setEndTime(sourceProduct.getEndTime());
-
-        ProductUtils.copyFlagCodings(sourceProduct, targetProduct);
-        ProductUtils.copyMetadata(sourceProduct.getMetadataRoot(), targetProduct.getMetadataRoot());
+        targetProduct = NoiseReductionOpUtils.createTargetProduct(sourceProduct, sourceProduct.getName(),
+                                                                  sourceProduct.getProductType());
 
         spectralBandCount = OpUtils.getAnnotationInt(sourceProduct, ChrisConstants.ATTR_NAME_NUMBER_OF_BANDS);
 
@@ -93,29 +84,10 @@ public class CorrectDropoutsOp extends Operator {
         targetRciBands = new Band[spectralBandCount];
         targetMskBands = new Band[spectralBandCount];
 
-        for (int i = 0; i < spectralBandCount; ++i) {
-            final String bandName = new StringBuilder("radiance_").append(i + 1).toString();
-            sourceRciBands[i] = sourceProduct.getBand(bandName);
-
-            if (sourceRciBands[i] == null) {
-                throw new OperatorException(MessageFormat.format("could not find band {0}", bandName));
-            }
-            targetRciBands[i] = ProductUtils.copyBand(bandName, sourceProduct, targetProduct);
-        }
-        for (int i = 0; i < spectralBandCount; ++i) {
-            final String bandName = new StringBuilder("mask_").append(i + 1).toString();
-            sourceMskBands[i] = sourceProduct.getBand(bandName);
-
-            if (sourceMskBands[i] == null) {
-                throw new OperatorException(MessageFormat.format("could not find band {0}", bandName));
-            }
-            targetMskBands[i] = ProductUtils.copyBand(bandName, sourceProduct, targetProduct);
-
-            final FlagCoding flagCoding = sourceMskBands[i].getFlagCoding();
-            if (flagCoding != null) {
-                targetMskBands[i].setSampleCoding(targetProduct.getFlagCodingGroup().get(flagCoding.getName()));
-            }
-        }
+        NoiseReductionOpUtils.copySpectralBands(sourceProduct, targetProduct, "radiance_", sourceRciBands,
+                                                targetRciBands);
+        NoiseReductionOpUtils.copySpectralBands(sourceProduct, targetProduct, "mask_", sourceMskBands,
+                                                targetMskBands);
         targetProduct.setAutoGrouping(sourceProduct.getAutoGrouping());
         ProductUtils.copyMasks(sourceProduct, targetProduct);
         dropoutCorrection = new DropoutCorrection(neighborhoodType);
@@ -127,11 +99,31 @@ public class CorrectDropoutsOp extends Operator {
                                  ProgressMonitor pm) throws OperatorException {
         pm.beginTask("computing dropout correction...", spectralBandCount);
         try {
-            final Rectangle sourceRectangle = createSourceRectangle(targetRectangle);
+            final Rectangle sourceRectangle = NoiseReductionOpUtils.createSourceRectangle(
+                    targetRectangle, targetProduct.getSceneRasterWidth(), targetProduct.getSceneRasterHeight());
+
+            // sliding spectral window of source tiles, each tile is fetched only once per strip
+            final Tile[] sourceRciTiles = new Tile[spectralBandCount];
+            final Tile[] sourceMskTiles = new Tile[spectralBandCount];
 
             for (int bandIndex = 0; bandIndex < spectralBandCount; ++bandIndex) {
                 checkForCancellation();
-                computeDropoutCorrection(bandIndex, targetTileMap, targetRectangle, sourceRectangle);
+
+                final int minBandIndex = max(bandIndex - neighborBandCount, 0);
+                final int maxBandIndex = min(bandIndex + neighborBandCount, spectralBandCount - 1);
+                // release the tiles which have left the window
+                if (minBandIndex > 0) {
+                    sourceRciTiles[minBandIndex - 1] = null;
+                    sourceMskTiles[minBandIndex - 1] = null;
+                }
+                for (int i = minBandIndex; i <= maxBandIndex; ++i) {
+                    if (sourceRciTiles[i] == null) {
+                        sourceRciTiles[i] = getSourceTile(sourceRciBands[i], sourceRectangle);
+                        sourceMskTiles[i] = getSourceTile(sourceMskBands[i], sourceRectangle);
+                    }
+                }
+                computeDropoutCorrection(bandIndex, minBandIndex, maxBandIndex, sourceRciTiles, sourceMskTiles,
+                                         targetTileMap, targetRectangle, sourceRectangle);
                 pm.worked(1);
             }
         } finally {
@@ -148,17 +140,17 @@ public class CorrectDropoutsOp extends Operator {
         targetMskBands = null;
     }
 
-    private void computeDropoutCorrection(int bandIndex, Map<Band, Tile> targetTileMap, Rectangle targetRectangle,
+    private void computeDropoutCorrection(int bandIndex, int minBandIndex, int maxBandIndex,
+                                          Tile[] sourceRciTiles, Tile[] sourceMskTiles,
+                                          Map<Band, Tile> targetTileMap, Rectangle targetRectangle,
                                           Rectangle sourceRectangle) throws OperatorException {
-        final int minBandIndex = max(bandIndex - neighborBandCount, 0);
-        final int maxBandIndex = min(bandIndex + neighborBandCount, spectralBandCount - 1);
         final int bandCount = maxBandIndex - minBandIndex + 1;
 
         final int[][] sourceRciData = new int[bandCount][];
         final short[][] sourceMskData = new short[bandCount][];
 
-        final Tile sourceRciTile = getSourceTile(sourceRciBands[bandIndex], sourceRectangle);
-        final Tile sourceMskTile = getSourceTile(sourceMskBands[bandIndex], sourceRectangle);
+        final Tile sourceRciTile = sourceRciTiles[bandIndex];
+        final Tile sourceMskTile = sourceMskTiles[bandIndex];
 
         final int sourceScanlineOffset = sourceRciTile.getScanlineOffset();
         final int sourceScanlineStride = sourceRciTile.getScanlineStride();
@@ -171,8 +163,8 @@ public class CorrectDropoutsOp extends Operator {
 
         for (int i = minBandIndex, j = 1; i <= maxBandIndex; ++i) {
             if (i != bandIndex) {
-                final Tile neighborRciTile = getSourceTile(sourceRciBands[i], sourceRectangle);
-                final Tile neighborMskTile = getSourceTile(sourceMskBands[i], sourceRectangle);
+                final Tile neighborRciTile = sourceRciTiles[i];
+                final Tile neighborMskTile = sourceMskTiles[i];
 
                 Assert.state(sourceScanlineOffset == neighborRciTile.getScanlineOffset());
                 Assert.state(sourceScanlineStride == neighborRciTile.getScanlineStride());
@@ -203,40 +195,6 @@ public class CorrectDropoutsOp extends Operator {
                                   targetScanlineStride);
     }
 
-    private Rectangle createSourceRectangle(Rectangle targetRectangle) {
-        int x = targetRectangle.x;
-        int y = targetRectangle.y;
-        int width = targetRectangle.width;
-        int height = targetRectangle.height;
-
-        if (x > 0) {
-            x -= 1;
-            width += 1;
-        }
-        if (x + width < targetProduct.getSceneRasterWidth()) {
-            width += 1;
-        }
-        if (y > 0) {
-            y -= 1;
-            height += 1;
-        }
-        if (y + height < targetProduct.getSceneRasterHeight()) {
-            height += 1;
-        }
-
-        return new Rectangle(x, y, width, height);
-    }
-
-    private static void assertValidity(Product product) throws OperatorException {
-        try {
-            OpUtils.getAnnotationString(product, ChrisConstants.ATTR_NAME_CHRIS_MODE);
-        } catch (OperatorException e) {
-            throw new OperatorException(MessageFormat.format(
-                    "product ''{0}'' is not a CHRIS product", product.getName()), e);
-        }
-        // todo - add further validation criteria
-    }
-
     public static class Spi extends OperatorSpi {
 
         public Spi() {
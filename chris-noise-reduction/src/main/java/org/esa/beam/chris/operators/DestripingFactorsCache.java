@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.util.SystemUtils;
+import org.esa.beam.util.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Persistent content-addressed cache of destriping factor products, as
+ * computed by the {@link ComputeDestripingFactorsOp}.
+ * <p/>
+ * The destriping factors depend only on the products of the acquisition
+ * set, the smoothing order, the slit correction and the instrument
+ * temperature. Each cache entry is a directory named by a digest of the
+ * checksums of the product files and these parameters. It holds the factor
+ * product in BEAM-DIMAP format and a properties file describing the key, so
+ * the factors of an acquisition set can be found for any of its members.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class DestripingFactorsCache {
+
+    private static final String PRODUCT_FILE_NAME = "factors.dim";
+    private static final String KEY_FILE_NAME = "key.properties";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String PROPERTY_CHECKSUMS = "checksums";
+    private static final String PROPERTY_SMOOTHING_ORDER = "smoothingOrder";
+    private static final String PROPERTY_SLIT_CORRECTION = "slitCorrection";
+    private static final String PROPERTY_TEMPERATURE = "temperature";
+
+    private final File directory;
+
+    /**
+     * Returns the default cache directory.
+     *
+     * @return the default cache directory.
+     */
+    public static File getDefaultDirectory() {
+        return new File(SystemUtils.getApplicationDataDir(), "chris-box/destriping-factors");
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param directory the cache directory, which is created when
+     *                  an entry is put into the cache.
+     */
+    public DestripingFactorsCache(File directory) {
+        this.directory = directory;
+    }
+
+    public final File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Computes the checksum of the content of a file.
+     *
+     * @param file the file.
+     *
+     * @return the checksum, a hexadecimal string.
+     *
+     * @throws IOException if the file could not be read.
+     */
+    public static String computeChecksum(File file) throws IOException {
+        final MessageDigest digest = createDigest();
+        final InputStream is = new FileInputStream(file);
+
+        try {
+            final byte[] buffer = new byte[65536];
+            for (int n = is.read(buffer); n != -1; n = is.read(buffer)) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+
+        return toHexString(digest.digest());
+    }
+
+    /**
+     * Creates the key of a cache entry. The key does not depend on the
+     * order of the checksums.
+     *
+     * @param checksums      the checksums of the product files of the acquisition set.
+     * @param smoothingOrder the smoothing order.
+     * @param slitCorrection the slit correction.
+     * @param temperature    the instrument temperature annotated in the products.
+     *
+     * @return the key, a hexadecimal string.
+     */
+    public static String createKey(String[] checksums, int smoothingOrder, boolean slitCorrection,
+                                   String temperature) {
+        final String[] sortedChecksums = checksums.clone();
+        Arrays.sort(sortedChecksums);
+
+        final StringBuilder sb = new StringBuilder();
+        for (final String checksum : sortedChecksums) {
+            sb.append(checksum).append(',');
+        }
+        sb.append(smoothingOrder).append(',');
+        sb.append(slitCorrection).append(',');
+        sb.append(temperature);
+
+        final MessageDigest digest = createDigest();
+        try {
+            return toHexString(digest.digest(sb.toString().getBytes("UTF-8")));
+        } catch (IOException e) {
+            // cannot happen, UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the factor product file of a cache entry.
+     *
+     * @param key the key.
+     *
+     * @return the factor product file, or {@code null} if the cache does not
+     *         contain an entry for the key.
+     */
+    public File find(String key) {
+        final File productFile = new File(new File(directory, key), PRODUCT_FILE_NAME);
+
+        return productFile.isFile() ? productFile : null;
+    }
+
+    /**
+     * Returns the factor product file of a cache entry for an acquisition set
+     * containing a certain product.
+     *
+     * @param checksum       the checksum of the product file.
+     * @param smoothingOrder the smoothing order.
+     * @param slitCorrection the slit correction.
+     * @param temperature    the instrument temperature annotated in the product.
+     *
+     * @return the factor product file, or {@code null} if the cache does not
+     *         contain a matching entry.
+     */
+    public File findByMember(String checksum, int smoothingOrder, boolean slitCorrection, String temperature) {
+        final File[] entries = directory.listFiles();
+        if (entries == null) {
+            return null;
+        }
+        for (final File entry : entries) {
+            if (entry.getName().contains(TEMP_SUFFIX)) {
+                // an entry which is being written
+                continue;
+            }
+            final Properties properties = readKeyProperties(entry);
+            if (properties == null) {
+                continue;
+            }
+            if (!String.valueOf(smoothingOrder).equals(properties.getProperty(PROPERTY_SMOOTHING_ORDER))) {
+                continue;
+            }
+            if (!String.valueOf(slitCorrection).equals(properties.getProperty(PROPERTY_SLIT_CORRECTION))) {
+                continue;
+            }
+            if (!temperature.equals(properties.getProperty(PROPERTY_TEMPERATURE))) {
+                continue;
+            }
+            final String checksums = properties.getProperty(PROPERTY_CHECKSUMS, "");
+            if (Arrays.asList(checksums.split(",")).contains(checksum)) {
+                final File productFile = find(entry.getName());
+                if (productFile != null) {
+                    return productFile;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Puts a factor product into the cache. The entry is written into a
+     * temporary directory first, which is renamed when complete, so that
+     * concurrent readers never see an incomplete entry.
+     *
+     * @param checksums      the checksums of the product files of the acquisition set.
+     * @param smoothingOrder the smoothing order.
+     * @param slitCorrection the slit correction.
+     * @param temperature    the instrument temperature annotated in the products.
+     * @param factorProduct  the factor product.
+     * @param pm             the {@link ProgressMonitor}.
+     *
+     * @return the factor product file of the cache entry.
+     *
+     * @throws IOException if the entry could not be written.
+     */
+    public File put(String[] checksums, int smoothingOrder, boolean slitCorrection, String temperature,
+                    Product factorProduct, ProgressMonitor pm) throws IOException {
+        final String key = createKey(checksums, smoothingOrder, slitCorrection, temperature);
+        final File entry = new File(directory, key);
+        if (entry.exists()) {
+            return find(key);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory '" + directory + "'.");
+        }
+
+        final File tempEntry = new File(directory, key + TEMP_SUFFIX + System.nanoTime());
+        try {
+            if (!tempEntry.mkdir()) {
+                throw new IOException("Cannot create directory '" + tempEntry + "'.");
+            }
+            ProductIO.writeProduct(factorProduct, new File(tempEntry, PRODUCT_FILE_NAME), ProductIO.DEFAULT_FORMAT_NAME,
+                                   false, pm);
+
+            final Properties properties = new Properties();
+            final StringBuilder sb = new StringBuilder();
+            for (final String checksum : checksums) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(checksum);
+            }
+            properties.setProperty(PROPERTY_CHECKSUMS, sb.toString());
+            properties.setProperty(PROPERTY_SMOOTHING_ORDER, String.valueOf(smoothingOrder));
+            properties.setProperty(PROPERTY_SLIT_CORRECTION, String.valueOf(slitCorrection));
+            properties.setProperty(PROPERTY_TEMPERATURE, temperature);
+
+            final OutputStream os = new FileOutputStream(new File(tempEntry, KEY_FILE_NAME));
+            try {
+                properties.store(os, "Destriping factors cache entry");
+            } finally {
+                os.close();
+            }
+            // another process may have put the same entry in the meantime
+            if (!tempEntry.renameTo(entry) && !entry.exists()) {
+                throw new IOException("Cannot rename directory '" + tempEntry + "'.");
+            }
+        } finally {
+            if (tempEntry.exists()) {
+                FileUtils.deleteTree(tempEntry);
+            }
+        }
+
+        return find(key);
+    }
+
+    private static Properties readKeyProperties(File entry) {
+        final File keyFile = new File(entry, KEY_FILE_NAME);
+        if (!keyFile.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try {
+            final InputStream is = new FileInputStream(keyFile);
+            try {
+                properties.load(is);
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        return properties;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // cannot happen, SHA-1 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHexString(byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+}
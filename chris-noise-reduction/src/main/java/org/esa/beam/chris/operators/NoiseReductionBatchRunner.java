@@ -0,0 +1,555 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.chris.util.OpUtils;
+import org.esa.beam.dataio.chris.ChrisConstants;
+import org.esa.beam.dataio.chris.internal.DropoutCorrection;
+import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.GPF;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.gpf.operators.standard.WriteOp;
+import org.esa.beam.util.io.FileUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the unattended noise reduction for many acquisition sets.
+ * <p/>
+ * The destriping factors of an acquisition set are computed once by the
+ * {@link ComputeDestripingFactorsOp}, or read from a {@link DestripingFactorsCache}.
+ * Then the {@link ReduceNoiseOp} is applied to all products of the set
+ * concurrently on a shared executor, and the results are written to a target
+ * directory. For each acquisition set a {@link SetReport} is returned.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class NoiseReductionBatchRunner {
+
+    private final ExecutorService executorService;
+    private final Map<String, Object> destripingFactorsParameterMap;
+    private final Map<String, Object> dropoutCorrectionParameterMap;
+    private final String formatName;
+    private final DestripingFactorsCache cache;
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param executorService               the executor service shared by the noise
+     *                                      reduction tasks of all products.
+     * @param destripingFactorsParameterMap the parameters of the {@link ComputeDestripingFactorsOp}.
+     * @param dropoutCorrectionParameterMap the parameters of the dropout correction.
+     * @param formatName                    the name of the target product format.
+     * @param cache                         the destriping factors cache, may be {@code null}.
+     */
+    public NoiseReductionBatchRunner(ExecutorService executorService,
+                                     Map<String, Object> destripingFactorsParameterMap,
+                                     Map<String, Object> dropoutCorrectionParameterMap,
+                                     String formatName,
+                                     DestripingFactorsCache cache) {
+        this.executorService = executorService;
+        this.destripingFactorsParameterMap = destripingFactorsParameterMap;
+        this.dropoutCorrectionParameterMap = dropoutCorrectionParameterMap;
+        this.formatName = formatName;
+        this.cache = cache;
+    }
+
+    /**
+     * Groups product files into acquisition sets. Product files belong to the
+     * same acquisition set when their names differ only in the fourth part,
+     * which is the fly-by zenith angle.
+     *
+     * @param sourceFiles the product files.
+     *
+     * @return the acquisition sets, sorted by name.
+     */
+    public static List<List<File>> groupAcquisitionSets(List<File> sourceFiles) {
+        final Map<String, List<File>> setMap = new TreeMap<String, List<File>>();
+        for (final File sourceFile : sourceFiles) {
+            String key = OpUtils.getAcquisitionSetKey(sourceFile.getName());
+            if (key == null) {
+                // not a CHRIS file name, the product is an acquisition set on its own
+                key = sourceFile.getName();
+            }
+            List<File> set = setMap.get(key);
+            if (set == null) {
+                set = new ArrayList<File>();
+                setMap.put(key, set);
+            }
+            set.add(sourceFile);
+        }
+
+        return new ArrayList<List<File>>(setMap.values());
+    }
+
+    /**
+     * Carries out the noise reduction for an acquisition set. The destriping
+     * factors are computed in the calling thread while the products of the set
+     * are processed concurrently on the executor service.
+     *
+     * @param sourceFiles the product files of the acquisition set.
+     * @param targetDir   the target directory.
+     *
+     * @return the report.
+     *
+     * @throws IOException if an error occurred.
+     */
+    public SetReport process(List<File> sourceFiles, File targetDir) throws IOException {
+        final long startTime = System.currentTimeMillis();
+
+        final Product[] sourceProducts = new Product[sourceFiles.size()];
+        try {
+            for (int i = 0; i < sourceProducts.length; ++i) {
+                sourceProducts[i] = ProductIO.readProduct(sourceFiles.get(i));
+                if (sourceProducts[i] == null) {
+                    throw new IOException(MessageFormat.format("Cannot read product file ''{0}''.",
+                                                               sourceFiles.get(i)));
+                }
+            }
+            final File firstTargetFile = createTargetFile(targetDir, sourceProducts[0]);
+            final File factorFile = new File(targetDir,
+                                             FileUtils.getFilenameWithoutExtension(firstTargetFile) + "_VSC.dim");
+            final boolean cached = provideDestripingFactors(sourceFiles, sourceProducts, factorFile);
+            final long factorTime = System.currentTimeMillis() - startTime;
+
+            final Product factorProduct = ProductIO.readProduct(factorFile);
+            if (factorProduct == null) {
+                throw new IOException(MessageFormat.format("Cannot read product file ''{0}''.", factorFile));
+            }
+            try {
+                final AtomicBoolean aborted = new AtomicBoolean();
+                final List<Future<Report>> futureList = new ArrayList<Future<Report>>(sourceProducts.length);
+                for (final Product sourceProduct : sourceProducts) {
+                    final File targetFile = createTargetFile(targetDir, sourceProduct);
+                    futureList.add(executorService.submit(new Callable<Report>() {
+                        @Override
+                        public Report call() throws IOException {
+                            if (aborted.get()) {
+                                return null;
+                            }
+                            return reduceNoise(sourceProduct, factorProduct, targetFile);
+                        }
+                    }));
+                }
+                final List<Report> reportList = new ArrayList<Report>(futureList.size());
+                try {
+                    for (final Future<Report> future : futureList) {
+                        reportList.add(getResult(future));
+                    }
+                } finally {
+                    if (reportList.size() < futureList.size()) {
+                        // tasks not yet started are skipped, but running tasks still read the
+                        // products, which must not be disposed before these tasks are finished
+                        aborted.set(true);
+                        awaitCompletion(futureList);
+                    }
+                }
+
+                return new SetReport(sourceProducts[0].getName(), reportList, cached, factorTime,
+                                     System.currentTimeMillis() - startTime);
+            } finally {
+                factorProduct.dispose();
+            }
+        } finally {
+            for (final Product sourceProduct : sourceProducts) {
+                if (sourceProduct != null) {
+                    sourceProduct.dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the destriping factors of an acquisition set to a file.
+     *
+     * @return {@code true} if the factors were found in the cache.
+     */
+    private boolean provideDestripingFactors(List<File> sourceFiles, Product[] sourceProducts, File factorFile)
+            throws IOException {
+        String[] checksums = null;
+        int smoothingOrder = ComputeDestripingFactorsOp.DEFAULT_SMOOTHING_ORDER;
+        boolean slitCorrection = ComputeDestripingFactorsOp.DEFAULT_SLIT_CORRECTION;
+        String temperature = null;
+
+        Product factorProduct = null;
+        boolean cached = false;
+        if (cache != null) {
+            checksums = new String[sourceFiles.size()];
+            for (int i = 0; i < checksums.length; ++i) {
+                checksums[i] = DestripingFactorsCache.computeChecksum(sourceFiles.get(i));
+            }
+            final Object smoothingOrderValue = destripingFactorsParameterMap.get("smoothingOrder");
+            if (smoothingOrderValue instanceof Number) {
+                smoothingOrder = ((Number) smoothingOrderValue).intValue();
+            }
+            final Object slitCorrectionValue = destripingFactorsParameterMap.get("slitCorrection");
+            if (slitCorrectionValue instanceof Boolean) {
+                slitCorrection = (Boolean) slitCorrectionValue;
+            }
+            temperature = OpUtils.getAnnotationString(sourceProducts[0], ChrisConstants.ATTR_NAME_CHRIS_TEMPERATURE);
+
+            final File cachedFile = cache.find(
+                    DestripingFactorsCache.createKey(checksums, smoothingOrder, slitCorrection, temperature));
+            if (cachedFile != null) {
+                factorProduct = ProductIO.readProduct(cachedFile);
+                cached = factorProduct != null;
+            }
+        }
+        if (factorProduct == null) {
+            factorProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(ComputeDestripingFactorsOp.class),
+                                              destripingFactorsParameterMap, sourceProducts);
+        }
+        try {
+            factorProduct.setName(FileUtils.getFilenameWithoutExtension(factorFile));
+            final WriteOp writeOp = new WriteOp(factorProduct, factorFile, "BEAM-DIMAP");
+            writeOp.setWriteEntireTileRows(true);
+            writeOp.writeProduct(ProgressMonitor.NULL);
+        } finally {
+            factorProduct.dispose();
+        }
+        if (cache != null && !cached) {
+            putIntoCache(checksums, smoothingOrder, slitCorrection, temperature, factorFile);
+        }
+
+        return cached;
+    }
+
+    private void putIntoCache(String[] checksums, int smoothingOrder, boolean slitCorrection, String temperature,
+                              File factorFile) {
+        // the noise reduction does not depend on the cache, so any failure is ignored
+        Product writtenProduct = null;
+        try {
+            writtenProduct = ProductIO.readProduct(factorFile);
+            if (writtenProduct != null) {
+                cache.put(checksums, smoothingOrder, slitCorrection, temperature, writtenProduct,
+                          ProgressMonitor.NULL);
+            }
+        } catch (IOException e) {
+            // ignore
+        } catch (RuntimeException e) {
+            // ignore
+        } finally {
+            if (writtenProduct != null) {
+                writtenProduct.dispose();
+            }
+        }
+    }
+
+    private Report reduceNoise(Product sourceProduct, Product factorProduct, File targetFile) {
+        final long startTime = System.currentTimeMillis();
+
+        final Map<String, Product> sourceProductMap = new HashMap<String, Product>(5);
+        sourceProductMap.put("sourceProduct", sourceProduct);
+        sourceProductMap.put("factorProduct", factorProduct);
+
+        final Product targetProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(ReduceNoiseOp.class),
+                                                        dropoutCorrectionParameterMap, sourceProductMap);
+        try {
+            targetProduct.setName(FileUtils.getFilenameWithoutExtension(targetFile));
+            final WriteOp writeOp = new WriteOp(targetProduct, targetFile, formatName);
+            writeOp.setWriteEntireTileRows(true);
+            writeOp.writeProduct(ProgressMonitor.NULL);
+        } finally {
+            targetProduct.dispose();
+        }
+
+        return new Report(sourceProduct.getName(),
+                          sourceProduct.getSceneRasterWidth() * sourceProduct.getSceneRasterHeight(),
+                          System.currentTimeMillis() - startTime);
+    }
+
+    private File createTargetFile(File targetDir, Product sourceProduct) {
+        final String extension = "BEAM-DIMAP".equals(formatName) ? ".dim" : "";
+        return new File(targetDir, sourceProduct.getName() + "_NR" + extension);
+    }
+
+    private static <T> void awaitCompletion(List<Future<T>> futureList) {
+        boolean interrupted = false;
+        for (final Future<T> future : futureList) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Carries out the noise reduction for the products given as arguments,
+     * which are grouped into acquisition sets, and writes the results into
+     * a target directory. A source directory argument stands for all CHRIS
+     * products in this directory.
+     * <p/>
+     * Usage: {@code [-threads n] [-sets n] [-format name] [-cache dir] [-smoothingOrder n]
+     * [-slitCorrection true|false] [-neighborBandCount n] [-neighborhoodType N4|N8] targetDir source...}
+     * <p/>
+     * Parameters which are not given take the default values of the operators.
+     *
+     * @param args the arguments.
+     *
+     * @throws Exception if an error occurred.
+     */
+    public static void main(String[] args) throws Exception {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        int setCount = 2;
+        String formatName = "BEAM-DIMAP";
+        File cacheDir = null;
+        final Map<String, Object> destripingFactorsParameterMap = new HashMap<String, Object>();
+        final Map<String, Object> dropoutCorrectionParameterMap = new HashMap<String, Object>();
+
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i += 2) {
+            if (i + 1 == args.length) {
+                printUsageAndExit();
+            }
+            if ("-threads".equals(args[i])) {
+                threadCount = Integer.parseInt(args[i + 1]);
+            } else if ("-sets".equals(args[i])) {
+                setCount = Integer.parseInt(args[i + 1]);
+            } else if ("-format".equals(args[i])) {
+                formatName = args[i + 1];
+            } else if ("-cache".equals(args[i])) {
+                cacheDir = new File(args[i + 1]);
+            } else if ("-smoothingOrder".equals(args[i])) {
+                destripingFactorsParameterMap.put("smoothingOrder", Integer.parseInt(args[i + 1]));
+            } else if ("-slitCorrection".equals(args[i])) {
+                destripingFactorsParameterMap.put("slitCorrection", Boolean.parseBoolean(args[i + 1]));
+            } else if ("-neighborBandCount".equals(args[i])) {
+                dropoutCorrectionParameterMap.put("neighborBandCount", Integer.parseInt(args[i + 1]));
+            } else if ("-neighborhoodType".equals(args[i])) {
+                dropoutCorrectionParameterMap.put("neighborhoodType", DropoutCorrection.Type.valueOf(args[i + 1]));
+            } else {
+                throw new IllegalArgumentException(MessageFormat.format("Unknown option ''{0}''.", args[i]));
+            }
+        }
+        if (args.length - i < 2) {
+            printUsageAndExit();
+        }
+
+        GPF.getDefaultInstance().getOperatorSpiRegistry().loadOperatorSpis();
+
+        final File targetDir = new File(args[i++]);
+        final List<File> sourceFileList = new ArrayList<File>();
+        for (; i < args.length; ++i) {
+            final File source = new File(args[i]);
+            if (source.isDirectory()) {
+                final File[] files = source.listFiles(new FileFilter() {
+                    @Override
+                    public boolean accept(File file) {
+                        return file.isFile() && file.getName().toLowerCase().endsWith(
+                                ChrisConstants.DEFAULT_FILE_EXTENSION.toLowerCase());
+                    }
+                });
+                if (files != null) {
+                    Arrays.sort(files);
+                    sourceFileList.addAll(Arrays.asList(files));
+                }
+            } else {
+                sourceFileList.add(source);
+            }
+        }
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        // the destriping factors of the next sets are computed while the products of earlier sets are processed
+        final ExecutorService setExecutorService = Executors.newFixedThreadPool(setCount);
+        try {
+            final DestripingFactorsCache cache = cacheDir != null ? new DestripingFactorsCache(cacheDir) : null;
+            final NoiseReductionBatchRunner runner = new NoiseReductionBatchRunner(
+                    executorService, destripingFactorsParameterMap, dropoutCorrectionParameterMap, formatName, cache);
+            final List<List<File>> setList = groupAcquisitionSets(sourceFileList);
+            final List<Future<SetReport>> futureList = new ArrayList<Future<SetReport>>(setList.size());
+            for (final List<File> set : setList) {
+                futureList.add(setExecutorService.submit(new Callable<SetReport>() {
+                    @Override
+                    public SetReport call() throws IOException {
+                        return runner.process(set, targetDir);
+                    }
+                }));
+            }
+            for (int k = 0; k < futureList.size(); ++k) {
+                try {
+                    System.out.println(futureList.get(k).get());
+                } catch (ExecutionException e) {
+                    System.err.println(MessageFormat.format("Cannot reduce noise of ''{0}'': {1}",
+                                                            setList.get(k).get(0), e.getCause().getMessage()));
+                }
+            }
+        } finally {
+            setExecutorService.shutdown();
+            executorService.shutdown();
+        }
+    }
+
+    private static void printUsageAndExit() {
+        System.err.println("Usage: [-threads n] [-sets n] [-format name] [-cache dir] [-smoothingOrder n] " +
+                           "[-slitCorrection true|false] [-neighborBandCount n] [-neighborhoodType N4|N8] " +
+                           "targetDir source...");
+        System.exit(1);
+    }
+
+    /**
+     * Throughput figures for a noise-reduced product.
+     */
+    public static class Report {
+
+        private final String productName;
+        private final int pixelCount;
+        private final long elapsedTime;
+
+        Report(String productName, int pixelCount, long elapsedTime) {
+            this.productName = productName;
+            this.pixelCount = pixelCount;
+            this.elapsedTime = elapsedTime;
+        }
+
+        public String getProductName() {
+            return productName;
+        }
+
+        public int getPixelCount() {
+            return pixelCount;
+        }
+
+        /**
+         * Returns the elapsed time for the noise reduction and writing of the
+         * product.
+         *
+         * @return the elapsed time (ms).
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
+        @Override
+        public String toString() {
+            return MessageFormat.format("{0}: {1} pixels in {2} ms", productName, pixelCount, elapsedTime);
+        }
+    }
+
+    /**
+     * Timing figures for a noise-reduced acquisition set.
+     */
+    public static class SetReport {
+
+        private final String setName;
+        private final List<Report> reportList;
+        private final boolean cached;
+        private final long factorTime;
+        private final long elapsedTime;
+
+        SetReport(String setName, List<Report> reportList, boolean cached, long factorTime, long elapsedTime) {
+            this.setName = setName;
+            this.reportList = reportList;
+            this.cached = cached;
+            this.factorTime = factorTime;
+            this.elapsedTime = elapsedTime;
+        }
+
+        public String getSetName() {
+            return setName;
+        }
+
+        public List<Report> getReportList() {
+            return reportList;
+        }
+
+        /**
+         * Returns {@code true} if the destriping factors were found in the cache.
+         *
+         * @return {@code true} if the destriping factors were found in the cache.
+         */
+        public boolean isCached() {
+            return cached;
+        }
+
+        /**
+         * Returns the elapsed time for providing the destriping factors.
+         *
+         * @return the elapsed time (ms).
+         */
+        public long getFactorTime() {
+            return factorTime;
+        }
+
+        /**
+         * Returns the elapsed time for the noise reduction of the whole set.
+         *
+         * @return the elapsed time (ms).
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(MessageFormat.format(
+                    "{0}: {1} products in {2} ms, destriping factors {3} in {4} ms",
+                    setName, reportList.size(), elapsedTime, cached ? "read from cache" : "computed", factorTime));
+            for (final Report report : reportList) {
+                sb.append("\n  ").append(report);
+            }
+
+            return sb.toString();
+        }
+    }
+}
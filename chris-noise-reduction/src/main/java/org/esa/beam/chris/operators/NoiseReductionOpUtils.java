@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import org.esa.beam.chris.util.OpUtils;
+import org.esa.beam.dataio.chris.ChrisConstants;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.FlagCoding;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.util.ProductUtils;
+
+import java.awt.Rectangle;
+import java.text.MessageFormat;
+
+/**
+ * Methods shared by the noise reduction operators.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+class NoiseReductionOpUtils {
+
+    private NoiseReductionOpUtils() {
+    }
+
+    /**
+     * Creates a target product with the same dimension, start and end time,
+     * flag codings and metadata as a source product.
+     *
+     * @param sourceProduct the source product.
+     * @param name          the name of the target product.
+     * @param type          the type of the target product.
+     *
+     * @return the target product.
+     */
+    static Product createTargetProduct(Product sourceProduct, String name, String type) {
+        final Product targetProduct = new Product(name, type,
+                                                  sourceProduct.getSceneRasterWidth(),
+                                                  sourceProduct.getSceneRasterHeight());
+
+        targetProduct.setStartTime(sourceProduct.getStartTime());
+        targetProduct.setEndTime(sourceProduct.getEndTime());
+
+        ProductUtils.copyFlagCodings(sourceProduct, targetProduct);
+        ProductUtils.copyMetadata(sourceProduct.getMetadataRoot(), targetProduct.getMetadataRoot());
+
+        return targetProduct;
+    }
+
+    /**
+     * Copies the spectral bands with a certain name prefix, i.e. the bands
+     * named {@code prefix1}, {@code prefix2} and so on, from a source product
+     * to a target product.
+     *
+     * @param sourceProduct the source product.
+     * @param targetProduct the target product.
+     * @param prefix        the band name prefix.
+     * @param sourceBands   the spectral source bands found.
+     * @param targetBands   the spectral target bands created.
+     *
+     * @throws OperatorException if a spectral source band could not be found.
+     */
+    static void copySpectralBands(Product sourceProduct, Product targetProduct, String prefix,
+                                  Band[] sourceBands, Band[] targetBands) throws OperatorException {
+        for (int i = 0; i < sourceBands.length; ++i) {
+            final String bandName = new StringBuilder(prefix).append(i + 1).toString();
+            sourceBands[i] = sourceProduct.getBand(bandName);
+
+            if (sourceBands[i] == null) {
+                throw new OperatorException(MessageFormat.format("could not find band {0}", bandName));
+            }
+            targetBands[i] = ProductUtils.copyBand(bandName, sourceProduct, targetProduct);
+
+            final FlagCoding flagCoding = sourceBands[i].getFlagCoding();
+            if (flagCoding != null) {
+                targetBands[i].setSampleCoding(targetProduct.getFlagCodingGroup().get(flagCoding.getName()));
+            }
+        }
+    }
+
+    /**
+     * Returns the source rectangle required for computing the dropout
+     * correction of a target rectangle, which is the target rectangle
+     * extended by one pixel on each side, clipped to the scene.
+     *
+     * @param targetRectangle the target rectangle.
+     * @param sceneWidth      the width of the scene.
+     * @param sceneHeight     the height of the scene.
+     *
+     * @return the source rectangle.
+     */
+    static Rectangle createSourceRectangle(Rectangle targetRectangle, int sceneWidth, int sceneHeight) {
+        int x = targetRectangle.x;
+        int y = targetRectangle.y;
+        int width = targetRectangle.width;
+        int height = targetRectangle.height;
+
+        if (x > 0) {
+            x -= 1;
+            width += 1;
+        }
+        if (x + width < sceneWidth) {
+            width += 1;
+        }
+        if (y > 0) {
+            y -= 1;
+            height += 1;
+        }
+        if (y + height < sceneHeight) {
+            height += 1;
+        }
+
+        return new Rectangle(x, y, width, height);
+    }
+
+    static void assertValidity(Product product) throws OperatorException {
+        try {
+            OpUtils.getAnnotationString(product, ChrisConstants.ATTR_NAME_CHRIS_MODE);
+        } catch (OperatorException e) {
+            throw new OperatorException(MessageFormat.format(
+                    "product ''{0}'' is not a CHRIS product", product.getName()), e);
+        }
+        // todo - add further validation criteria
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.dataio.ProductWriter;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes several products with overlapped computation and I/O.
+ * <p/>
+ * The strips of all products are computed concurrently by a pool of compute
+ * threads and put into a bounded queue, while the calling thread is the
+ * dedicated I/O thread which takes the computed strips from the queue and
+ * writes them. The strips of different products are interleaved, so that
+ * writing the products overlaps. When the queue is full, the compute threads
+ * wait for the I/O thread, which bounds the memory used for computed strips.
+ * <p/>
+ * Strips are computed in any order, but the strips of each product are
+ * written in row order, because not every product writer supports writing
+ * rows at random. A strip computed ahead of its predecessors is kept back
+ * until its predecessors are written.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class PipelinedProductWriter {
+
+    private static final int DEFAULT_STRIP_HEIGHT = 16;
+
+    private final int threadCount;
+    private final int queueCapacity;
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param threadCount   the number of compute threads.
+     * @param queueCapacity the maximum number of computed strips waiting to be written.
+     */
+    public PipelinedProductWriter(int threadCount, int queueCapacity) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount < 1");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity < 1");
+        }
+        this.threadCount = threadCount;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Writes products to files.
+     *
+     * @param products   the products.
+     * @param files      the target files.
+     * @param formatName the name of the target product format.
+     * @param pm         the {@link ProgressMonitor}.
+     *
+     * @throws IOException if an error occurred.
+     */
+    public void writeProducts(Product[] products, File[] files, String formatName, ProgressMonitor pm)
+            throws IOException {
+        final ProductWriter[] writers = new ProductWriter[products.length];
+        final List<Strip> stripList = new ArrayList<Strip>();
+
+        try {
+            final List<List<Strip>> productStripLists = new ArrayList<List<Strip>>(products.length);
+            for (int i = 0; i < products.length; ++i) {
+                writers[i] = ProductIO.getProductWriter(formatName);
+                if (writers[i] == null) {
+                    throw new IOException(MessageFormat.format("No writer found for format ''{0}''.", formatName));
+                }
+                writers[i].writeProductNodes(products[i], files[i]);
+                productStripLists.add(createStrips(products[i], writers[i], i));
+            }
+            // interleave the strips of all products
+            for (int k = 0; stripList.size() < countStrips(productStripLists); ++k) {
+                for (final List<Strip> productStripList : productStripLists) {
+                    if (k < productStripList.size()) {
+                        stripList.add(productStripList.get(k));
+                    }
+                }
+            }
+
+            write(stripList, products.length, pm);
+
+            for (final ProductWriter writer : writers) {
+                writer.flush();
+            }
+        } finally {
+            for (final ProductWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+    }
+
+    private void write(List<Strip> stripList, int productCount, ProgressMonitor pm) throws IOException {
+        final BlockingQueue<Strip> queue = new ArrayBlockingQueue<Strip>(queueCapacity);
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        // the index of the next strip to be written and the strips kept back for each product
+        final int[] nextStripIndexes = new int[productCount];
+        final List<Map<Integer, Strip>> pendingStripMaps = new ArrayList<Map<Integer, Strip>>(productCount);
+        for (int i = 0; i < productCount; ++i) {
+            pendingStripMaps.add(new HashMap<Integer, Strip>());
+        }
+
+        pm.beginTask("Writing products...", stripList.size());
+        try {
+            for (final Strip strip : stripList) {
+                executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            strip.compute();
+                        } catch (Throwable t) {
+                            strip.error = t;
+                        }
+                        try {
+                            queue.put(strip);
+                        } catch (InterruptedException e) {
+                            // the pipeline has been cancelled
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            for (int i = 0; i < stripList.size(); ++i) {
+                if (pm.isCanceled()) {
+                    throw new IOException("Writing has been cancelled.");
+                }
+                final Strip strip;
+                try {
+                    strip = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                if (strip.error != null) {
+                    if (strip.error instanceof IOException) {
+                        throw (IOException) strip.error;
+                    }
+                    if (strip.error instanceof RuntimeException) {
+                        throw (RuntimeException) strip.error;
+                    }
+                    if (strip.error instanceof Error) {
+                        throw (Error) strip.error;
+                    }
+                    throw new IOException(strip.error);
+                }
+                final int p = strip.productIndex;
+                final Map<Integer, Strip> pendingStripMap = pendingStripMaps.get(p);
+                pendingStripMap.put(strip.stripIndex, strip);
+                for (Strip next = pendingStripMap.remove(nextStripIndexes[p]); next != null;
+                     next = pendingStripMap.remove(nextStripIndexes[p])) {
+                    next.write();
+                    nextStripIndexes[p]++;
+                    pm.worked(1);
+                }
+            }
+        } finally {
+            // compute threads waiting for the queue are interrupted
+            executorService.shutdownNow();
+            pm.done();
+        }
+    }
+
+    private static List<Strip> createStrips(Product product, ProductWriter writer, int productIndex) {
+        final int w = product.getSceneRasterWidth();
+        final int h = product.getSceneRasterHeight();
+        final Dimension tileSize = product.getPreferredTileSize();
+        final int stripHeight = tileSize != null ? tileSize.height : DEFAULT_STRIP_HEIGHT;
+
+        final List<Band> bandList = new ArrayList<Band>();
+        for (final Band band : product.getBands()) {
+            if (writer.shouldWrite(band)) {
+                bandList.add(band);
+            }
+        }
+        final Band[] bands = bandList.toArray(new Band[bandList.size()]);
+
+        final List<Strip> stripList = new ArrayList<Strip>();
+        for (int y = 0; y < h; y += stripHeight) {
+            stripList.add(new Strip(writer, bands, new Rectangle(0, y, w, Math.min(stripHeight, h - y)),
+                                    productIndex, stripList.size()));
+        }
+
+        return stripList;
+    }
+
+    private static int countStrips(List<List<Strip>> stripLists) {
+        int count = 0;
+        for (final List<Strip> stripList : stripLists) {
+            count += stripList.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * The raster data of all bands of a product in a rectangle spanning
+     * entire rows.
+     */
+    private static class Strip {
+
+        private final ProductWriter writer;
+        private final Band[] bands;
+        private final Rectangle rectangle;
+        private final int productIndex;
+        private final int stripIndex;
+        private ProductData[] data;
+        private volatile Throwable error;
+
+        private Strip(ProductWriter writer, Band[] bands, Rectangle rectangle, int productIndex, int stripIndex) {
+            this.writer = writer;
+            this.bands = bands;
+            this.rectangle = rectangle;
+            this.productIndex = productIndex;
+            this.stripIndex = stripIndex;
+        }
+
+        private void compute() {
+            final ProductData[] data = new ProductData[bands.length];
+            for (int i = 0; i < bands.length; ++i) {
+                final Raster raster = bands[i].getSourceImage().getData(rectangle);
+                data[i] = bands[i].createCompatibleRasterData(rectangle.width, rectangle.height);
+                raster.getDataElements(rectangle.x, rectangle.y, rectangle.width, rectangle.height,
+                                       data[i].getElems());
+            }
+            this.data = data;
+        }
+
+        private void write() throws IOException {
+            for (int i = 0; i < bands.length; ++i) {
+                writer.writeBandRasterData(bands[i], rectangle.x, rectangle.y, rectangle.width, rectangle.height,
+                                           data[i], ProgressMonitor.NULL);
+            }
+            // release the raster data as soon as possible
+            data = null;
+        }
+    }
+}
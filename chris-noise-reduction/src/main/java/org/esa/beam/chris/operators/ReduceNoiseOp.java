@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import com.bc.ceres.core.Assert;
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.chris.util.OpUtils;
+import org.esa.beam.dataio.chris.ChrisConstants;
+import org.esa.beam.dataio.chris.internal.DropoutCorrection;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.Tile;
+import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
+import org.esa.beam.framework.gpf.annotations.SourceProduct;
+import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.util.ProductUtils;
+
+import java.awt.Rectangle;
+import java.text.MessageFormat;
+import java.util.Map;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Operator for carrying out the CHRIS/Proba noise reduction, i.e. the
+ * application of the vertical striping (VS) correction factors calculated
+ * by the {@link ComputeDestripingFactorsOp} followed by the dropout
+ * correction.
+ * <p/>
+ * The result is the same as when chaining the {@link ApplyDestripingFactorsOp}
+ * and the {@link CorrectDropoutsOp}, but the destriped radiances are never
+ * materialized as a product. All spectral bands of a strip are computed at
+ * once, and the destriped radiances of each band are computed only once per
+ * strip while loading the neighborhood required for the dropout correction.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+@OperatorMetadata(alias = "chris.ReduceNoise",
+                  version = "1.0",
+                  authors = "Ralf Quast",
+                  copyright = "(c) 2011 by Brockmann Consult",
+                  description = "Applies a precomputed set of destriping factors to a CHRIS/Proba RCI and carries out the dropout correction.")
+public class ReduceNoiseOp extends Operator {
+
+    @SourceProduct(alias = "input")
+    Product sourceProduct;
+    @SourceProduct(alias = "factors")
+    Product factorProduct;
+    @TargetProduct
+    Product targetProduct;
+
+    @Parameter(defaultValue = "5", interval = "[1, 62]")
+    private int neighborBandCount;
+
+    @Parameter(defaultValue = "N4", valueSet = {"N4", "N8"})
+    private DropoutCorrection.Type neighborhoodType;
+
+    private DropoutCorrection dropoutCorrection;
+    private int spectralBandCount;
+
+    private Band[] sourceRciBands;
+    private Band[] sourceMskBands;
+    private Band[] factorBands;
+    private Band[] targetRciBands;
+    private Band[] targetMskBands;
+
+    @Override
+    public void initialize() throws OperatorException {
+        NoiseReductionOpUtils.assertValidity(sourceProduct);
+
+        targetProduct = NoiseReductionOpUtils.createTargetProduct(sourceProduct, sourceProduct.getName() + "_NR",
+                                                                  sourceProduct.getProductType() + "_NR");
+        OpUtils.setAnnotationString(targetProduct, ChrisConstants.ATTR_NAME_NOISE_REDUCTION,
+                                    OpUtils.getAnnotationString(factorProduct,
+                                                                ChrisConstants.ATTR_NAME_NOISE_REDUCTION));
+
+        spectralBandCount = OpUtils.getAnnotationInt(sourceProduct, ChrisConstants.ATTR_NAME_NUMBER_OF_BANDS);
+
+        sourceRciBands = new Band[spectralBandCount];
+        sourceMskBands = new Band[spectralBandCount];
+        factorBands = new Band[spectralBandCount];
+        targetRciBands = new Band[spectralBandCount];
+        targetMskBands = new Band[spectralBandCount];
+
+        NoiseReductionOpUtils.copySpectralBands(sourceProduct, targetProduct, "radiance_", sourceRciBands,
+                                                targetRciBands);
+        NoiseReductionOpUtils.copySpectralBands(sourceProduct, targetProduct, "mask_", sourceMskBands,
+                                                targetMskBands);
+        for (int i = 0; i < spectralBandCount; ++i) {
+            final String factorBandName = new StringBuilder("vs_corr_").append(i + 1).toString();
+            factorBands[i] = factorProduct.getBand(factorBandName);
+
+            if (factorBands[i] == null) {
+                throw new OperatorException(MessageFormat.format("could not find band {0}", factorBandName));
+            }
+        }
+        targetProduct.setAutoGrouping(sourceProduct.getAutoGrouping());
+        ProductUtils.copyMasks(sourceProduct, targetProduct);
+        dropoutCorrection = new DropoutCorrection(neighborhoodType);
+        targetProduct.setPreferredTileSize(targetProduct.getSceneRasterWidth(), 16);
+    }
+
+    @Override
+    public void computeTileStack(Map<Band, Tile> targetTileMap, Rectangle targetRectangle,
+                                 ProgressMonitor pm) throws OperatorException {
+        pm.beginTask("reducing noise...", spectralBandCount);
+        try {
+            final Rectangle sourceRectangle = NoiseReductionOpUtils.createSourceRectangle(
+                    targetRectangle, targetProduct.getSceneRasterWidth(), targetProduct.getSceneRasterHeight());
+
+            // the destriped radiances and masks of the bands in the spectral neighborhood
+            final int[][] rciBuffers = new int[spectralBandCount][];
+            final short[][] mskBuffers = new short[spectralBandCount][];
+
+            for (int bandIndex = 0; bandIndex < spectralBandCount; ++bandIndex) {
+                checkForCancellation();
+
+                final int minBandIndex = max(bandIndex - neighborBandCount, 0);
+                final int maxBandIndex = min(bandIndex + neighborBandCount, spectralBandCount - 1);
+                // release the buffers which have left the spectral neighborhood
+                if (minBandIndex > 0) {
+                    rciBuffers[minBandIndex - 1] = null;
+                    mskBuffers[minBandIndex - 1] = null;
+                }
+                for (int i = minBandIndex; i <= maxBandIndex; ++i) {
+                    if (rciBuffers[i] == null) {
+                        loadBand(i, sourceRectangle, rciBuffers, mskBuffers);
+                    }
+                }
+                computeDropoutCorrection(bandIndex, minBandIndex, maxBandIndex, rciBuffers, mskBuffers,
+                                         targetTileMap, targetRectangle, sourceRectangle);
+                pm.worked(1);
+            }
+        } finally {
+            pm.done();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        dropoutCorrection = null;
+        sourceRciBands = null;
+        sourceMskBands = null;
+        factorBands = null;
+        targetRciBands = null;
+        targetMskBands = null;
+    }
+
+    /**
+     * Loads the destriped radiances and the mask of a band into compact
+     * buffers with zero scanline offset and a scanline stride equal to the
+     * width of the source rectangle.
+     */
+    private void loadBand(int bandIndex, Rectangle sourceRectangle, int[][] rciBuffers, short[][] mskBuffers)
+            throws OperatorException {
+        final Rectangle factorRectangle = new Rectangle(sourceRectangle.x, 0, sourceRectangle.width, 1);
+
+        final Tile rciTile = getSourceTile(sourceRciBands[bandIndex], sourceRectangle);
+        final Tile mskTile = getSourceTile(sourceMskBands[bandIndex], sourceRectangle);
+        final Tile factorTile = getSourceTile(factorBands[bandIndex], factorRectangle);
+
+        final int[] rciSamples = rciTile.getDataBufferInt();
+        final short[] mskSamples = mskTile.getDataBufferShort();
+        final double[] factorSamples = factorTile.getDataBufferDouble();
+        final int factorOffset = factorTile.getScanlineOffset();
+
+        final int w = sourceRectangle.width;
+        final int[] rci = new int[w * sourceRectangle.height];
+        final short[] msk = new short[w * sourceRectangle.height];
+
+        for (int y = 0; y < sourceRectangle.height; ++y) {
+            final int rciOffset = rciTile.getScanlineOffset() + y * rciTile.getScanlineStride();
+            final int mskOffset = mskTile.getScanlineOffset() + y * mskTile.getScanlineStride();
+
+            for (int x = 0; x < w; ++x) {
+                rci[y * w + x] = (int) (rciSamples[rciOffset + x] * factorSamples[factorOffset + x] + 0.5);
+            }
+            System.arraycopy(mskSamples, mskOffset, msk, y * w, w);
+        }
+
+        rciBuffers[bandIndex] = rci;
+        mskBuffers[bandIndex] = msk;
+    }
+
+    private void computeDropoutCorrection(int bandIndex, int minBandIndex, int maxBandIndex,
+                                          int[][] rciBuffers, short[][] mskBuffers,
+                                          Map<Band, Tile> targetTileMap, Rectangle targetRectangle,
+                                          Rectangle sourceRectangle) {
+        final int bandCount = maxBandIndex - minBandIndex + 1;
+
+        final int[][] sourceRciData = new int[bandCount][];
+        final short[][] sourceMskData = new short[bandCount][];
+
+        sourceRciData[0] = rciBuffers[bandIndex];
+        sourceMskData[0] = mskBuffers[bandIndex];
+
+        for (int i = minBandIndex, j = 1; i <= maxBandIndex; ++i) {
+            if (i != bandIndex) {
+                sourceRciData[j] = rciBuffers[i];
+                sourceMskData[j] = mskBuffers[i];
+                ++j;
+            }
+        }
+
+        final Tile targetRciTile = targetTileMap.get(targetRciBands[bandIndex]);
+        final Tile targetMskTile = targetTileMap.get(targetMskBands[bandIndex]);
+
+        final int targetScanlineStride = targetRciTile.getScanlineStride();
+        final int targetScanlineOffset = targetRciTile.getScanlineOffset();
+
+        Assert.state(targetScanlineOffset == targetMskTile.getScanlineOffset());
+        Assert.state(targetScanlineStride == targetMskTile.getScanlineStride());
+
+        final int[] targetRciData = targetRciTile.getDataBufferInt();
+        final short[] targetMskData = targetMskTile.getDataBufferShort();
+
+        dropoutCorrection.compute(sourceRciData, sourceMskData, sourceRectangle, 0, sourceRectangle.width,
+                                  targetRciData, targetMskData, targetRectangle, targetScanlineOffset,
+                                  targetScanlineStride);
+    }
+
+    public static class Spi extends OperatorSpi {
+
+        public Spi() {
+            super(ReduceNoiseOp.class);
+        }
+    }
+}
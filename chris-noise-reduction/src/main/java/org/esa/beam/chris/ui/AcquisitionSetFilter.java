@@ -15,31 +15,24 @@
  */
 package org.esa.beam.chris.ui;
 
+import org.esa.beam.chris.util.OpUtils;
+
 /**
- * Acquisition set filter.
+ * Acquisition set filter. Products belong to the same acquisition set when
+ * their names differ only in the fourth part, which is the fly-by zenith
+ * angle.
  *
  * @author Ralf Quast
  * @version $Revision$ $Date$
  */
 class AcquisitionSetFilter {
-    private final String referenceName;
+    private final String referenceKey;
 
     public AcquisitionSetFilter(String referenceName) {
-        this.referenceName = referenceName;
+        this.referenceKey = OpUtils.getAcquisitionSetKey(referenceName);
     }
 
     public boolean accept(String name) {
-        if (name == null) {
-            return false;
-        }
-        
-        final String[] referenceNameParts = referenceName.split("_", 5);
-        final String[] nameParts = name.split("_", 5);
-
-        return referenceNameParts.length == 5 && referenceNameParts.length == nameParts.length &&
-                referenceNameParts[0].equals(nameParts[0]) &&
-                referenceNameParts[1].equals(nameParts[1]) &&
-                referenceNameParts[2].equals(nameParts[2]) &&
-                referenceNameParts[4].equals(nameParts[4]);
+        return referenceKey != null && referenceKey.equals(OpUtils.getAcquisitionSetKey(name));
     }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.ui;
+
+import org.esa.beam.dataio.chris.ChrisConstants;
+import org.esa.beam.util.SystemUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Index of the CHRIS header attributes of the files in a directory.
+ * <p/>
+ * The index of a directory is kept in memory and persisted in an index
+ * directory, so that the products of an acquisition set can be discovered
+ * without reading any product. The modification time of each file is
+ * checked on every lookup, because files rewritten in place do not change
+ * the modification time of the directory. Only the headers of new or
+ * modified files are read.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+class AcquisitionSetIndex {
+
+    private static final String PROPERTY_DIRECTORY = "directory";
+    private static final String FILE_PREFIX = "file.";
+    private static final char SEPARATOR = '\t';
+
+    private final File indexDirectory;
+    private final Map<File, DirectoryIndex> indexMap;
+
+    /**
+     * Returns the default index directory.
+     *
+     * @return the default index directory.
+     */
+    static File getDefaultDirectory() {
+        return new File(SystemUtils.getApplicationDataDir(), "chris-box/acquisition-set-index");
+    }
+
+    /**
+     * Creates a new index.
+     *
+     * @param indexDirectory the directory where the index of each directory
+     *                       is persisted, or {@code null} if the index is
+     *                       kept in memory only.
+     */
+    AcquisitionSetIndex(File indexDirectory) {
+        this.indexDirectory = indexDirectory;
+        indexMap = new HashMap<File, DirectoryIndex>();
+    }
+
+    /**
+     * Returns the headers of those CHRIS files in a directory which are
+     * accepted by a file filter. Files which are not CHRIS files are
+     * omitted.
+     *
+     * @param directory the directory.
+     * @param filter    the file filter.
+     *
+     * @return the mapping of files onto headers.
+     */
+    synchronized Map<File, ChrisHeader> getHeaders(File directory, FileFilter filter) {
+        final DirectoryIndex index = getIndex(directory);
+        final Map<File, ChrisHeader> headerMap = new HashMap<File, ChrisHeader>();
+
+        for (final Map.Entry<String, Entry> entry : index.entryMap.entrySet()) {
+            final File file = new File(directory, entry.getKey());
+            final ChrisHeader header = entry.getValue().header;
+            if (header != null && filter.accept(file)) {
+                headerMap.put(file, header);
+            }
+        }
+
+        return headerMap;
+    }
+
+    ChrisHeader readHeader(File file) throws IOException {
+        return ChrisHeader.read(file);
+    }
+
+    private DirectoryIndex getIndex(File directory) {
+        DirectoryIndex index = indexMap.get(directory);
+        if (index == null) {
+            index = loadIndex(directory);
+        }
+        // a stat per file, the headers of unmodified files are not read again. Their
+        // entries are reused, so the entry maps differ only when a file has been
+        // added, removed or modified
+        final DirectoryIndex newIndex = createIndex(directory, index);
+        if (index == null || !newIndex.entryMap.equals(index.entryMap)) {
+            storeIndex(directory, newIndex);
+        }
+        indexMap.put(directory, newIndex);
+
+        return newIndex;
+    }
+
+    private DirectoryIndex createIndex(File directory, DirectoryIndex oldIndex) {
+        final DirectoryIndex index = new DirectoryIndex();
+        final File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() &&
+                       file.getName().toLowerCase().endsWith(ChrisConstants.DEFAULT_FILE_EXTENSION.toLowerCase());
+            }
+        });
+        if (files == null) {
+            return index;
+        }
+        for (final File file : files) {
+            final String name = file.getName();
+            final long fileLastModified = file.lastModified();
+
+            Entry entry = oldIndex != null ? oldIndex.entryMap.get(name) : null;
+            if (entry == null || entry.lastModified != fileLastModified) {
+                ChrisHeader header;
+                try {
+                    header = readHeader(file);
+                } catch (IOException e) {
+                    // not a CHRIS file, which is recorded in order to avoid reading it again
+                    header = null;
+                }
+                entry = new Entry(fileLastModified, header);
+            }
+            index.entryMap.put(name, entry);
+        }
+
+        return index;
+    }
+
+    private DirectoryIndex loadIndex(File directory) {
+        final File indexFile = getIndexFile(directory);
+        if (indexFile == null || !indexFile.isFile()) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try {
+            final InputStream is = new FileInputStream(indexFile);
+            try {
+                properties.load(is);
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (!directory.getAbsolutePath().equals(properties.getProperty(PROPERTY_DIRECTORY))) {
+            return null;
+        }
+
+        try {
+            final DirectoryIndex index = new DirectoryIndex();
+            for (final String key : properties.stringPropertyNames()) {
+                if (key.startsWith(FILE_PREFIX)) {
+                    final String[] values = properties.getProperty(key).split(String.valueOf(SEPARATOR), -1);
+                    final long lastModified = Long.parseLong(values[0]);
+                    final ChrisHeader header;
+                    if (values.length == 5) {
+                        header = new ChrisHeader(values[1], values[2], values[3], values[4]);
+                    } else {
+                        header = null;
+                    }
+                    index.entryMap.put(key.substring(FILE_PREFIX.length()), new Entry(lastModified, header));
+                }
+            }
+            return index;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void storeIndex(File directory, DirectoryIndex index) {
+        final File indexFile = getIndexFile(directory);
+        if (indexFile == null) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(PROPERTY_DIRECTORY, directory.getAbsolutePath());
+        for (final Map.Entry<String, Entry> entry : index.entryMap.entrySet()) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(entry.getValue().lastModified);
+            final ChrisHeader header = entry.getValue().header;
+            if (header != null) {
+                sb.append(SEPARATOR).append(header.getMode());
+                sb.append(SEPARATOR).append(header.getTargetName());
+                sb.append(SEPARATOR).append(header.getImageDate());
+                sb.append(SEPARATOR).append(header.getFlyByZenithAngle());
+            }
+            properties.setProperty(FILE_PREFIX + entry.getKey(), sb.toString());
+        }
+
+        try {
+            if (!indexDirectory.isDirectory() && !indexDirectory.mkdirs()) {
+                return;
+            }
+            final OutputStream os = new FileOutputStream(indexFile);
+            try {
+                properties.store(os, "CHRIS acquisition set index");
+            } finally {
+                os.close();
+            }
+        } catch (IOException e) {
+            // ignore - the index is kept in memory anyway
+        }
+    }
+
+    private File getIndexFile(File directory) {
+        if (indexDirectory == null) {
+            return null;
+        }
+        final String name = Integer.toHexString(directory.getAbsolutePath().hashCode());
+
+        return new File(indexDirectory, name + ".properties");
+    }
+
+    private static class DirectoryIndex {
+
+        private final Map<String, Entry> entryMap;
+
+        private DirectoryIndex() {
+            entryMap = new HashMap<String, Entry>();
+        }
+    }
+
+    private static class Entry {
+
+        private final long lastModified;
+        private final ChrisHeader header;
+
+        private Entry(long lastModified, ChrisHeader header) {
+            this.lastModified = lastModified;
+            this.header = header;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.esa.beam.framework.ui.AppContext;
 import java.io.File;
 import java.io.IOException;
 import java.util.Comparator;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -33,6 +34,9 @@ import java.util.TreeSet;
  */
 class AcquisitionSetProvider {
 
+    private static final AcquisitionSetIndex INDEX =
+            new AcquisitionSetIndex(AcquisitionSetIndex.getDefaultDirectory());
+
     public Product[] getAcquisitionSet(AppContext appContext) {
         final SortedSet<Product> acquisitionSet = new TreeSet<Product>(
                 new Comparator<Product>() {
@@ -60,20 +64,31 @@ class AcquisitionSetProvider {
             final File parent = selectedFile.getParentFile();
 
             if (parent != null && parent.isDirectory()) {
-                final File[] files = parent.listFiles(
-                        new AcquisitionSetFileFilter(selectedProduct.getFileLocation()));
+                // only the headers are compared, only the products of the acquisition set are read
+                final Map<File, ChrisHeader> headerMap =
+                        INDEX.getHeaders(parent, new AcquisitionSetFileFilter(selectedFile));
+                final ChrisHeader selectedHeader = headerMap.get(selectedFile);
 
                 search:
-                for (final File file : files) {
-                    try {
-                        for (final Product product : acquisitionSet) {
-                            if (file.equals(product.getFileLocation())) {
-                                continue search;
-                            }
+                for (final Map.Entry<File, ChrisHeader> entry : headerMap.entrySet()) {
+                    final File file = entry.getKey();
+                    if (selectedHeader != null && !selectedHeader.isSameAcquisitionSet(entry.getValue())) {
+                        continue;
+                    }
+                    for (final Product product : acquisitionSet) {
+                        if (file.equals(product.getFileLocation())) {
+                            continue search;
                         }
+                    }
+                    try {
                         final Product product = ProductIO.readProduct(file);
+                        if (product == null) {
+                            continue;
+                        }
                         if (product.getProductType().equals(selectedProduct.getProductType())) {
                             acquisitionSet.add(product);
+                        } else {
+                            product.dispose();
                         }
                     } catch (IOException e) {
                         // ignore - we acquire products silently
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.ui;
+
+import ncsa.hdf.hdflib.HDFConstants;
+import ncsa.hdf.hdflib.HDFException;
+import ncsa.hdf.hdflib.HDFLibrary;
+import org.esa.beam.dataio.chris.ChrisConstants;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The CHRIS header attributes needed for discovering the products of an
+ * acquisition set. The attributes are read from the global attributes of
+ * a CHRIS HDF file without creating a product.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+class ChrisHeader {
+
+    private final String mode;
+    private final String targetName;
+    private final String imageDate;
+    private final String flyByZenithAngle;
+
+    ChrisHeader(String mode, String targetName, String imageDate, String flyByZenithAngle) {
+        this.mode = mode;
+        this.targetName = targetName;
+        this.imageDate = imageDate;
+        this.flyByZenithAngle = flyByZenithAngle;
+    }
+
+    /**
+     * Reads the header attributes of a CHRIS HDF file.
+     *
+     * @param file the file.
+     *
+     * @return the header attributes.
+     *
+     * @throws IOException if the file is not a CHRIS HDF file or the header
+     *                     attributes could not be read.
+     */
+    static ChrisHeader read(File file) throws IOException {
+        try {
+            final int sdId = HDFLibrary.SDstart(file.getPath(), HDFConstants.DFACC_RDONLY);
+            if (sdId == HDFConstants.FAIL) {
+                throw new IOException("Cannot open file '" + file + "'.");
+            }
+            try {
+                return new ChrisHeader(readAttribute(sdId, ChrisConstants.ATTR_NAME_CHRIS_MODE),
+                                       readAttribute(sdId, ChrisConstants.ATTR_NAME_TARGET_NAME),
+                                       readAttribute(sdId, ChrisConstants.ATTR_NAME_IMAGE_DATE),
+                                       readAttribute(sdId, ChrisConstants.ATTR_NAME_FLY_BY_ZENITH_ANGLE));
+            } finally {
+                HDFLibrary.SDend(sdId);
+            }
+        } catch (HDFException e) {
+            throw new IOException("Cannot read file '" + file + "'.", e);
+        }
+    }
+
+    final String getMode() {
+        return mode;
+    }
+
+    final String getTargetName() {
+        return targetName;
+    }
+
+    final String getImageDate() {
+        return imageDate;
+    }
+
+    final String getFlyByZenithAngle() {
+        return flyByZenithAngle;
+    }
+
+    /**
+     * Returns {@code true} if this header and another header belong to
+     * products of the same acquisition set.
+     *
+     * @param other the other header.
+     *
+     * @return {@code true} if both headers belong to the same acquisition set.
+     */
+    final boolean isSameAcquisitionSet(ChrisHeader other) {
+        return mode.equals(other.mode) && targetName.equals(other.targetName) && imageDate.equals(other.imageDate);
+    }
+
+    private static String readAttribute(int sdId, String name) throws HDFException, IOException {
+        final int index = HDFLibrary.SDfindattr(sdId, name);
+        if (index == HDFConstants.FAIL) {
+            throw new IOException("Cannot find attribute '" + name + "'.");
+        }
+        final String[] names = new String[]{""};
+        final int[] info = new int[2];
+        if (!HDFLibrary.SDattrinfo(sdId, index, names, info)) {
+            throw new IOException("Cannot read attribute '" + name + "'.");
+        }
+        final int type = info[0] & ~HDFConstants.DFNT_LITEND;
+        if (type != HDFConstants.DFNT_CHAR8 && type != HDFConstants.DFNT_UCHAR8) {
+            throw new IOException("Attribute '" + name + "' is not a character string.");
+        }
+        final byte[] bytes = new byte[info[1]];
+        if (!HDFLibrary.SDreadattr(sdId, index, bytes)) {
+            throw new IOException("Cannot read attribute '" + name + "'.");
+        }
+
+        int length = 0;
+        while (length < bytes.length && bytes[length] != 0) {
+            ++length;
+        }
+
+        return new String(bytes, 0, length, "US-ASCII").trim();
+    }
+}
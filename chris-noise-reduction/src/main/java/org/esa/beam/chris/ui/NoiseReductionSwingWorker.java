@@ -18,17 +18,20 @@ package org.esa.beam.chris.ui;
 import com.bc.ceres.core.ProgressMonitor;
 import com.bc.ceres.core.SubProgressMonitor;
 import com.bc.ceres.swing.progress.ProgressMonitorSwingWorker;
+import org.esa.beam.chris.operators.ComputeDestripingFactorsOp;
+import org.esa.beam.chris.operators.DestripingFactorsCache;
+import org.esa.beam.chris.operators.PipelinedProductWriter;
+import org.esa.beam.chris.util.OpUtils;
+import org.esa.beam.dataio.chris.ChrisConstants;
 import org.esa.beam.framework.dataio.ProductIO;
 import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.gpf.GPF;
-import org.esa.beam.framework.gpf.OperatorException;
 import org.esa.beam.framework.ui.AppContext;
-import org.esa.beam.gpf.operators.standard.WriteOp;
 import org.esa.beam.util.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -102,44 +105,79 @@ class NoiseReductionSwingWorker extends ProgressMonitorSwingWorker<Object, Produ
 
     @Override
     protected Object doInBackground(ProgressMonitor pm) throws Exception {
-        Product destripingFactorsProduct = null;
+        final List<Product> targetProductList = new ArrayList<Product>();
 
         try {
-            pm.beginTask("Performing noise reduction...", 50 + sourceProductTargetFileMap.size() * 10);
-            destripingFactorsProduct = GPF.createProduct("chris.ComputeDestripingFactors",
-                                                         destripingFactorsParameterMap,
-                                                         destripingFactorsSourceProducts);
+            pm.beginTask("Performing noise reduction...", 100);
 
-            try {
-                WriteOp writeOp = new WriteOp(destripingFactorsProduct, destripingFactorsTargetFile, targetFormatName);
-                writeOp.setWriteEntireTileRows(true);
-                writeOp.writeProduct(new SubProgressMonitor(pm, 50));
-            } finally {
-                destripingFactorsProduct.dispose();
-                for (final Product sourceProduct : destripingFactorsSourceProducts) {
-                    if (!sourceProductTargetFileMap.keySet().contains(sourceProduct)) {
-                        disposeSourceProductIfNotUsedInAppContext(sourceProduct);
-                    }
+            final DestripingFactorsCache cache =
+                    new DestripingFactorsCache(DestripingFactorsCache.getDefaultDirectory());
+            final String[] checksums = computeChecksums(destripingFactorsSourceProducts);
+            final int smoothingOrder = getSmoothingOrder();
+            final boolean slitCorrection = getSlitCorrection();
+            final String temperature = OpUtils.getAnnotationString(destripingFactorsSourceProducts[0],
+                                                                   ChrisConstants.ATTR_NAME_CHRIS_TEMPERATURE);
+
+            Product destripingFactorsProduct = null;
+            if (checksums != null) {
+                final File cachedFile = cache.find(
+                        DestripingFactorsCache.createKey(checksums, smoothingOrder, slitCorrection, temperature));
+                if (cachedFile != null) {
+                    // the destriping factors of the acquisition set have been computed before
+                    destripingFactorsProduct = readCachedProduct(cachedFile);
                 }
             }
-
-            try {
-                destripingFactorsProduct = ProductIO.readProduct(destripingFactorsTargetFile);
-            } catch (IOException e) {
-                throw new OperatorException(MessageFormat.format(
-                        "Cannot read file ''{0}''.", destripingFactorsTargetFile), e);
+            final boolean cached = destripingFactorsProduct != null;
+            if (!cached) {
+                destripingFactorsProduct = GPF.createProduct("chris.ComputeDestripingFactors",
+                                                             destripingFactorsParameterMap,
+                                                             destripingFactorsSourceProducts);
             }
 
+            // the destriping factors are written along with the noise-reduced products
+            final File[] targetFiles = new File[sourceProductTargetFileMap.size() + 1];
+            targetProductList.add(destripingFactorsProduct);
+            targetFiles[0] = destripingFactorsTargetFile;
             for (final Map.Entry<Product, File> entry : sourceProductTargetFileMap.entrySet()) {
                 final Product sourceProduct = entry.getKey();
                 final File targetFile = entry.getValue();
 
-                performNoiseReduction(sourceProduct, destripingFactorsProduct, targetFile,
-                                      new SubProgressMonitor(pm, 10));
+                final Product targetProduct = createNoiseReducedProduct(sourceProduct, destripingFactorsProduct);
+                targetProduct.setName(FileUtils.getFilenameWithoutExtension(targetFile));
+                targetFiles[targetProductList.size()] = targetFile;
+                targetProductList.add(targetProduct);
+            }
+            final int threadCount = Runtime.getRuntime().availableProcessors();
+            final PipelinedProductWriter writer = new PipelinedProductWriter(threadCount, 2 * threadCount);
+            writer.writeProducts(targetProductList.toArray(new Product[targetProductList.size()]), targetFiles,
+                                 targetFormatName, new SubProgressMonitor(pm, 90));
+
+            if (checksums != null && !cached) {
+                putIntoCache(cache, checksums, smoothingOrder, slitCorrection, temperature,
+                             new SubProgressMonitor(pm, 5));
+            } else {
+                pm.worked(5);
+            }
+            if (addTargetProductsToAppContext) {
+                for (final File targetFile : sourceProductTargetFileMap.values()) {
+                    final Product product = ProductIO.readProduct(targetFile);
+                    if (product != null) {
+                        publish(product);
+                    }
+                }
             }
+            pm.worked(5);
         } finally {
-            if (destripingFactorsProduct != null) {
-                destripingFactorsProduct.dispose();
+            for (final Product targetProduct : targetProductList) {
+                targetProduct.dispose();
+            }
+            for (final Product sourceProduct : destripingFactorsSourceProducts) {
+                if (!sourceProductTargetFileMap.keySet().contains(sourceProduct)) {
+                    disposeSourceProductIfNotUsedInAppContext(sourceProduct);
+                }
+            }
+            for (final Product sourceProduct : sourceProductTargetFileMap.keySet()) {
+                disposeSourceProductIfNotUsedInAppContext(sourceProduct);
             }
             pm.done();
         }
@@ -167,57 +205,89 @@ class NoiseReductionSwingWorker extends ProgressMonitorSwingWorker<Object, Produ
         }
     }
 
-    private void performNoiseReduction(Product sourceProduct,
-                                       Product destripingFactorsProduct,
-                                       File targetFile,
-                                       ProgressMonitor pm) throws IOException {
+    private Product createNoiseReducedProduct(Product sourceProduct, Product destripingFactorsProduct) {
         final HashMap<String, Product> sourceProductMap = new HashMap<String, Product>(5);
         sourceProductMap.put("sourceProduct", sourceProduct);
         sourceProductMap.put("factorProduct", destripingFactorsProduct);
 
-        Product destripedProduct = null;
+        // destriping and dropout correction are carried out by a single operator
+        return GPF.createProduct("chris.ReduceNoise", dropoutCorrectionParameterMap, sourceProductMap);
+    }
 
+    private void putIntoCache(DestripingFactorsCache cache, String[] checksums, int smoothingOrder,
+                              boolean slitCorrection, String temperature, ProgressMonitor pm) {
+        // the noise reduction does not depend on the cache, so any failure is ignored
+        Product writtenProduct = null;
         try {
-            destripedProduct = GPF.createProduct("chris.ApplyDestripingFactors",
-                                                 new HashMap<String, Object>(0),
-                                                 sourceProductMap);
-            final Product dropoutCorrectedProduct = GPF.createProduct("chris.CorrectDropouts",
-                                                                      dropoutCorrectionParameterMap,
-                                                                      destripedProduct);
-
-            dropoutCorrectedProduct.setName(FileUtils.getFilenameWithoutExtension(targetFile));
-            writeProduct(dropoutCorrectedProduct, targetFile, addTargetProductsToAppContext, pm);
+            writtenProduct = ProductIO.readProduct(destripingFactorsTargetFile);
+            if (writtenProduct != null) {
+                cache.put(checksums, smoothingOrder, slitCorrection, temperature, writtenProduct, pm);
+            }
+        } catch (IOException e) {
+            // ignore
+        } catch (RuntimeException e) {
+            // ignore
         } finally {
-            if (destripedProduct != null) {
-                destripedProduct.dispose();
+            if (writtenProduct != null) {
+                writtenProduct.dispose();
             }
-            disposeSourceProductIfNotUsedInAppContext(sourceProduct);
+            pm.done();
         }
     }
 
-    private void writeProduct(final Product targetProduct, final File targetFile, boolean openInApp,
-                              ProgressMonitor pm) throws IOException {
-        try {
-            pm.beginTask("Writing " + targetProduct.getName() + "...", openInApp ? 100 : 95);
-
+    /**
+     * Computes the checksums of the product files used for calculating the
+     * destriping factors.
+     *
+     * @return the checksums, or {@code null} if a product has no file location
+     *         or a product file could not be read.
+     */
+    private String[] computeChecksums(Product[] products) {
+        final String[] checksums = new String[products.length];
+        for (int i = 0; i < products.length; i++) {
+            final File file = products[i].getFileLocation();
+            if (file == null) {
+                return null;
+            }
             try {
-                WriteOp writeOp = new WriteOp(targetProduct, targetFile, targetFormatName);
-                writeOp.setWriteEntireTileRows(true);
-                writeOp.writeProduct(new SubProgressMonitor(pm, 50));
-            } finally {
-                targetProduct.dispose();
+                checksums[i] = DestripingFactorsCache.computeChecksum(file);
+            } catch (IOException e) {
+                // the cache is not used, the noise reduction does not depend on it
+                return null;
             }
+        }
 
-            if (openInApp) {
-                final Product product = ProductIO.readProduct(targetFile);
-                if (product != null) {
-                    publish(product);
-                }
-                pm.worked(5);
-            }
-        } finally {
-            pm.done();
+        return checksums;
+    }
+
+    /**
+     * Reads the destriping factors product of a cache entry.
+     *
+     * @return the destriping factors product, or {@code null} if the cache
+     *         entry could not be read.
+     */
+    private static Product readCachedProduct(File cachedFile) {
+        try {
+            return ProductIO.readProduct(cachedFile);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private int getSmoothingOrder() {
+        final Object value = destripingFactorsParameterMap.get("smoothingOrder");
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return ComputeDestripingFactorsOp.DEFAULT_SMOOTHING_ORDER;
+    }
+
+    private boolean getSlitCorrection() {
+        final Object value = destripingFactorsParameterMap.get("slitCorrection");
+        if (value instanceof Boolean) {
+            return (Boolean) value;
         }
+        return ComputeDestripingFactorsOp.DEFAULT_SLIT_CORRECTION;
     }
 
     private void disposeSourceProductIfNotUsedInAppContext(Product sourceProduct) {
@@ -21,7 +21,9 @@ import junit.framework.TestCase;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
+import java.util.Random;
 import java.util.Scanner;
 
 /**
@@ -32,6 +34,26 @@ import java.util.Scanner;
  */
 public class ComputeDestripingFactorsOpTest extends TestCase {
 
+    public void testSelect() {
+        final Random random = new Random(5489);
+
+        for (int n = 1; n < 200; ++n) {
+            final float[] values = new float[n];
+            for (int i = 0; i < n; ++i) {
+                // include duplicates
+                values[i] = random.nextInt(n / 2 + 1);
+            }
+            final float[] sorted = values.clone();
+            Arrays.sort(sorted);
+
+            final int minIndex = (int) (0.60 * n);
+            final int maxIndex = (int) (0.80 * n);
+
+            assertEquals(sorted[minIndex], ComputeDestripingFactorsOp.select(values, 0, n, minIndex));
+            assertEquals(sorted[maxIndex], ComputeDestripingFactorsOp.select(values, minIndex, n, maxIndex));
+        }
+    }
+
     public void testSlitVsProfileTableIntegrity() throws IOException {
         // too costly for a routine test
         // assertSlitVsProfileTableIntegrity();
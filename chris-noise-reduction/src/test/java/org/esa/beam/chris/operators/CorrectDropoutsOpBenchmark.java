@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import org.esa.beam.chris.util.OpUtils;
+import org.esa.beam.dataio.chris.ChrisConstants;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.gpf.GPF;
+import org.esa.beam.framework.gpf.OperatorSpi;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmark for class {@link CorrectDropoutsOp}.
+ * <p/>
+ * Carries out the dropout correction for a synthetic mode 1 product with
+ * 62 spectral bands and a neighbor band count of 1 to 5. Not run as part
+ * of the unit tests.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class CorrectDropoutsOpBenchmark {
+
+    private static final int WIDTH = 372;
+    private static final int HEIGHT = 374;
+    private static final int BAND_COUNT = 62;
+    private static final int RUN_COUNT = 5;
+
+    public static void main(String[] args) {
+        final OperatorSpi spi = new CorrectDropoutsOp.Spi();
+        GPF.getDefaultInstance().getOperatorSpiRegistry().addOperatorSpi(spi);
+
+        try {
+            final Product sourceProduct = createSourceProduct(new Random(5489));
+
+            for (int neighborBandCount = 1; neighborBandCount <= 5; ++neighborBandCount) {
+                // warm up
+                run(sourceProduct, neighborBandCount);
+
+                long time = 0;
+                for (int i = 0; i < RUN_COUNT; ++i) {
+                    time += run(sourceProduct, neighborBandCount);
+                }
+                System.out.printf("neighborBandCount = %d: %d ms%n", neighborBandCount, time / RUN_COUNT);
+            }
+        } finally {
+            GPF.getDefaultInstance().getOperatorSpiRegistry().removeOperatorSpi(spi);
+        }
+    }
+
+    private static long run(Product sourceProduct, int neighborBandCount) {
+        final Map<String, Object> parameterMap = new HashMap<String, Object>();
+        parameterMap.put("neighborBandCount", neighborBandCount);
+
+        final Product targetProduct = GPF.createProduct("chris.CorrectDropouts", parameterMap, sourceProduct);
+        try {
+            final long start = System.currentTimeMillis();
+            for (final Band band : targetProduct.getBands()) {
+                band.getSourceImage().getData();
+            }
+            return System.currentTimeMillis() - start;
+        } finally {
+            targetProduct.dispose();
+        }
+    }
+
+    private static Product createSourceProduct(Random random) {
+        final Product product = new Product("CHRIS_M1", "CHRIS_M1", WIDTH, HEIGHT);
+        OpUtils.setAnnotationString(product, ChrisConstants.ATTR_NAME_CHRIS_MODE, "1");
+        OpUtils.setAnnotationString(product, ChrisConstants.ATTR_NAME_NUMBER_OF_BANDS, String.valueOf(BAND_COUNT));
+
+        for (int i = 0; i < BAND_COUNT; ++i) {
+            final int[] rci = new int[WIDTH * HEIGHT];
+            for (int j = 0; j < rci.length; ++j) {
+                rci[j] = 1000 + random.nextInt(100);
+            }
+            final Band rciBand = product.addBand("radiance_" + (i + 1), ProductData.TYPE_INT32);
+            rciBand.setSynthetic(true);
+            rciBand.setRasterData(ProductData.createInstance(rci));
+        }
+        for (int i = 0; i < BAND_COUNT; ++i) {
+            final short[] msk = new short[WIDTH * HEIGHT];
+            for (int j = 0; j < msk.length; ++j) {
+                // about one percent of dropouts
+                if (random.nextInt(100) == 0) {
+                    msk[j] = 1;
+                }
+            }
+            final Band mskBand = product.addBand("mask_" + (i + 1), ProductData.TYPE_INT16);
+            mskBand.setSynthetic(true);
+            mskBand.setRasterData(ProductData.createInstance(msk));
+        }
+
+        return product;
+    }
+}
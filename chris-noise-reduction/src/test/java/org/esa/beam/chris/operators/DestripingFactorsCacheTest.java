@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.util.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Tests for class {@link DestripingFactorsCache}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class DestripingFactorsCacheTest extends TestCase {
+
+    public void testCreateKey() {
+        final String key = DestripingFactorsCache.createKey(new String[]{"a", "b"}, 27, true, "5.0");
+
+        assertEquals(40, key.length());
+        // the key does not depend on the order of the checksums
+        assertEquals(key, DestripingFactorsCache.createKey(new String[]{"b", "a"}, 27, true, "5.0"));
+
+        assertFalse(key.equals(DestripingFactorsCache.createKey(new String[]{"a"}, 27, true, "5.0")));
+        assertFalse(key.equals(DestripingFactorsCache.createKey(new String[]{"a", "b"}, 29, true, "5.0")));
+        assertFalse(key.equals(DestripingFactorsCache.createKey(new String[]{"a", "b"}, 27, false, "5.0")));
+        assertFalse(key.equals(DestripingFactorsCache.createKey(new String[]{"a", "b"}, 27, true, "5.5")));
+    }
+
+    public void testComputeChecksum() throws IOException {
+        final File file = File.createTempFile("DestripingFactorsCacheTest", null);
+        try {
+            final OutputStream os = new FileOutputStream(file);
+            try {
+                os.write("abc".getBytes("US-ASCII"));
+            } finally {
+                os.close();
+            }
+            assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", DestripingFactorsCache.computeChecksum(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testFindInMissingDirectory() {
+        final DestripingFactorsCache cache = new DestripingFactorsCache(new File("does/not/exist"));
+
+        assertNull(cache.find("key"));
+        assertNull(cache.findByMember("a", 27, true, "5.0"));
+    }
+
+    public void testPutAndFind() throws IOException {
+        final File directory = File.createTempFile("DestripingFactorsCacheTest", null);
+        assertTrue(directory.delete());
+        try {
+            final DestripingFactorsCache cache = new DestripingFactorsCache(directory);
+            final String[] checksums = {"a", "b"};
+
+            final Product factorProduct = new Product("CHRIS_VSC", "CHRIS_VSC", 3, 1);
+            final Band band = factorProduct.addBand("vs_corr_1", ProductData.TYPE_FLOAT64);
+            band.setRasterData(ProductData.createInstance(new double[]{0.9, 1.0, 1.1}));
+
+            final File productFile = cache.put(checksums, 27, true, "5.0", factorProduct, ProgressMonitor.NULL);
+            assertNotNull(productFile);
+            assertTrue(productFile.isFile());
+
+            assertEquals(productFile, cache.find(DestripingFactorsCache.createKey(checksums, 27, true, "5.0")));
+            assertEquals(productFile, cache.find(DestripingFactorsCache.createKey(new String[]{"b", "a"}, 27,
+                                                                                 true, "5.0")));
+            assertNull(cache.find(DestripingFactorsCache.createKey(checksums, 29, true, "5.0")));
+
+            // the entry is found for each member of the acquisition set
+            assertEquals(productFile, cache.findByMember("a", 27, true, "5.0"));
+            assertEquals(productFile, cache.findByMember("b", 27, true, "5.0"));
+            assertNull(cache.findByMember("c", 27, true, "5.0"));
+            assertNull(cache.findByMember("a", 29, true, "5.0"));
+            assertNull(cache.findByMember("a", 27, false, "5.0"));
+            assertNull(cache.findByMember("a", 27, true, "5.5"));
+
+            // putting the same entry again yields the existing entry
+            assertEquals(productFile, cache.put(checksums, 27, true, "5.0", factorProduct, ProgressMonitor.NULL));
+        } finally {
+            FileUtils.deleteTree(directory);
+        }
+    }
+}
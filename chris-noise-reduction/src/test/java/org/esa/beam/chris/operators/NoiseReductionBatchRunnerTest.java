@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for class {@link NoiseReductionBatchRunner}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class NoiseReductionBatchRunnerTest extends TestCase {
+
+    public void testGroupAcquisitionSets() {
+        final File a1 = new File("CHRIS_BR_060523_3B3E_41.hdf");
+        final File a2 = new File("CHRIS_BR_060523_3B3F_41.hdf");
+        final File b1 = new File("CHRIS_BR_060524_3B40_41.hdf");
+        final File c1 = new File("other.hdf");
+
+        final List<List<File>> setList = NoiseReductionBatchRunner.groupAcquisitionSets(Arrays.asList(a1, b1, c1, a2));
+
+        assertEquals(3, setList.size());
+        assertEquals(Arrays.asList(a1, a2), setList.get(0));
+        assertEquals(Arrays.asList(b1), setList.get(1));
+        assertEquals(Arrays.asList(c1), setList.get(2));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import junit.framework.TestCase;
+import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.gpf.operators.standard.WriteOp;
+import org.esa.beam.util.io.FileUtils;
+
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests for class {@link PipelinedProductWriter}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class PipelinedProductWriterTest extends TestCase {
+
+    private static final int W = 5;
+    private static final int H = 37;
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("PipelinedProductWriterTest", null);
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteTree(directory);
+    }
+
+    public void testWriteProducts() throws IOException {
+        final Product[] products = {createTestProduct("product_1", 0), createTestProduct("product_2", 1000)};
+        final Product[] expectedProducts = {createTestProduct("product_1", 0), createTestProduct("product_2", 1000)};
+        final File[] files = {new File(directory, "product_1.dim"), new File(directory, "product_2.dim")};
+        final File[] expectedFiles = {new File(directory, "expected_1.dim"), new File(directory, "expected_2.dim")};
+
+        // more compute threads than strips in the queue, so strips are completed out of row order
+        new PipelinedProductWriter(4, 2).writeProducts(products, files, "BEAM-DIMAP", ProgressMonitor.NULL);
+        for (int i = 0; i < products.length; ++i) {
+            new WriteOp(expectedProducts[i], expectedFiles[i], "BEAM-DIMAP").writeProduct(ProgressMonitor.NULL);
+        }
+
+        for (int i = 0; i < products.length; ++i) {
+            assertEqualBands(expectedFiles[i], files[i]);
+        }
+    }
+
+    private static void assertEqualBands(File expectedFile, File actualFile) throws IOException {
+        final Product expectedProduct = ProductIO.readProduct(expectedFile);
+        final Product actualProduct = ProductIO.readProduct(actualFile);
+        assertNotNull(expectedProduct);
+        assertNotNull(actualProduct);
+
+        try {
+            assertEquals(2, expectedProduct.getNumBands());
+            assertEquals(2, actualProduct.getNumBands());
+            for (final Band expectedBand : expectedProduct.getBands()) {
+                final Band actualBand = actualProduct.getBand(expectedBand.getName());
+                assertNotNull(actualBand);
+                assertEquals(expectedBand.getDataType(), actualBand.getDataType());
+
+                final Raster expectedData = expectedBand.getSourceImage().getData();
+                final Raster actualData = actualBand.getSourceImage().getData();
+                for (int y = 0; y < H; ++y) {
+                    for (int x = 0; x < W; ++x) {
+                        assertEquals(expectedData.getSampleDouble(x, y, 0), actualData.getSampleDouble(x, y, 0));
+                    }
+                }
+            }
+        } finally {
+            expectedProduct.dispose();
+            actualProduct.dispose();
+        }
+    }
+
+    private static Product createTestProduct(String name, int offset) {
+        final Product product = new Product(name, "CHRIS_M1_NR", W, H);
+        // the last strip is not complete
+        product.setPreferredTileSize(W, 4);
+
+        final short[] shorts = new short[W * H];
+        final float[] floats = new float[W * H];
+        for (int i = 0; i < shorts.length; ++i) {
+            shorts[i] = (short) (offset + i);
+            floats[i] = 0.5f * (offset + i);
+        }
+        addSourceBand(product, "radiance_1", ProductData.createInstance(shorts));
+        addSourceBand(product, "radiance_2", ProductData.createInstance(floats));
+
+        return product;
+    }
+
+    private static void addSourceBand(Product product, String name, ProductData data) {
+        final Band band = product.addBand(name, data.getType());
+        band.setRasterData(data);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.chris.util.OpUtils;
+import org.esa.beam.dataio.chris.ChrisConstants;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.awt.image.Raster;
+import java.util.Random;
+
+/**
+ * Tests for class {@link ReduceNoiseOp}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class ReduceNoiseOpTest extends TestCase {
+
+    private static final int W = 12;
+    // more than two strips of 16 lines
+    private static final int H = 40;
+    private static final int BAND_COUNT = 4;
+
+    public void testEqualsDestripingFollowedByDropoutCorrection() {
+        final Random random = new Random(5489);
+        final Product sourceProduct = createSourceProduct(random);
+        final Product factorProduct = createFactorProduct(random);
+
+        final ReduceNoiseOp reduceNoiseOp = new ReduceNoiseOp();
+        reduceNoiseOp.setSourceProduct("input", sourceProduct);
+        reduceNoiseOp.setSourceProduct("factors", factorProduct);
+        final Product reducedProduct = reduceNoiseOp.getTargetProduct();
+
+        final ApplyDestripingFactorsOp applyOp = new ApplyDestripingFactorsOp();
+        applyOp.setSourceProduct("input", sourceProduct);
+        applyOp.setSourceProduct("factors", factorProduct);
+        final CorrectDropoutsOp correctOp = new CorrectDropoutsOp();
+        correctOp.setSourceProduct("input", applyOp.getTargetProduct());
+        final Product correctedProduct = correctOp.getTargetProduct();
+
+        for (int i = 1; i <= BAND_COUNT; ++i) {
+            assertEqualSamples(correctedProduct.getBand("radiance_" + i), reducedProduct.getBand("radiance_" + i));
+            assertEqualSamples(correctedProduct.getBand("mask_" + i), reducedProduct.getBand("mask_" + i));
+        }
+    }
+
+    private static void assertEqualSamples(Band expectedBand, Band actualBand) {
+        final Raster expected = expectedBand.getSourceImage().getData();
+        final Raster actual = actualBand.getSourceImage().getData();
+
+        for (int y = 0; y < H; ++y) {
+            for (int x = 0; x < W; ++x) {
+                assertEquals(actualBand.getName(), expected.getSample(x, y, 0), actual.getSample(x, y, 0));
+            }
+        }
+    }
+
+    private static Product createSourceProduct(Random random) {
+        final Product product = new Product("CHRIS_RCI", "CHRIS_M1", W, H);
+        OpUtils.setAnnotationString(product, ChrisConstants.ATTR_NAME_CHRIS_MODE, "1");
+        OpUtils.setAnnotationString(product, ChrisConstants.ATTR_NAME_NUMBER_OF_BANDS, String.valueOf(BAND_COUNT));
+
+        for (int i = 1; i <= BAND_COUNT; ++i) {
+            final int[] radiances = new int[W * H];
+            for (int k = 0; k < radiances.length; ++k) {
+                radiances[k] = 1000 + random.nextInt(9000);
+            }
+            addBand(product, "radiance_" + i, ProductData.TYPE_INT32, ProductData.createInstance(radiances));
+        }
+        for (int i = 1; i <= BAND_COUNT; ++i) {
+            final short[] masks = new short[W * H];
+            for (int k = 0; k < masks.length; ++k) {
+                // about one in ten pixels is flagged
+                masks[k] = (short) (random.nextInt(10) == 0 ? 1 : 0);
+            }
+            addBand(product, "mask_" + i, ProductData.TYPE_INT16, ProductData.createInstance(masks));
+        }
+
+        return product;
+    }
+
+    private static Product createFactorProduct(Random random) {
+        final Product product = new Product("CHRIS_VSC", "CHRIS_VSC", W, 1);
+        OpUtils.setAnnotationString(product, ChrisConstants.ATTR_NAME_NOISE_REDUCTION, "Destriping factors");
+
+        for (int i = 1; i <= BAND_COUNT; ++i) {
+            final double[] factors = new double[W];
+            for (int k = 0; k < factors.length; ++k) {
+                factors[k] = 0.9 + 0.2 * random.nextDouble();
+            }
+            addBand(product, "vs_corr_" + i, ProductData.TYPE_FLOAT64, ProductData.createInstance(factors));
+        }
+
+        return product;
+    }
+
+    private static void addBand(Product product, String name, int dataType, ProductData data) {
+        final Band band = product.addBand(name, dataType);
+        band.setSynthetic(true);
+        band.setRasterData(data);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.beam.chris.ui;
+
+import junit.framework.TestCase;
+import org.esa.beam.dataio.chris.ChrisConstants;
+import org.esa.beam.util.io.FileUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Tests for class {@link AcquisitionSetIndex}.
+ *
+ * @author Ralf Quast
+ * @version $Revision$ $Date$
+ */
+public class AcquisitionSetIndexTest extends TestCase {
+
+    private static final FileFilter ALL_FILES = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return true;
+        }
+    };
+
+    private File directory;
+    private File indexDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        final File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        directory = new File(tempDir, "AcquisitionSetIndexTest-data");
+        indexDirectory = new File(tempDir, "AcquisitionSetIndexTest-index");
+        FileUtils.deleteTree(directory);
+        FileUtils.deleteTree(indexDirectory);
+        assertTrue(directory.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteTree(directory);
+        FileUtils.deleteTree(indexDirectory);
+    }
+
+    public void testGetHeaders() throws IOException {
+        final File a = createFile("a" + ChrisConstants.DEFAULT_FILE_EXTENSION);
+        final File b = createFile("b" + ChrisConstants.DEFAULT_FILE_EXTENSION);
+        createFile("c.txt");
+
+        final CountingIndex index = new CountingIndex(indexDirectory);
+        Map<File, ChrisHeader> headerMap = index.getHeaders(directory, ALL_FILES);
+        assertEquals(2, headerMap.size());
+        assertEquals("a" + ChrisConstants.DEFAULT_FILE_EXTENSION, headerMap.get(a).getTargetName());
+        assertEquals(2, index.count);
+
+        // the index is used as long as no file is modified
+        headerMap = index.getHeaders(directory, ALL_FILES);
+        assertEquals(2, headerMap.size());
+        assertEquals(2, index.count);
+
+        // a new file is read, the modification time of the directory does not matter
+        final long directoryLastModified = directory.lastModified();
+        createFile("d" + ChrisConstants.DEFAULT_FILE_EXTENSION);
+        assertTrue(directory.setLastModified(directoryLastModified));
+        headerMap = index.getHeaders(directory, ALL_FILES);
+        assertEquals(3, headerMap.size());
+        assertEquals(3, index.count);
+
+        // a file rewritten in place is read again
+        assertTrue(a.setLastModified(3000000L));
+        headerMap = index.getHeaders(directory, ALL_FILES);
+        assertEquals(3, headerMap.size());
+        assertEquals(4, index.count);
+
+        // the persisted index is used by a new instance
+        final CountingIndex other = new CountingIndex(indexDirectory);
+        headerMap = other.getHeaders(directory, new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().startsWith("a");
+            }
+        });
+        assertEquals(2, headerMap.size());
+        assertTrue(headerMap.containsKey(b));
+        assertEquals(0, other.count);
+    }
+
+    private File createFile(String name) throws IOException {
+        final File file = new File(directory, name);
+        assertTrue(file.createNewFile());
+        return file;
+    }
+
+    private static class CountingIndex extends AcquisitionSetIndex {
+
+        private int count;
+
+        private CountingIndex(File indexDirectory) {
+            super(indexDirectory);
+        }
+
+        @Override
+        ChrisHeader readHeader(File file) throws IOException {
+            count++;
+            return new ChrisHeader("1", file.getName(), "2011-01-01", "0");
+        }
+    }
+}
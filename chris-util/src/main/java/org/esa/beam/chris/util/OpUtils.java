@@ -381,6 +381,29 @@ public class OpUtils {
         }
     }
 
+    /**
+     * Returns the key shared by the names of all products of an acquisition
+     * set. Products belong to the same acquisition set when their names differ
+     * only in the fourth part, which is the fly-by zenith angle.
+     *
+     * @param name the product or file name.
+     *
+     * @return the acquisition set key or {@code null}, if the name is not the
+     *         name of a CHRIS product.
+     */
+    public static String getAcquisitionSetKey(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        final String[] nameParts = name.split("_", 5);
+        if (nameParts.length != 5) {
+            return null;
+        }
+
+        return nameParts[0] + "_" + nameParts[1] + "_" + nameParts[2] + "_*_" + nameParts[4];
+    }
+
     /**
      * Returns the central wavelenghts for any spectral bands of interest.
      *
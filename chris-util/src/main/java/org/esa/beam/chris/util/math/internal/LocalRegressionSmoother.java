@@ -37,6 +37,9 @@ public class LocalRegressionSmoother implements Smoother {
     private final int iter;   // the number of robust regression iterations
     private final double[][] p; // the values of the basis functions for all points in the span
     private final double[][] w; // the regression weights for all points in the span
+    private final double[][] h; // the rows of the hat matrix for all points in the span
+
+    private final ThreadLocal<Workspace> workspace;
 
     /**
      * Constructs a new instance of this class.
@@ -85,6 +88,31 @@ public class LocalRegressionSmoother implements Smoother {
             polynomials.calculate(2.0 * ((double) i / (span - 1)) - 1.0, p[i]);
             regressionWeightCalculator.calculateRegressionWeights(i, w[i]);
         }
+
+        // the fitted value at a point is a linear combination of the response
+        // values in the span, where the coefficients only depend on the position
+        // of the point within the span
+        h = new double[span][span];
+
+        final double[] e = new double[span];
+        final double[] c = new double[degree + 1];
+        for (int j = 0; j < span; ++j) {
+            e[j] = 1.0;
+            for (int i = 0; i < span; ++i) {
+                fit(e, 0, w[i], c, p);
+                for (int k = 0; k < c.length; ++k) {
+                    h[i][j] += c[k] * p[i][k];
+                }
+            }
+            e[j] = 0.0;
+        }
+
+        workspace = new ThreadLocal<Workspace>() {
+            @Override
+            protected Workspace initialValue() {
+                return new Workspace(LocalRegressionSmoother.this.degree + 1, LocalRegressionSmoother.this.span);
+            }
+        };
     }
 
     /**
@@ -136,11 +164,6 @@ public class LocalRegressionSmoother implements Smoother {
         final int m = y.length;
         final int n = degree + 1;
 
-        final double[] a = new double[m];    // absolute residuals
-        final double[] r = new double[m];    // robust weights
-        final double[] c = new double[n];    // linear coefficients
-        final double[] g = new double[span]; // robust regression weights
-
         // local regression smoothing
         for (int i = 0, from = 0; i < m; ++i) {
             if (i > span / 2) {
@@ -148,12 +171,23 @@ public class LocalRegressionSmoother implements Smoother {
                     ++from;
                 }
             }
-            fit(y, from, w[i - from], c, p);
-            z[i] = 0.0;
-            for (int j = 0; j < n; ++j) {
-                z[i] += c[j] * p[i - from][j];
+            final double[] hi = h[i - from];
+            double zi = 0.0;
+            for (int j = 0; j < span; ++j) {
+                zi += hi[j] * y[from + j];
             }
+            z[i] = zi;
         }
+        if (iter == 0) {
+            return;
+        }
+
+        final Workspace ws = workspace.get();
+        final double[] a = ws.getResiduals(m);         // absolute residuals
+        final double[] r = ws.getRobustWeights(m);     // robust weights
+        final double[] c = ws.c;                       // linear coefficients
+        final double[] g = ws.g;                       // robust regression weights
+
         // robust smoothing
         for (int k = 0; k < iter; ++k) {
             for (int i = 0; i < m; ++i) {
@@ -169,7 +203,11 @@ public class LocalRegressionSmoother implements Smoother {
                 for (int j = 0; j < span; ++j) {
                     g[j] = w[i - from][j] * r[from + j];
                 }
-                fit(y, from, g, c, p);
+                try {
+                    fastFit(y, from, g, c, p, ws.a, ws.b);
+                } catch (ArithmeticException e) {
+                    safeFit(y, from, g, c, p);
+                }
                 z[i] = 0.0;
                 for (int j = 0; j < n; ++j) {
                     z[i] += c[j] * p[i - from][j];
@@ -205,12 +243,20 @@ public class LocalRegressionSmoother implements Smoother {
      *                             is not positive definite.
      */
     static void fastFit(double[] y, int from, double[] w, double[] c, double[][] p) throws ArithmeticException {
+        fastFit(y, from, w, c, p, new double[c.length][c.length], new double[c.length]);
+    }
+
+    private static void fastFit(double[] y, int from, double[] w, double[] c, double[][] p, double[][] a, double[] b)
+            throws ArithmeticException {
         final int m = w.length;
         final int n = c.length;
 
-        final double[][] a = new double[n][n];
-        final double[] b = new double[n];
-
+        for (int j = 0; j < n; ++j) {
+            for (int k = j; k < n; ++k) {
+                a[j][k] = 0.0;
+            }
+            b[j] = 0.0;
+        }
         for (int i = 0; i < m; ++i) {
             final double wi = w[i];
             final double[] pi = p[i];
@@ -308,6 +354,41 @@ public class LocalRegressionSmoother implements Smoother {
         }
     }
 
+    /**
+     * Workspace for robust smoothing, which is allocated once per thread.
+     */
+    private static class Workspace {
+
+        private final double[][] a; // the normal matrix
+        private final double[] b;   // the right-hand side of the normal equations
+        private final double[] c;   // the linear coefficients
+        private final double[] g;   // the robust regression weights
+
+        private double[] residuals;
+        private double[] robustWeights;
+
+        private Workspace(int n, int span) {
+            a = new double[n][n];
+            b = new double[n];
+            c = new double[n];
+            g = new double[span];
+        }
+
+        private double[] getResiduals(int m) {
+            if (residuals == null || residuals.length != m) {
+                residuals = new double[m];
+            }
+            return residuals;
+        }
+
+        private double[] getRobustWeights(int m) {
+            if (robustWeights == null || robustWeights.length != m) {
+                robustWeights = new double[m];
+            }
+            return robustWeights;
+        }
+    }
+
     private static class Assert {
 
         public static boolean argument(boolean expression, String message) {
@@ -34,6 +34,17 @@ import java.util.Scanner;
  */
 public class OpUtilsTest extends TestCase {
 
+    public void testGetAcquisitionSetKey() {
+        final String key = OpUtils.getAcquisitionSetKey("CHRIS_BR_060523_3B3E_41.hdf");
+
+        assertEquals("CHRIS_BR_060523_*_41.hdf", key);
+        assertEquals(key, OpUtils.getAcquisitionSetKey("CHRIS_BR_060523_3B3F_41.hdf"));
+        assertFalse(key.equals(OpUtils.getAcquisitionSetKey("CHRIS_BR_060524_3B40_41.hdf")));
+
+        assertNull(OpUtils.getAcquisitionSetKey("other.hdf"));
+        assertNull(OpUtils.getAcquisitionSetKey(null));
+    }
+
     public void testThuillierTableIntegrity() throws IOException {
         final InputStream is = OpUtilsTest.class.getResourceAsStream("thuillier.txt");
 
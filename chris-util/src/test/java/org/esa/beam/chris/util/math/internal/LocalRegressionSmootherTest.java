@@ -224,4 +224,35 @@ public class LocalRegressionSmootherTest extends TestCase {
         assertEquals(25.0, z[5], 1.0E-10);
         assertEquals(81.0, z[9], 1.0E-10);
     }
+
+    public void testSmoothEqualsLocalFit() {
+        final int m = 20;
+        final int span = 7;
+        final double[] y = new double[m];
+        final double[] z = new double[m];
+
+        for (int i = 0; i < m; ++i) {
+            y[i] = Math.sin(0.5 * i) + 0.1 * i;
+        }
+
+        final LowessRegressionWeightCalculator calculator = new LowessRegressionWeightCalculator();
+        new LocalRegressionSmoother(calculator, 2, span).smooth(y, z);
+
+        final double[][] p = new double[span][3];
+        final double[][] w = new double[span][span];
+        for (int i = 0; i < span; ++i) {
+            new LegendrePolynomials().calculate(2.0 * ((double) i / (span - 1)) - 1.0, p[i]);
+            calculator.calculateRegressionWeights(i, w[i]);
+        }
+        final double[] c = new double[3];
+        for (int i = 0, from = 0; i < m; ++i) {
+            if (i > span / 2 && from < m - span) {
+                ++from;
+            }
+            LocalRegressionSmoother.safeFit(y, from, w[i - from], c, p);
+            final double expected = c[0] * p[i - from][0] + c[1] * p[i - from][1] + c[2] * p[i - from][2];
+
+            assertEquals(expected, z[i], 1.0E-10);
+        }
+    }
 }